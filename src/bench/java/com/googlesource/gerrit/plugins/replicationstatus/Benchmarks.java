@@ -0,0 +1,28 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import org.eclipse.jgit.lib.Config;
+
+/** Fixtures shared by the benchmarks. */
+final class Benchmarks {
+  static final String PLUGIN_NAME = "replication-status";
+
+  static ReplicationStatusConfig config(Config config) {
+    return new ReplicationStatusConfig(config, PLUGIN_NAME);
+  }
+
+  private Benchmarks() {}
+}
@@ -0,0 +1,125 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gson.Gson;
+import com.googlesource.gerrit.plugins.replication.ReplicationState.RefPushResult;
+import com.googlesource.gerrit.plugins.replication.events.RefReplicatedEvent;
+import com.googlesource.gerrit.plugins.replication.events.RemoteRefReplicationEvent;
+import com.googlesource.gerrit.plugins.replication.events.ReplicationScheduledEvent;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.URIish;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/** Throughput of the replication events processing, with concurrent event producers. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class EventHandlerBenchmark {
+  private static final String PROJECT = "some/project";
+  private static final String REMOTE = "ssh://some.remote.host/some/project.git";
+
+  @Param({"true", "false"})
+  public boolean asyncWrites;
+
+  private ReplicationStatusWriter writer;
+  private EventHandler eventHandler;
+
+  @Setup
+  public void setUp() {
+    Config config = new Config();
+    config.setBoolean("plugin", Benchmarks.PLUGIN_NAME, "asyncWrites", asyncWrites);
+    ReplicationStatusConfig pluginConfig = Benchmarks.config(config);
+    ReplicationStatusIndex index = new ReplicationStatusIndex();
+    ReplicationStatusMetrics metrics =
+        new ReplicationStatusMetrics(new DisabledMetricMaker(), index);
+
+    writer =
+        new ReplicationStatusWriter(
+            new CacheReplicationStatusStore(CacheBuilder.newBuilder().build()),
+            pluginConfig,
+            metrics);
+    writer.start();
+    eventHandler =
+        new EventHandler(
+            writer,
+            index,
+            metrics,
+            new ReplicationLatency(new DisabledMetricMaker(), pluginConfig),
+            new ReplicationStatusStream(pluginConfig),
+            // Cluster mode is disabled, the broker is never used.
+            new ClusterReplicationStatus(pluginConfig, null, null),
+            new Gson(),
+            null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    writer.stop();
+  }
+
+  /** Events of a producer, scheduling and then completing the replication of its own refs. */
+  @State(Scope.Thread)
+  public static class Producer {
+    private static final int REFS = 10_000;
+    private static final AtomicInteger PRODUCERS = new AtomicInteger();
+
+    private final RemoteRefReplicationEvent[] events = new RemoteRefReplicationEvent[2 * REFS];
+    private int next;
+    private long when;
+
+    @Setup
+    public void setUp() throws URISyntaxException {
+      int producer = PRODUCERS.incrementAndGet();
+      URIish remote = new URIish(REMOTE);
+      for (int i = 0; i < REFS; i++) {
+        String ref = String.format("refs/changes/%02d/%d%d/1", i % 100, producer, i);
+        events[2 * i] = new ReplicationScheduledEvent(PROJECT, ref, remote);
+        events[2 * i + 1] =
+            new RefReplicatedEvent(
+                PROJECT, ref, remote, RefPushResult.SUCCEEDED, RemoteRefUpdate.Status.OK);
+      }
+    }
+
+    RemoteRefReplicationEvent next() {
+      RemoteRefReplicationEvent event = events[next];
+      next = (next + 1) % events.length;
+      // Newer than the status already recorded for the ref, so that every event updates it.
+      event.eventCreatedOn = ++when;
+      return event;
+    }
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void onEvent(Producer producer) {
+    eventHandler.onEvent(producer.next());
+  }
+}
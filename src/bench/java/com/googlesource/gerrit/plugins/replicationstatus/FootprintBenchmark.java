@@ -0,0 +1,146 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.google.gerrit.entities.Project;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Heap and disk footprint of the statuses of changes having a meta ref and one patch set ref each:
+ * the heap taken by the index maps per ref, the size of the files of the mapped store per ref and
+ * the size of a serialized cache key. The footprints are reported as secondary results next to the
+ * time taken to build the index and the store.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class FootprintBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("some/project");
+  private static final String REMOTE = "ssh://some.remote.host/some/project.git";
+  private static final ReplicationStatus STATUS =
+      ReplicationStatus.create(
+          ReplicationStatus.ReplicationType.PUSH,
+          ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+          1615804809L);
+
+  @Param({"100000", "1000000"})
+  public int changes;
+
+  private Map<String, ReplicationStatus> refStatuses;
+  private Map<ReplicationStatus.Key, ReplicationStatus> keyStatuses;
+  private Path directory;
+
+  /** Footprints of one iteration, reported by JMH next to the primary result. */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Footprint {
+    public long indexBytesPerRef;
+    public long storeTableBytesPerRef;
+    public long storeRefsFileBytes;
+    public long cacheKeyBytes;
+  }
+
+  @Setup
+  public void setUp() {
+    // All the refs share one status, so that the index footprint is the one of its maps.
+    refStatuses = new HashMap<>(4 * changes);
+    keyStatuses = new HashMap<>(4 * changes);
+    for (int change = 1; change <= changes; change++) {
+      String prefix = String.format("refs/changes/%02d/%d/", change % 100, change);
+      for (String ref : new String[] {prefix + "meta", prefix + "1"}) {
+        refStatuses.put(ref, STATUS);
+        keyStatuses.put(ReplicationStatus.Key.create(PROJECT, REMOTE, ref), STATUS);
+      }
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void createDirectory() throws Exception {
+    directory = Files.createTempDirectory("replication-status-footprint");
+  }
+
+  @TearDown(Level.Iteration)
+  public void deleteDirectory() throws Exception {
+    MoreFiles.deleteRecursively(directory, RecursiveDeleteOption.ALLOW_INSECURE);
+  }
+
+  @Benchmark
+  public ReplicationStatusIndex index(Footprint footprint) {
+    long before = usedHeap();
+    ReplicationStatusIndex index = new ReplicationStatusIndex();
+    // Copies of the names, so that the index holds its own like when fed by the events, rather
+    // than the names of the fixture, which are not part of the footprint.
+    index.putAll(PROJECT, REMOTE, copyNames(refStatuses));
+    footprint.indexBytesPerRef = (usedHeap() - before) / refStatuses.size();
+    return index;
+  }
+
+  @Benchmark
+  public long mappedStore(Footprint footprint) throws Exception {
+    // The smallest capacity holding all the refs, so that the table holds no more free slots
+    // than the store keeps at full load.
+    long capacity = keyStatuses.size() * 10L / 9 + 2;
+    MappedReplicationStatusStore store = MappedReplicationStatusStore.open(directory, capacity);
+    try {
+      store.putAll(keyStatuses);
+      store.flush();
+      footprint.storeTableBytesPerRef = Files.size(directory.resolve("table")) / keyStatuses.size();
+      footprint.storeRefsFileBytes = Files.size(directory.resolve("refs"));
+      return store.size();
+    } finally {
+      store.close();
+    }
+  }
+
+  @Benchmark
+  public byte[] cacheKey(Footprint footprint) {
+    byte[] serialized =
+        ReplicationStatus.Key.Serializer.INSTANCE.serialize(
+            ReplicationStatus.Key.create(PROJECT, REMOTE, "refs/changes/34/1234/5"));
+    footprint.cacheKeyBytes = serialized.length;
+    return serialized;
+  }
+
+  private static Map<String, ReplicationStatus> copyNames(Map<String, ReplicationStatus> statuses) {
+    Map<String, ReplicationStatus> copy = new HashMap<>(4 * statuses.size() / 3);
+    statuses.forEach((ref, status) -> copy.put(new String(ref.toCharArray()), status));
+    return copy;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,197 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.testing.InMemoryRepositoryManager;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Latency of the replication-status endpoint on a repository whose refs all have a replication
+ * status, when served from the index, from the memoized response and from the persisted cache, and
+ * when streamed from the index as JSON and as protobuf.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ReplicationStatusActionBenchmark {
+  private static final Project.NameKey PROJECT = Project.nameKey("some/project");
+  private static final String REMOTE = "ssh://some.remote.host/some/project.git";
+
+  @Param({"10000", "100000", "1000000"})
+  public int refs;
+
+  private InMemoryRepositoryManager repoManager;
+  private Cache<ReplicationStatus.Key, ReplicationStatus> cache;
+  private ReplicationStatusStore store;
+  private ReplicationStatusIndex index;
+  private ReplicationStatusLoader loader;
+  private ReplicationStatusProjectRemoteResource resource;
+  private ReplicationStatusAction memoizedAction;
+
+  @Setup
+  public void setUp() throws Exception {
+    repoManager = new InMemoryRepositoryManager();
+    cache = CacheBuilder.newBuilder().build();
+    try (Repository repo = repoManager.createRepository(PROJECT)) {
+      ObjectId commit = insertCommit(repo);
+      BatchRefUpdate update = repo.getRefDatabase().newBatchUpdate();
+      for (int i = 0; i < refs; i++) {
+        String ref = String.format("refs/changes/%02d/%d/1", i % 100, i);
+        update.addCommand(new ReceiveCommand(ObjectId.zeroId(), commit, ref));
+        cache.put(
+            ReplicationStatus.Key.create(PROJECT, REMOTE, ref),
+            ReplicationStatus.create(
+                ReplicationStatus.ReplicationType.PUSH,
+                ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+                1615804809L + i));
+      }
+      try (RevWalk rw = new RevWalk(repo)) {
+        update.execute(rw, NullProgressMonitor.INSTANCE);
+      }
+    }
+
+    resource = new ReplicationStatusProjectRemoteResource(PROJECT, REMOTE, REMOTE);
+    index = new ReplicationStatusIndex();
+    store = new CacheReplicationStatusStore(cache);
+    loader = newLoader(index);
+    memoizedAction = newAction(index, loader, new ReplicationStatusResponseCache());
+    memoizedAction.apply(resource);
+  }
+
+  /** Index never loaded, so that every request reads the statuses from the persisted cache. */
+  @State(Scope.Thread)
+  public static class ColdIndex {
+    private ReplicationStatusAction action;
+
+    @Setup(Level.Invocation)
+    public void setUp(ReplicationStatusActionBenchmark benchmark) {
+      ReplicationStatusIndex index = new ReplicationStatusIndex();
+      action =
+          benchmark.newAction(
+              index,
+              benchmark.newLoader(index),
+              new ReplicationStatusResponseCache());
+    }
+  }
+
+  @Benchmark
+  public Object fromIndex() throws Exception {
+    // A new response cache per request, so that the response is built every time.
+    return newAction(index, loader, new ReplicationStatusResponseCache()).apply(resource).value();
+  }
+
+  @Benchmark
+  public Object memoized() throws Exception {
+    return memoizedAction.apply(resource).value();
+  }
+
+  @Benchmark
+  public Object fromCache(ColdIndex coldIndex) throws Exception {
+    return coldIndex.action.apply(resource).value();
+  }
+
+  @Benchmark
+  public void streamedJson() throws Exception {
+    stream(ReplicationStatusAction.Format.JSON_STREAM);
+  }
+
+  @Benchmark
+  public void streamedProto() throws Exception {
+    stream(ReplicationStatusAction.Format.PROTO);
+  }
+
+  private void stream(ReplicationStatusAction.Format format) throws Exception {
+    ReplicationStatusAction action =
+        newAction(index, loader, new ReplicationStatusResponseCache()).setFormat(format);
+    ((BinaryResult) action.apply(resource).value()).writeTo(OutputStream.nullOutputStream());
+  }
+
+  private ReplicationStatusLoader newLoader(ReplicationStatusIndex index) {
+    // Not started, the writer has no pending update.
+    ReplicationStatusWriter writer =
+        new ReplicationStatusWriter(
+            store,
+            Benchmarks.config(new Config()),
+            new ReplicationStatusMetrics(new DisabledMetricMaker(), index));
+    return new ReplicationStatusLoader(store, index, writer);
+  }
+
+  private ReplicationStatusAction newAction(
+      ReplicationStatusIndex index,
+      ReplicationStatusLoader loader,
+      ReplicationStatusResponseCache responseCache) {
+    return new ReplicationStatusAction(
+        new AllowAllPermissions(),
+        repoManager,
+        index,
+        loader,
+        new ReplicationStatusMetrics(new DisabledMetricMaker(), index),
+        responseCache);
+  }
+
+  private static ObjectId insertCommit(Repository repo) throws Exception {
+    try (ObjectInserter inserter = repo.newObjectInserter()) {
+      PersonIdent ident = new PersonIdent("Benchmark", "benchmark@example.com");
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(inserter.insert(new TreeFormatter()));
+      commit.setAuthor(ident);
+      commit.setCommitter(ident);
+      commit.setMessage("Benchmark");
+      ObjectId id = inserter.insert(commit);
+      inserter.flush();
+      return id;
+    }
+  }
+
+  private static class AllowAllPermissions extends ReplicationStatusPermissions {
+    AllowAllPermissions() {
+      super(null);
+    }
+
+    @Override
+    void checkIsOwnerOrAdmin(Project.NameKey project) {}
+
+    @Override
+    boolean isOwnerOrAdmin(Project.NameKey project) {
+      return true;
+    }
+  }
+}
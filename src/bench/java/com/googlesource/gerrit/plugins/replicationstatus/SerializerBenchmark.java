@@ -0,0 +1,84 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.entities.Project;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Cost of the serialization of the persisted cache keys and values. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class SerializerBenchmark {
+  private ReplicationStatus.Key key;
+  private ReplicationStatus status;
+  private byte[] serializedKey;
+  private byte[] serializedStatus;
+
+  @Setup
+  public void setUp() {
+    key =
+        ReplicationStatus.Key.create(
+            Project.nameKey("some/project"),
+            "ssh://some.remote.host/some/project.git",
+            "refs/changes/34/1234/5");
+    status =
+        ReplicationStatus.create(
+            ReplicationStatus.ReplicationType.PUSH,
+            ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+            1615804809L);
+    serializedKey = ReplicationStatus.Key.Serializer.INSTANCE.serialize(key);
+    serializedStatus = ReplicationStatus.Serializer.INSTANCE.serialize(status);
+  }
+
+  @Benchmark
+  public byte[] serializeKey() {
+    return ReplicationStatus.Key.Serializer.INSTANCE.serialize(key);
+  }
+
+  @Benchmark
+  public ReplicationStatus.Key deserializeKey() {
+    return ReplicationStatus.Key.Serializer.INSTANCE.deserialize(serializedKey);
+  }
+
+  @Benchmark
+  public ReplicationStatus.Key roundTripKey() {
+    return ReplicationStatus.Key.Serializer.INSTANCE.deserialize(
+        ReplicationStatus.Key.Serializer.INSTANCE.serialize(key));
+  }
+
+  @Benchmark
+  public byte[] serializeStatus() {
+    return ReplicationStatus.Serializer.INSTANCE.serialize(status);
+  }
+
+  @Benchmark
+  public ReplicationStatus deserializeStatus() {
+    return ReplicationStatus.Serializer.INSTANCE.deserialize(serializedStatus);
+  }
+
+  @Benchmark
+  public ReplicationStatus roundTripStatus() {
+    return ReplicationStatus.Serializer.INSTANCE.deserialize(
+        ReplicationStatus.Serializer.INSTANCE.serialize(status));
+  }
+}
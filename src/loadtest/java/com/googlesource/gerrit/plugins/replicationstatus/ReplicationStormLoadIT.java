@@ -0,0 +1,254 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.gerrit.extensions.restapi.Url.encode;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.TestPlugin;
+import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
+import com.google.gerrit.entities.Project;
+import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.replication.ReplicationState.RefPushResult;
+import com.googlesource.gerrit.plugins.replication.events.RefReplicatedEvent;
+import com.googlesource.gerrit.plugins.replication.events.RemoteRefReplicationEvent;
+import com.googlesource.gerrit.plugins.replication.events.ReplicationScheduledEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Replays a replication storm, such as the full re-replication of all the projects, while the
+ * replication status of some projects is queried, and checks the plugin keeps up within budgets.
+ *
+ * <p>The load and the budgets are set with system properties, e.g. {@code
+ * --jvmopt=-Dloadtest.projects=20000}:
+ *
+ * <ul>
+ *   <li>{@code loadtest.projects}: projects the events are about, only the queried ones exist
+ *   <li>{@code loadtest.queriedProjects}: projects whose replication status is queried
+ *   <li>{@code loadtest.refsPerProject}: refs replicated for every project
+ *   <li>{@code loadtest.eventsPerSecond}: rate at which the events are fired
+ *   <li>{@code loadtest.durationSec}: duration of the storm
+ *   <li>{@code loadtest.producerThreads}: threads firing the events
+ *   <li>{@code loadtest.queryThreads}: threads querying the replication status
+ *   <li>{@code loadtest.maxIngestLagMs}: budget for the 99th percentile of the delay between the
+ *       time an event is due and the time it is recorded
+ *   <li>{@code loadtest.maxQueryLatencyMs}: budget for the 99th percentile of the query latency
+ *   <li>{@code loadtest.maxWriteDrainMs}: budget for persisting the writes still pending at the
+ *       end of the storm
+ *   <li>{@code loadtest.maxHeapGrowthMb}: budget for the growth of the heap used after the storm
+ * </ul>
+ */
+@TestPlugin(
+    name = "replication-status",
+    sysModule = "com.googlesource.gerrit.plugins.replicationstatus.Module")
+public class ReplicationStormLoadIT extends LightweightPluginDaemonTest {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final String REMOTE = "ssh://some.remote.host/";
+
+  private final int projects = Integer.getInteger("loadtest.projects", 2_000);
+  private final int queriedProjects =
+      Math.min(projects, Integer.getInteger("loadtest.queriedProjects", 10));
+  private final int refsPerProject = Integer.getInteger("loadtest.refsPerProject", 10);
+  private final int eventsPerSecond = Integer.getInteger("loadtest.eventsPerSecond", 5_000);
+  private final int durationSec = Integer.getInteger("loadtest.durationSec", 30);
+  private final int producerThreads = Integer.getInteger("loadtest.producerThreads", 4);
+  private final int queryThreads = Integer.getInteger("loadtest.queryThreads", 2);
+  private final long maxIngestLagMs = Long.getLong("loadtest.maxIngestLagMs", 1_000);
+  private final long maxQueryLatencyMs = Long.getLong("loadtest.maxQueryLatencyMs", 2_000);
+  private final long maxWriteDrainMs = Long.getLong("loadtest.maxWriteDrainMs", 30_000);
+  private final long maxHeapGrowthMb = Long.getLong("loadtest.maxHeapGrowthMb", 512);
+
+  @Inject private ProjectOperations projectOperations;
+
+  private EventHandler eventHandler;
+  private ReplicationStatusWriter writer;
+  private List<Project.NameKey> projectNames;
+
+  @Before
+  public void setUp() {
+    eventHandler = plugin.getSysInjector().getInstance(EventHandler.class);
+    writer = plugin.getSysInjector().getInstance(ReplicationStatusWriter.class);
+
+    projectNames = new ArrayList<>(projects);
+    for (int i = 0; i < projects; i++) {
+      projectNames.add(
+          i < queriedProjects
+              ? projectOperations.newProject().create()
+              : Project.nameKey(String.format("loadtest/project-%05d", i)));
+    }
+  }
+
+  @Test
+  public void shouldKeepUpWithReplicationStorm() throws Exception {
+    long heapBefore = usedHeap();
+    LatencyHistogram ingestLag = new LatencyHistogram();
+    LatencyHistogram queryLatency = new LatencyHistogram();
+    AtomicBoolean stormOver = new AtomicBoolean();
+
+    ExecutorService executor = Executors.newFixedThreadPool(producerThreads + queryThreads);
+    try {
+      List<Future<?>> queries = new ArrayList<>();
+      for (int i = 0; i < queryThreads; i++) {
+        queries.add(executor.submit(() -> query(stormOver, queryLatency)));
+      }
+
+      long totalEvents = (long) eventsPerSecond * durationSec;
+      long startNanos = System.nanoTime();
+      AtomicLong nextEvent = new AtomicLong();
+      List<Future<?>> producers = new ArrayList<>();
+      for (int i = 0; i < producerThreads; i++) {
+        producers.add(
+            executor.submit(() -> produce(nextEvent, totalEvents, startNanos, ingestLag)));
+      }
+      for (Future<?> producer : producers) {
+        producer.get();
+      }
+      stormOver.set(true);
+      for (Future<?> query : queries) {
+        query.get();
+      }
+      long stormMs = NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+      long drainStartNanos = System.nanoTime();
+      while (writer.pendingCount() > 0
+          && NANOSECONDS.toMillis(System.nanoTime() - drainStartNanos) <= maxWriteDrainMs) {
+        MILLISECONDS.sleep(10);
+      }
+      long drainMs = NANOSECONDS.toMillis(System.nanoTime() - drainStartNanos);
+      long heapGrowthMb = (usedHeap() - heapBefore) / (1024 * 1024);
+
+      logger.atInfo().log(
+          "Replication storm: %d events in %d ms (%d events/s requested)\n"
+              + "  ingest lag (ms): p50=%d p95=%d p99=%d\n"
+              + "  query latency (ms): %d queries, p50=%d p95=%d p99=%d\n"
+              + "  write drain: %d ms, heap growth: %d MB",
+          ingestLag.count(),
+          stormMs,
+          eventsPerSecond,
+          ingestLag.percentile(50),
+          ingestLag.percentile(95),
+          ingestLag.percentile(99),
+          queryLatency.count(),
+          queryLatency.percentile(50),
+          queryLatency.percentile(95),
+          queryLatency.percentile(99),
+          drainMs,
+          heapGrowthMb);
+
+      assertWithMessage("p99 ingest lag (ms)")
+          .that(ingestLag.percentile(99))
+          .isAtMost(maxIngestLagMs);
+      assertWithMessage("p99 query latency (ms)")
+          .that(queryLatency.percentile(99))
+          .isAtMost(maxQueryLatencyMs);
+      assertWithMessage("pending writes after %s ms", maxWriteDrainMs)
+          .that(writer.pendingCount())
+          .isEqualTo(0);
+      assertWithMessage("heap growth (MB)").that(heapGrowthMb).isAtMost(maxHeapGrowthMb);
+    } finally {
+      executor.shutdownNow();
+      executor.awaitTermination(10, SECONDS);
+    }
+  }
+
+  /**
+   * Fires the events at the requested rate, each of them being due at a fixed time from the start
+   * of the storm, so that a handler not keeping up shows as a growing lag.
+   */
+  private Void produce(
+      AtomicLong nextEvent, long totalEvents, long startNanos, LatencyHistogram ingestLag)
+      throws Exception {
+    long intervalNanos = SECONDS.toNanos(1) / eventsPerSecond;
+    for (long n = nextEvent.getAndIncrement(); n < totalEvents; n = nextEvent.getAndIncrement()) {
+      long dueNanos = startNanos + n * intervalNanos;
+      long waitNanos = dueNanos - System.nanoTime();
+      if (waitNanos > 0) {
+        LockSupport.parkNanos(waitNanos);
+      }
+      eventHandler.onEvent(event(n));
+      ingestLag.record(NANOSECONDS.toMillis(System.nanoTime() - dueNanos));
+    }
+    return null;
+  }
+
+  /**
+   * Returns the n-th event of the storm: every ref of every project is scheduled for push,
+   * pushed, and then scheduled for fetch.
+   */
+  private RemoteRefReplicationEvent event(long n) throws Exception {
+    long replication = n / 3;
+    Project.NameKey project = projectNames.get((int) (replication % projects));
+    long refNumber = (replication / projects) % refsPerProject;
+    String ref = String.format("refs/changes/%02d/%d/1", refNumber % 100, refNumber);
+    URIish remote = new URIish(REMOTE + project.get() + ".git");
+
+    RemoteRefReplicationEvent event;
+    switch ((int) (n % 3)) {
+      case 0:
+        event = new ReplicationScheduledEvent(project.get(), ref, remote);
+        break;
+      case 1:
+        event =
+            new RefReplicatedEvent(
+                project.get(), ref, remote, RefPushResult.SUCCEEDED, RemoteRefUpdate.Status.OK);
+        break;
+      default:
+        event =
+            new RemoteRefReplicationEvent(
+                "fetch-ref-replication-scheduled", project.get(), ref, remote, null);
+    }
+    event.eventCreatedOn = System.currentTimeMillis() / 1000;
+    return event;
+  }
+
+  private Void query(AtomicBoolean stormOver, LatencyHistogram queryLatency) throws Exception {
+    while (!stormOver.get()) {
+      Project.NameKey project =
+          projectNames.get(ThreadLocalRandom.current().nextInt(queriedProjects));
+      String endpoint =
+          String.format(
+              "/projects/%s/remotes/%s/replication-status",
+              project.get(), encode(REMOTE + project.get() + ".git"));
+
+      long startNanos = System.nanoTime();
+      adminRestSession.get(endpoint).assertOK();
+      queryLatency.record(NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+    return null;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
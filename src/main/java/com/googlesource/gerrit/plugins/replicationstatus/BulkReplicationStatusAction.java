@@ -0,0 +1,239 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Returns the replication status of several projects and remotes at once.
+ *
+ * <p>The permissions are checked for every project before the response is sent, the statuses are
+ * then written to the response as they are read, one project at a time, so that the response is
+ * never held in memory as a whole. The statuses of the remotes not loaded into the index are read
+ * from the store as they are written, without loading the remotes, like for a single remote.
+ */
+@Singleton
+class BulkReplicationStatusAction
+    implements RestModifyView<ConfigResource, BulkReplicationStatusAction.Input> {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static class Input {
+    List<ProjectInput> projects;
+  }
+
+  static class ProjectInput {
+    String project;
+    List<String> remotes;
+    /** Refs to return the status of, all the refs having a status if not set. */
+    List<String> refs;
+  }
+
+  private final ReplicationStatusPermissions permissions;
+  private final ProjectCache projectCache;
+  private final GitRepositoryManager repoManager;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+
+  @Inject
+  BulkReplicationStatusAction(
+      ReplicationStatusPermissions permissions,
+      ProjectCache projectCache,
+      GitRepositoryManager repoManager,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader) {
+    this.permissions = permissions;
+    this.projectCache = projectCache;
+    this.repoManager = repoManager;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+  }
+
+  @Override
+  public Response<BinaryResult> apply(ConfigResource resource, Input input)
+      throws AuthException, BadRequestException {
+    if (input == null || input.projects == null || input.projects.isEmpty()) {
+      throw new BadRequestException("projects are required");
+    }
+
+    Set<Project.NameKey> checked = new HashSet<>();
+    for (ProjectInput projectInput : input.projects) {
+      if (projectInput == null || projectInput.project == null) {
+        throw new BadRequestException("project is required");
+      }
+      if (projectInput.remotes == null || projectInput.remotes.isEmpty()) {
+        throw new BadRequestException(
+            String.format("remotes are required for project %s", projectInput.project));
+      }
+      Project.NameKey projectNameKey = Project.nameKey(projectInput.project);
+      if (checked.add(projectNameKey)) {
+        permissions.checkIsOwnerOrAdmin(projectNameKey);
+        if (!projectCache.get(projectNameKey).isPresent()) {
+          throw new BadRequestException(
+              String.format("Project %s does not exist", projectNameKey.get()));
+        }
+      }
+    }
+
+    return Response.ok(
+        new BinaryResult() {
+          @Override
+          public void writeTo(OutputStream os) throws IOException {
+            write(input.projects, os);
+          }
+        }.setContentType(OutputFormat.JSON.mimeType()).setCharacterEncoding(UTF_8));
+  }
+
+  private void write(List<ProjectInput> projects, OutputStream os) throws IOException {
+    Gson gson = OutputFormat.JSON_COMPACT.newGson();
+    JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(os, UTF_8)));
+    json.beginArray();
+    for (ProjectInput projectInput : projects) {
+      write(projectInput, gson, json);
+    }
+    json.endArray();
+    json.flush();
+  }
+
+  private void write(ProjectInput projectInput, Gson gson, JsonWriter json) throws IOException {
+    Project.NameKey projectNameKey = Project.nameKey(projectInput.project);
+    // Each remote and ref once, as they are the names of JSON members.
+    Set<String> remotes = new LinkedHashSet<>(projectInput.remotes);
+    Set<String> refs = projectInput.refs != null ? new LinkedHashSet<>(projectInput.refs) : null;
+
+    ProjectReplicationStatus.ProjectReplicationStatusResult overallStatus =
+        ProjectReplicationStatus.ProjectReplicationStatusResult.OK;
+    json.beginObject();
+    json.name("remotes").beginObject();
+    try (Repository git = openRepository(projectNameKey)) {
+      for (String remote : remotes) {
+        json.name(remote).beginObject();
+        json.name("status").beginObject();
+        if (refs == null) {
+          for (Map.Entry<String, ReplicationStatus> refStatus :
+              refStatuses(git, projectNameKey, remote)) {
+            overallStatus =
+                write(refStatus.getKey(), refStatus.getValue(), overallStatus, gson, json);
+          }
+        } else {
+          Map<String, ReplicationStatus> refStatuses =
+              refStatuses(git, projectNameKey, remote, refs);
+          for (String ref : refs) {
+            ReplicationStatus status = refStatuses.get(ref);
+            if (status != null) {
+              overallStatus = write(ref, status, overallStatus, gson, json);
+            }
+          }
+        }
+        json.endObject();
+        json.endObject();
+      }
+    }
+    json.endObject();
+    json.name("status").value(overallStatus.name());
+    json.name("project").value(projectNameKey.get());
+    json.endObject();
+  }
+
+  private static ProjectReplicationStatus.ProjectReplicationStatusResult write(
+      String ref,
+      ReplicationStatus status,
+      ProjectReplicationStatus.ProjectReplicationStatusResult overallStatus,
+      Gson gson,
+      JsonWriter json)
+      throws IOException {
+    json.name(ref);
+    gson.toJson(status, status.getClass(), json);
+    return status.isFailure()
+        ? ProjectReplicationStatus.ProjectReplicationStatusResult.FAILED
+        : overallStatus;
+  }
+
+  /**
+   * Returns the statuses of all the refs of the remote, read from the store as they are iterated if
+   * the remote is not loaded into the index.
+   */
+  private Iterable<Map.Entry<String, ReplicationStatus>> refStatuses(
+      @Nullable Repository git, Project.NameKey projectNameKey, String remote)
+      throws IOException {
+    Optional<Map<String, ReplicationStatus>> indexed =
+        replicationStatusIndex.get(projectNameKey, remote);
+    if (indexed.isPresent()) {
+      return indexed.get().entrySet();
+    }
+    return git != null
+        ? replicationStatusLoader.stream(git, projectNameKey, remote, "")
+        : Collections.emptyList();
+  }
+
+  /**
+   * Returns the statuses of the refs of the remote, only reading the refs from the store if the
+   * remote is not loaded into the index.
+   */
+  private Map<String, ReplicationStatus> refStatuses(
+      @Nullable Repository git, Project.NameKey projectNameKey, String remote, Set<String> refs)
+      throws IOException {
+    Optional<Map<String, ReplicationStatus>> indexed =
+        replicationStatusIndex.get(projectNameKey, remote);
+    if (indexed.isPresent()) {
+      return indexed.get();
+    }
+    return git != null
+        ? replicationStatusLoader.readRefs(git, projectNameKey, remote, refs)
+        : ImmutableMap.of();
+  }
+
+  /** Returns the repository of the project, or null if the project has been deleted since. */
+  @Nullable
+  private Repository openRepository(Project.NameKey projectNameKey) throws IOException {
+    try {
+      return repoManager.openRepository(projectNameKey);
+    } catch (RepositoryNotFoundException e) {
+      // Deleted since the request was validated, its statuses are reported as empty.
+      logger.atFine().log("Project %s does not exist", projectNameKey);
+      return null;
+    }
+  }
+}
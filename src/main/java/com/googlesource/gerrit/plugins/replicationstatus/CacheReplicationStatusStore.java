@@ -0,0 +1,93 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.CACHE_NAME;
+
+import com.google.common.cache.Cache;
+import com.google.common.collect.Iterables;
+import com.google.gerrit.common.Nullable;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Stores the statuses in the persistent cache of Gerrit.
+ *
+ * <p>The statuses of the change refs persisted before their keys were serialized by number are
+ * keyed by the ref name. They are looked up when a change ref has no status under its key, and
+ * moved to that key once found.
+ */
+@Singleton
+class CacheReplicationStatusStore implements ReplicationStatusStore {
+  private final Cache<ReplicationStatus.Key, ReplicationStatus> replicationStatusCache;
+  // Held while a status is moved to its new key, so that it neither overwrites a newer status nor
+  // brings back an invalidated one.
+  private final Object moveLock = new Object();
+
+  @Inject
+  CacheReplicationStatusStore(
+      @Named(CACHE_NAME) Cache<ReplicationStatus.Key, ReplicationStatus> replicationStatusCache) {
+    this.replicationStatusCache = replicationStatusCache;
+  }
+
+  @Override
+  @Nullable
+  public ReplicationStatus get(ReplicationStatus.Key key) {
+    ReplicationStatus status = replicationStatusCache.getIfPresent(key);
+    ReplicationStatus.Key byName = key.changeRefByNameKey();
+    if (status != null || byName == null || replicationStatusCache.getIfPresent(byName) == null) {
+      return status;
+    }
+    synchronized (moveLock) {
+      ReplicationStatus persistedByName = replicationStatusCache.getIfPresent(byName);
+      status = replicationStatusCache.getIfPresent(key);
+      if (persistedByName == null) {
+        return status;
+      }
+      status = ReplicationStatus.latest(status, persistedByName);
+      replicationStatusCache.put(key, status);
+      replicationStatusCache.invalidate(byName);
+      return status;
+    }
+  }
+
+  @Override
+  public void putAll(Map<ReplicationStatus.Key, ReplicationStatus> statuses) {
+    synchronized (moveLock) {
+      replicationStatusCache.putAll(statuses);
+    }
+  }
+
+  @Override
+  public void invalidateAll(Collection<ReplicationStatus.Key> keys) {
+    synchronized (moveLock) {
+      replicationStatusCache.invalidateAll(
+          Iterables.concat(
+              keys,
+              Iterables.filter(
+                  Iterables.transform(keys, ReplicationStatus.Key::changeRefByNameKey),
+                  Objects::nonNull)));
+    }
+  }
+
+  @Override
+  public void flush() {
+    // The persistent cache writes through to its disk storage.
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+/**
+ * Compact form of the names of the change refs, which make up most of the refs of a repository.
+ *
+ * <p>A patch set ref {@code refs/changes/NN/C/P} and a change meta ref {@code
+ * refs/changes/NN/C/meta} are encoded in a single long, the change number in the upper 32 bits and
+ * the patch set number, or 0 for the meta ref, in the lower ones. Only the names in their canonical
+ * form are encoded, so that decoding an encoded name always gives the same name back.
+ */
+final class ChangeRefName {
+  /** Encoded form of the names which are not change refs. */
+  static final long NONE = 0L;
+
+  private static final String PREFIX = "refs/changes/";
+  private static final String META = "meta";
+
+  /** Returns the encoded name of the change ref, or {@link #NONE} if not a change ref. */
+  static long encode(String ref) {
+    if (!ref.startsWith(PREFIX)) {
+      return NONE;
+    }
+    int shardEnd = PREFIX.length() + 2;
+    if (ref.length() <= shardEnd || ref.charAt(shardEnd) != '/') {
+      return NONE;
+    }
+    int changeEnd = ref.indexOf('/', shardEnd + 1);
+    if (changeEnd < 0) {
+      return NONE;
+    }
+    int change = parsePositiveInt(ref, shardEnd + 1, changeEnd);
+    if (change <= 0
+        || parseShard(ref, PREFIX.length()) != change % 100
+        || ref.length() == changeEnd + 1) {
+      return NONE;
+    }
+    int patchSet;
+    if (ref.regionMatches(changeEnd + 1, META, 0, META.length())
+        && ref.length() == changeEnd + 1 + META.length()) {
+      patchSet = 0;
+    } else {
+      patchSet = parsePositiveInt(ref, changeEnd + 1, ref.length());
+      if (patchSet <= 0) {
+        return NONE;
+      }
+    }
+    return encode(change, patchSet);
+  }
+
+  /** Returns the encoded name of the patch set ref, or of the change meta ref if 0. */
+  static long encode(int change, int patchSet) {
+    return ((long) change << 32) | (patchSet & 0xFFFFFFFFL);
+  }
+
+  /** Returns the name of the change ref encoded by {@link #encode(String)}. */
+  static String decode(long encoded) {
+    int patchSet = patchSet(encoded);
+    StringBuilder ref = appendPrefix(new StringBuilder(32), change(encoded));
+    return patchSet == 0 ? ref.append(META).toString() : ref.append(patchSet).toString();
+  }
+
+  /** Returns the prefix shared by the refs of the change, {@code refs/changes/NN/C/}. */
+  static String prefix(int change) {
+    return appendPrefix(new StringBuilder(24), change).toString();
+  }
+
+  /** Returns the change number of the encoded name. */
+  static int change(long encoded) {
+    return (int) (encoded >>> 32);
+  }
+
+  /** Returns the patch set number of the encoded name, 0 for the meta ref. */
+  static int patchSet(long encoded) {
+    return (int) encoded;
+  }
+
+  private static StringBuilder appendPrefix(StringBuilder ref, int change) {
+    int shard = change % 100;
+    ref.append(PREFIX);
+    if (shard < 10) {
+      ref.append('0');
+    }
+    return ref.append(shard).append('/').append(change).append('/');
+  }
+
+  private static int parseShard(String ref, int start) {
+    char tens = ref.charAt(start);
+    char units = ref.charAt(start + 1);
+    if (tens < '0' || tens > '9' || units < '0' || units > '9') {
+      return -1;
+    }
+    return (tens - '0') * 10 + (units - '0');
+  }
+
+  /** Parses a positive int without leading zeros, returns -1 if there is none. */
+  private static int parsePositiveInt(String s, int start, int end) {
+    if (start >= end || end - start > 10 || s.charAt(start) == '0') {
+      return -1;
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value <= Integer.MAX_VALUE ? (int) value : -1;
+  }
+
+  private ChangeRefName() {}
+}
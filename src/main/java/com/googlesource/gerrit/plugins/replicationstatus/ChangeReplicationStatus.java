@@ -0,0 +1,73 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Replication status of a change, rolled up from the statuses of its patch set and meta refs: the
+ * worst status of the refs, the time of the newest one and the number of refs.
+ */
+@AutoValue
+public abstract class ChangeReplicationStatus {
+  // Worst first: a change is only replicated once all of its refs are.
+  private static final ImmutableList<ReplicationStatus.ReplicationStatusResult> SEVERITY =
+      ImmutableList.of(
+          ReplicationStatus.ReplicationStatusResult.FAILED,
+          ReplicationStatus.ReplicationStatusResult.UNKNOWN,
+          ReplicationStatus.ReplicationStatusResult.NOT_ATTEMPTED,
+          ReplicationStatus.ReplicationStatusResult.OUT_OF_DATE,
+          ReplicationStatus.ReplicationStatusResult.SCHEDULED,
+          ReplicationStatus.ReplicationStatusResult.SUCCEEDED);
+
+  static ChangeReplicationStatus create(
+      ReplicationStatus.ReplicationStatusResult status, long when, int refs) {
+    return new AutoValue_ChangeReplicationStatus(status, when, refs);
+  }
+
+  static ChangeReplicationStatus of(ReplicationStatus refStatus) {
+    return create(refStatus.status(), refStatus.when(), 1);
+  }
+
+  /** Returns the statuses of the changes having refs among the given ones, by change number. */
+  static Map<Integer, ChangeReplicationStatus> rollup(Map<String, ReplicationStatus> refStatuses) {
+    Map<Integer, ChangeReplicationStatus> changes = new TreeMap<>();
+    refStatuses.forEach(
+        (ref, status) -> {
+          long changeRef = ChangeRefName.encode(ref);
+          if (changeRef != ChangeRefName.NONE) {
+            changes.merge(
+                ChangeRefName.change(changeRef), of(status), ChangeReplicationStatus::merge);
+          }
+        });
+    return changes;
+  }
+
+  static ChangeReplicationStatus merge(ChangeReplicationStatus a, ChangeReplicationStatus b) {
+    return create(
+        SEVERITY.indexOf(a.status()) <= SEVERITY.indexOf(b.status()) ? a.status() : b.status(),
+        Math.max(a.when(), b.when()),
+        a.refs() + b.refs());
+  }
+
+  public abstract ReplicationStatus.ReplicationStatusResult status();
+
+  public abstract long when();
+
+  public abstract int refs();
+}
@@ -0,0 +1,86 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Returns the rolled up replication status of a single change, reading only the refs of the change
+ * rather than all the refs of the repository.
+ */
+@Singleton
+class ChangeReplicationStatusAction implements RestReadView<ChangeReplicationStatusResource> {
+  private final ReplicationStatusPermissions permissions;
+  private final GitRepositoryManager repoManager;
+  private final ReplicationStatusLoader replicationStatusLoader;
+
+  @Inject
+  ChangeReplicationStatusAction(
+      ReplicationStatusPermissions permissions,
+      GitRepositoryManager repoManager,
+      ReplicationStatusLoader replicationStatusLoader) {
+    this.permissions = permissions;
+    this.repoManager = repoManager;
+    this.replicationStatusLoader = replicationStatusLoader;
+  }
+
+  @Override
+  public Response<ChangeReplicationStatus> apply(ChangeReplicationStatusResource resource)
+      throws AuthException, BadRequestException, ResourceNotFoundException, IOException {
+    ReplicationStatusProjectRemoteResource remote = resource.getRemote();
+    Project.NameKey projectNameKey = remote.getProjectNameKey();
+    permissions.checkIsOwnerOrAdmin(projectNameKey);
+
+    ChangeReplicationStatus changeStatus = null;
+    try (Repository git = repoManager.openRepository(projectNameKey)) {
+      for (Ref ref :
+          git.getRefDatabase().getRefsByPrefix(ChangeRefName.prefix(resource.getChange()))) {
+        if (ChangeRefName.encode(ref.getName()) == ChangeRefName.NONE) {
+          continue;
+        }
+        ReplicationStatus refStatus =
+            replicationStatusLoader.get(
+                ReplicationStatus.Key.create(projectNameKey, remote.getRemoteUrl(), ref.getName()));
+        if (refStatus != null) {
+          ChangeReplicationStatus status =
+              ChangeReplicationStatus.of(refStatus.current(ref.getObjectId()));
+          changeStatus =
+              changeStatus != null ? ChangeReplicationStatus.merge(changeStatus, status) : status;
+        }
+      }
+    } catch (RepositoryNotFoundException e) {
+      throw new BadRequestException(
+          String.format("Project %s does not exist", projectNameKey.get()));
+    }
+
+    if (changeStatus == null) {
+      throw new ResourceNotFoundException(
+          String.format("No replication status for change %d", resource.getChange()));
+    }
+    return Response.ok(changeStatus);
+  }
+}
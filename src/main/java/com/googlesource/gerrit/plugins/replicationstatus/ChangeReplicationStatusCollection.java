@@ -0,0 +1,62 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.primitives.Ints;
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.extensions.restapi.ChildCollection;
+import com.google.gerrit.extensions.restapi.IdString;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.RestView;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+
+@Singleton
+public class ChangeReplicationStatusCollection
+    implements ChildCollection<
+        ReplicationStatusProjectRemoteResource, ChangeReplicationStatusResource> {
+  private final DynamicMap<RestView<ChangeReplicationStatusResource>> views;
+  private final Provider<ListChangeReplicationStatus> list;
+
+  @Inject
+  ChangeReplicationStatusCollection(
+      DynamicMap<RestView<ChangeReplicationStatusResource>> views,
+      Provider<ListChangeReplicationStatus> list) {
+    this.views = views;
+    this.list = list;
+  }
+
+  @Override
+  public RestView<ReplicationStatusProjectRemoteResource> list() {
+    return list.get();
+  }
+
+  @Override
+  public ChangeReplicationStatusResource parse(
+      ReplicationStatusProjectRemoteResource parent, IdString id)
+      throws ResourceNotFoundException {
+    Integer change = Ints.tryParse(id.get());
+    if (change == null || change <= 0) {
+      throw new ResourceNotFoundException(id);
+    }
+    return new ChangeReplicationStatusResource(parent, change);
+  }
+
+  @Override
+  public DynamicMap<RestView<ChangeReplicationStatusResource>> views() {
+    return views;
+  }
+}
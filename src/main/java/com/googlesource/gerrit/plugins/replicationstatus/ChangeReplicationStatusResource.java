@@ -0,0 +1,42 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.extensions.restapi.RestResource;
+import com.google.gerrit.extensions.restapi.RestView;
+import com.google.inject.TypeLiteral;
+
+public class ChangeReplicationStatusResource implements RestResource {
+  public static final TypeLiteral<RestView<ChangeReplicationStatusResource>>
+      CHANGE_REPLICATION_STATUS_KIND =
+          new TypeLiteral<RestView<ChangeReplicationStatusResource>>() {};
+
+  private final ReplicationStatusProjectRemoteResource remote;
+  private final int change;
+
+  public ChangeReplicationStatusResource(
+      ReplicationStatusProjectRemoteResource remote, int change) {
+    this.remote = remote;
+    this.change = change;
+  }
+
+  public ReplicationStatusProjectRemoteResource getRemote() {
+    return remote;
+  }
+
+  public int getChange() {
+    return change;
+  }
+}
@@ -0,0 +1,149 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.server.config.GerritInstanceId;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Statuses recorded by the other nodes of a cluster, kept apart per origin instance and merged with
+ * the local statuses when read.
+ *
+ * <p>The nodes exchange the changes they record through the {@link ReplicationStatusBroker}. The
+ * statuses of the other nodes are only held in memory and learnt again from the broker on restart,
+ * so that reading the merged view never requires to contact the other nodes. The {@link
+ * ReplicationStatusPruner} removes the statuses of the deleted refs and projects from them, like
+ * from the local ones.
+ */
+@Singleton
+class ClusterReplicationStatus implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final DynamicItem<ReplicationStatusBroker> broker;
+  private final String instanceId;
+  private final boolean enabled;
+  private final ConcurrentMap<String, ReplicationStatusIndex> peers = new ConcurrentHashMap<>();
+  private RegistrationHandle subscription;
+
+  @Inject
+  ClusterReplicationStatus(
+      ReplicationStatusConfig config,
+      DynamicItem<ReplicationStatusBroker> broker,
+      @Nullable @GerritInstanceId String instanceId) {
+    this.broker = broker;
+    this.instanceId = instanceId;
+    this.enabled = config.clusterMode() && instanceId != null;
+    if (config.clusterMode() && instanceId == null) {
+      logger.atSevere().log("Cluster mode disabled: gerrit.instanceId is not set");
+    }
+  }
+
+  @Override
+  public void start() {
+    if (enabled) {
+      subscription = broker.get().subscribe(instanceId, this::onPeerChange);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (subscription != null) {
+      subscription.remove();
+      subscription = null;
+    }
+  }
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Shares a status recorded by this node with the other nodes. */
+  void publish(ReplicationStatus.Key key, ReplicationStatus status) {
+    if (enabled) {
+      broker.get().publish(instanceId, ReplicationStatusChange.create(key, status));
+    }
+  }
+
+  /**
+   * Returns the statuses of the refs replicated to the remote, as recorded by any node of the
+   * cluster, keeping the newest status of every ref.
+   */
+  Map<String, ReplicationStatus> merge(
+      Project.NameKey projectName, String remote, Map<String, ReplicationStatus> local) {
+    Map<String, ReplicationStatus> merged = new HashMap<>(local);
+    for (ReplicationStatusIndex peer : peers.values()) {
+      ReplicationStatusIndex.RemoteStatuses statuses = peer.remotes(projectName).get(remote);
+      if (statuses == null) {
+        continue;
+      }
+      for (String ref : statuses.refs()) {
+        ReplicationStatus status = peer.get(ReplicationStatus.Key.create(projectName, remote, ref));
+        if (status != null) {
+          merged.merge(ref, status, ReplicationStatus::latest);
+        }
+      }
+    }
+    return merged;
+  }
+
+  /** Returns the projects the other nodes recorded statuses for. */
+  Set<Project.NameKey> projects() {
+    Set<Project.NameKey> projects = new HashSet<>();
+    peers.values().forEach(peer -> projects.addAll(peer.projects()));
+    return projects;
+  }
+
+  /** Returns the refs of the project the other nodes recorded statuses for, for any remote. */
+  Set<String> refs(Project.NameKey projectName) {
+    Set<String> refs = new HashSet<>();
+    for (ReplicationStatusIndex peer : peers.values()) {
+      peer.remotes(projectName).values().forEach(statuses -> refs.addAll(statuses.refs()));
+    }
+    return refs;
+  }
+
+  /** Forgets the statuses of the deleted ref recorded by the other nodes. */
+  void removeRef(Project.NameKey projectName, String ref) {
+    peers.values().forEach(peer -> peer.removeRef(projectName, ref));
+  }
+
+  /** Forgets the statuses of the deleted project recorded by the other nodes. */
+  void removeProject(Project.NameKey projectName) {
+    peers.values().forEach(peer -> peer.removeProject(projectName));
+  }
+
+  private void onPeerChange(String peerInstanceId, ReplicationStatusChange change) {
+    peers
+        .computeIfAbsent(peerInstanceId, k -> new ReplicationStatusIndex())
+        .put(
+            ReplicationStatus.Key.create(
+                Project.nameKey(change.project()), change.remote(), change.ref()),
+            ReplicationStatus.create(
+                change.type(), change.status(), change.when(), change.objectId()));
+  }
+}
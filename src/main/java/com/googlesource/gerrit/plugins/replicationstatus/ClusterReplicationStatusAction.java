@@ -0,0 +1,95 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Repository;
+
+/** Returns the replication status of a project to a remote, as recorded by all the nodes. */
+@Singleton
+class ClusterReplicationStatusAction
+    implements RestReadView<ReplicationStatusProjectRemoteResource> {
+  private final ReplicationStatusPermissions permissions;
+  private final GitRepositoryManager repoManager;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+  private final ClusterReplicationStatus clusterReplicationStatus;
+
+  @Inject
+  ClusterReplicationStatusAction(
+      ReplicationStatusPermissions permissions,
+      GitRepositoryManager repoManager,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader,
+      ClusterReplicationStatus clusterReplicationStatus) {
+    this.permissions = permissions;
+    this.repoManager = repoManager;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+    this.clusterReplicationStatus = clusterReplicationStatus;
+  }
+
+  @Override
+  public Response<ProjectReplicationStatus> apply(ReplicationStatusProjectRemoteResource resource)
+      throws AuthException, BadRequestException, ResourceNotFoundException, IOException {
+    Project.NameKey projectNameKey = resource.getProjectNameKey();
+    String remoteURL = resource.getRemoteUrl();
+    permissions.checkIsOwnerOrAdmin(projectNameKey);
+    if (!clusterReplicationStatus.isEnabled()) {
+      throw new ResourceNotFoundException("Cluster mode is not enabled");
+    }
+
+    Map<String, ReplicationStatus> refStatuses =
+        clusterReplicationStatus.merge(
+            projectNameKey, remoteURL, localStatuses(projectNameKey, remoteURL));
+    ProjectReplicationStatus.ProjectReplicationStatusResult overallStatus =
+        refStatuses.values().stream().anyMatch(ReplicationStatus::isFailure)
+            ? ProjectReplicationStatus.ProjectReplicationStatusResult.FAILED
+            : ProjectReplicationStatus.ProjectReplicationStatusResult.OK;
+    return Response.ok(
+        ProjectReplicationStatus.create(
+            ImmutableMap.of(remoteURL, RemoteReplicationStatus.create(refStatuses)),
+            overallStatus,
+            projectNameKey.get()));
+  }
+
+  private Map<String, ReplicationStatus> localStatuses(
+      Project.NameKey projectNameKey, String remoteURL) throws BadRequestException, IOException {
+    Optional<Map<String, ReplicationStatus>> indexed =
+        replicationStatusIndex.get(projectNameKey, remoteURL);
+    if (indexed.isPresent()) {
+      return indexed.get();
+    }
+    try (Repository git = repoManager.openRepository(projectNameKey)) {
+      return replicationStatusLoader.load(git, projectNameKey, remoteURL);
+    } catch (RepositoryNotFoundException e) {
+      throw new BadRequestException(
+          String.format("Project %s does not exist", projectNameKey.get()));
+    }
+  }
+}
@@ -17,45 +17,88 @@ package com.googlesource.gerrit.plugins.replicationstatus;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.Key;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationStatusResult;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationStatusResult.SCHEDULED;
+import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationStatusResult.SUCCEEDED;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationType;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationType.PULL;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationType.PUSH;
 
-import com.google.common.cache.Cache;
+import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.config.GerritInstanceId;
 import com.google.gerrit.server.events.Event;
+import com.google.gerrit.server.events.EventGson;
 import com.google.gerrit.server.events.EventListener;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.inject.Inject;
-import com.google.inject.name.Named;
 import com.googlesource.gerrit.plugins.replication.events.RefReplicatedEvent;
 import com.googlesource.gerrit.plugins.replication.events.RemoteRefReplicationEvent;
 import com.googlesource.gerrit.plugins.replication.events.ReplicationScheduledEvent;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import org.eclipse.jgit.lib.ObjectId;
 
 class EventHandler implements EventListener {
-  private final Cache<ReplicationStatus.Key, ReplicationStatus> replicationStatusCache;
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ReplicationStatusWriter replicationStatusWriter;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusMetrics metrics;
+  private final ReplicationLatency replicationLatency;
+  private final ReplicationStatusStream replicationStatusStream;
+  private final ClusterReplicationStatus clusterReplicationStatus;
+  private final Gson eventGson;
   private final String nodeInstanceId;
 
   @Inject
   EventHandler(
-      @Named(ReplicationStatus.CACHE_NAME)
-          Cache<ReplicationStatus.Key, ReplicationStatus> replicationStatusCache,
+      ReplicationStatusWriter replicationStatusWriter,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusMetrics metrics,
+      ReplicationLatency replicationLatency,
+      ReplicationStatusStream replicationStatusStream,
+      ClusterReplicationStatus clusterReplicationStatus,
+      @EventGson Gson eventGson,
       @Nullable @GerritInstanceId String nodeInstanceId) {
-    this.replicationStatusCache = replicationStatusCache;
+    this.replicationStatusWriter = replicationStatusWriter;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.metrics = metrics;
+    this.replicationLatency = replicationLatency;
+    this.replicationStatusStream = replicationStatusStream;
+    this.clusterReplicationStatus = clusterReplicationStatus;
+    this.eventGson = eventGson;
     this.nodeInstanceId = nodeInstanceId;
   }
 
   @Override
   public void onEvent(Event event) {
-    if (shouldConsume(event) && (event instanceof RemoteRefReplicationEvent)) {
-      RemoteRefReplicationEvent replicationEvent = (RemoteRefReplicationEvent) event;
-      putCacheEntry(
-          replicationType(event),
-          replicationEvent,
-          replicationEvent.targetUri,
-          Optional.ofNullable(replicationEvent.status).orElse(SCHEDULED.name()));
+    if (!(event instanceof RemoteRefReplicationEvent)
+        && !PullReplicationEvent.TYPES.contains(event.type)) {
+      return;
+    }
+    if (!shouldConsume(event)) {
+      metrics.eventReceived(false);
+      return;
     }
+
+    try (Timer0.Context ctx = metrics.startEvent()) {
+      if (event instanceof RemoteRefReplicationEvent) {
+        RemoteRefReplicationEvent replicationEvent = (RemoteRefReplicationEvent) event;
+        putCacheEntry(
+            replicationType(event),
+            replicationEvent,
+            replicationEvent.targetUri,
+            Optional.ofNullable(replicationEvent.status).orElse(SCHEDULED.name()));
+      } else if (!putCacheEntries(event)) {
+        return;
+      }
+    }
+    metrics.eventReceived(true);
   }
 
   private <T extends RemoteRefReplicationEvent> void putCacheEntry(
@@ -63,10 +106,97 @@ class EventHandler implements EventListener {
     Key cacheKey =
         Key.create(replicationEvent.getProjectNameKey(), remote, replicationEvent.getRefName());
 
-    replicationStatusCache.put(
-        cacheKey,
-        ReplicationStatus.create(
-            type, ReplicationStatusResult.fromString(status), replicationEvent.eventCreatedOn));
+    ReplicationStatusResult result = ReplicationStatusResult.fromString(status);
+    String objectId =
+        result == SUCCEEDED
+            ? objectIds(cacheKey.projectName(), Collections.singleton(cacheKey.ref()))
+                .get(cacheKey.ref())
+            : null;
+    ReplicationStatus replicationStatus =
+        ReplicationStatus.create(type, result, replicationEvent.eventCreatedOn, objectId);
+    ReplicationStatus indexed = replicationStatusIndex.put(cacheKey, replicationStatus);
+    replicationStatusWriter.put(cacheKey, indexed);
+    recorded(cacheKey, replicationStatus, indexed);
+  }
+
+  /**
+   * Records the statuses of the refs fetched by the pull-replication plugin, the refs of a batch
+   * being indexed and persisted together. Returns false if the event could not be read.
+   */
+  private boolean putCacheEntries(Event event) {
+    Optional<PullReplicationEvent> parsed = Optional.empty();
+    try {
+      JsonElement json = eventGson.toJsonTree(event);
+      if (json.isJsonObject()) {
+        parsed = PullReplicationEvent.parse(json.getAsJsonObject());
+      }
+    } catch (RuntimeException e) {
+      logger.atWarning().withCause(e).log("Unable to read %s event", event.type);
+      return false;
+    }
+    if (!parsed.isPresent()) {
+      logger.atWarning().log("Ignoring %s event without project, remote or refs", event.type);
+      return false;
+    }
+
+    PullReplicationEvent fetchEvent = parsed.get();
+    Map<String, String> objectIds =
+        fetchEvent.status() == SUCCEEDED
+            ? objectIds(fetchEvent.projectName(), fetchEvent.refs())
+            : Collections.emptyMap();
+    Map<String, ReplicationStatus> refStatuses = new HashMap<>();
+    fetchEvent
+        .refs()
+        .forEach(
+            ref ->
+                refStatuses.put(
+                    ref,
+                    ReplicationStatus.create(
+                        PULL, fetchEvent.status(), event.eventCreatedOn, objectIds.get(ref))));
+
+    Map<Key, ReplicationStatus> indexed =
+        replicationStatusIndex.putAll(fetchEvent.projectName(), fetchEvent.remote(), refStatuses);
+    replicationStatusWriter.putAll(indexed);
+    indexed.forEach((key, status) -> recorded(key, refStatuses.get(key.ref()), status));
+    return true;
+  }
+
+  private void recorded(Key key, ReplicationStatus recorded, ReplicationStatus indexed) {
+    if (indexed == recorded) {
+      if (replicationStatusStream.hasSubscribers()) {
+        replicationStatusStream.publish(ReplicationStatusChange.create(key, indexed));
+      }
+      clusterReplicationStatus.publish(key, indexed);
+    }
+
+    if (recorded.status() == SCHEDULED) {
+      replicationLatency.scheduled(key);
+    } else {
+      replicationLatency.completed(key, recorded.status());
+    }
+  }
+
+  /**
+   * Returns the objects the refs point to, by name. The events do not tell which objects have been
+   * replicated, so the objects of the latest updates of the refs seen when the replication succeeds
+   * are recorded instead, see {@link ReplicationStatusIndex#lastUpdate}. The refs not updated among
+   * the latest updates are left without object rather than read from the repository on the event
+   * thread: their statuses are then not compared with the refs, see {@link
+   * ReplicationStatus#isOutOfDate}.
+   *
+   * <p>This is racy: a ref updated again while being replicated is recorded with the object of the
+   * newer update, which may not have been pushed yet. Its status then reads succeeded until the
+   * replication of the newer update, already scheduled, completes.
+   */
+  private Map<String, String> objectIds(Project.NameKey projectName, Collection<String> refs) {
+    Map<String, String> objectIds = new HashMap<>();
+    for (String ref : refs) {
+      ObjectId updated = replicationStatusIndex.lastUpdate(projectName, ref);
+      if (updated != null) {
+        objectIds.put(ref, updated.name());
+      }
+    }
+    return objectIds;
   }
 
   private boolean shouldConsume(Event event) {
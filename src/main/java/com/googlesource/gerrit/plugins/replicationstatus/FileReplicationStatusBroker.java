@@ -0,0 +1,265 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Broker exchanging the changes through files of a directory shared by the nodes, such as an NFS
+ * mount.
+ *
+ * <p>Every node appends its changes, one JSON object per line, to its own file named after its
+ * instance id, and periodically reads the lines appended to the files of the other nodes since it
+ * last read them. The files are read from the start when a node subscribes, so that it learns all
+ * the changes published so far. The files are never truncated, which makes this broker suitable
+ * for tests and small deployments rather than for production clusters.
+ *
+ * <p>The changes are appended by a task of the default work queue rather than by the thread
+ * publishing them, which processes the replication events. Up to {@code writeQueueSize} changes
+ * wait to be appended, the following ones are not shared until the queue has room again.
+ */
+@Singleton
+class FileReplicationStatusBroker implements ReplicationStatusBroker, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final String SUFFIX = ".json";
+  private static final int MAX_READ_BYTES = 8 * 1024 * 1024;
+
+  private final Path directory;
+  private final long syncIntervalMs;
+  private final WorkQueue workQueue;
+  private final Gson gson = new Gson();
+  private final BlockingQueue<Pending> pending;
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final AtomicLong dropped = new AtomicLong();
+  private Writer out;
+
+  @Inject
+  FileReplicationStatusBroker(
+      ReplicationStatusConfig config,
+      SitePaths sitePaths,
+      @PluginName String pluginName,
+      WorkQueue workQueue) {
+    // Relative to the data directory of the plugin, unless absolute.
+    this.directory =
+        sitePaths.data_dir.resolve(pluginName).resolve(config.clusterBrokerDirectory());
+    this.syncIntervalMs = config.clusterSyncIntervalMs();
+    this.workQueue = workQueue;
+    this.pending = new ArrayBlockingQueue<>(config.writeQueueSize());
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public synchronized void stop() {
+    append();
+    if (out != null) {
+      try {
+        out.close();
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log(
+            "Unable to close the changes published in %s", directory);
+      }
+      out = null;
+    }
+  }
+
+  @Override
+  public void publish(String instanceId, ReplicationStatusChange change) {
+    if (!pending.offer(new Pending(instanceId, change))) {
+      logger.atWarning().atMostEvery(1, MINUTES).log(
+          "Too many changes waiting to be published, %d not shared so far",
+          dropped.incrementAndGet());
+      return;
+    }
+    if (scheduled.compareAndSet(false, true)) {
+      workQueue.getDefaultQueue().execute(this::append);
+    }
+  }
+
+  /** Appends the pending changes, flushing once for all of them. */
+  private synchronized void append() {
+    scheduled.set(false);
+    if (pending.isEmpty()) {
+      return;
+    }
+    List<Pending> changes = new ArrayList<>(pending.size());
+    pending.drainTo(changes);
+    try {
+      for (Pending change : changes) {
+        if (out == null) {
+          Files.createDirectories(directory);
+          out =
+              Files.newBufferedWriter(
+                  file(change.instanceId),
+                  UTF_8,
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.WRITE,
+                  StandardOpenOption.APPEND);
+        }
+        out.write(gson.toJson(Message.create(change.change)));
+        out.write('\n');
+      }
+      out.flush();
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Unable to publish %d changes", changes.size());
+    }
+  }
+
+  @Override
+  public RegistrationHandle subscribe(String instanceId, Listener listener) {
+    Map<Path, Long> offsets = new HashMap<>();
+    Path ownFile = file(instanceId);
+    ScheduledFuture<?> sync =
+        workQueue
+            .getDefaultQueue()
+            .scheduleWithFixedDelay(
+                () -> read(ownFile, offsets, listener), 0, syncIntervalMs, MILLISECONDS);
+    return () -> sync.cancel(false);
+  }
+
+  private void read(Path ownFile, Map<Path, Long> offsets, Listener listener) {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path file : files) {
+        if (!file.equals(ownFile)) {
+          offsets.put(file, read(file, offsets.getOrDefault(file, 0L), listener));
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Unable to read the changes published in %s", directory);
+    }
+  }
+
+  /** Delivers the complete lines appended after the offset, returns the offset to read from. */
+  private long read(Path file, long offset, Listener listener) throws IOException {
+    String fileName = file.getFileName().toString();
+    String instanceId = fileName.substring(0, fileName.length() - SUFFIX.length());
+    try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+      long length = in.length();
+      while (offset < length) {
+        byte[] appended = new byte[(int) Math.min(length - offset, MAX_READ_BYTES)];
+        in.seek(offset);
+        in.readFully(appended);
+
+        int start = 0;
+        for (int end = 0; end < appended.length; end++) {
+          if (appended[end] == '\n') {
+            deliver(instanceId, new String(appended, start, end - start, UTF_8), listener);
+            start = end + 1;
+          }
+        }
+        if (start == 0) {
+          // A line not terminated yet is read again once complete.
+          break;
+        }
+        offset += start;
+      }
+      return offset;
+    }
+  }
+
+  private void deliver(String instanceId, String line, Listener listener) {
+    Message message;
+    try {
+      message = gson.fromJson(line, Message.class);
+    } catch (JsonParseException e) {
+      message = null;
+    }
+    if (message == null || !message.isValid()) {
+      logger.atWarning().log("Ignoring invalid change from %s: %s", instanceId, line);
+      return;
+    }
+    listener.onChange(instanceId, message.toChange());
+  }
+
+  private Path file(String instanceId) {
+    return directory.resolve(instanceId + SUFFIX);
+  }
+
+  private static class Pending {
+    final String instanceId;
+    final ReplicationStatusChange change;
+
+    Pending(String instanceId, ReplicationStatusChange change) {
+      this.instanceId = instanceId;
+      this.change = change;
+    }
+  }
+
+  private static class Message {
+    String project;
+    String remote;
+    String ref;
+    ReplicationStatus.ReplicationType type;
+    ReplicationStatus.ReplicationStatusResult status;
+    long when;
+    String objectId;
+
+    static Message create(ReplicationStatusChange change) {
+      Message message = new Message();
+      message.project = change.project();
+      message.remote = change.remote();
+      message.ref = change.ref();
+      message.type = change.type();
+      message.status = change.status();
+      message.when = change.when();
+      message.objectId = change.objectId();
+      return message;
+    }
+
+    boolean isValid() {
+      return project != null && remote != null && ref != null && type != null && status != null;
+    }
+
+    ReplicationStatusChange toChange() {
+      return ReplicationStatusChange.create(
+          ReplicationStatus.Key.create(Project.nameKey(project), remote, ref),
+          ReplicationStatus.create(type, status, when, objectId));
+    }
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Repository;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Lists the changes of a project replicated to a remote, with the rollup of the statuses of their
+ * refs, instead of one status per patch set and meta ref.
+ */
+class ListChangeReplicationStatus implements RestReadView<ReplicationStatusProjectRemoteResource> {
+  private final ReplicationStatusPermissions permissions;
+  private final GitRepositoryManager repoManager;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+
+  @Option(
+      name = "--status",
+      aliases = {"-s"},
+      metaVar = "STATUS",
+      usage = "only return the changes having the given rolled up replication status")
+  private ReplicationStatus.ReplicationStatusResult status;
+
+  @Inject
+  ListChangeReplicationStatus(
+      ReplicationStatusPermissions permissions,
+      GitRepositoryManager repoManager,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader) {
+    this.permissions = permissions;
+    this.repoManager = repoManager;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+  }
+
+  @Override
+  public Response<Map<Integer, ChangeReplicationStatus>> apply(
+      ReplicationStatusProjectRemoteResource resource)
+      throws AuthException, BadRequestException, IOException {
+    Project.NameKey projectNameKey = resource.getProjectNameKey();
+    String remoteURL = resource.getRemoteUrl();
+    permissions.checkIsOwnerOrAdmin(projectNameKey);
+
+    Map<Integer, ChangeReplicationStatus> changes =
+        ChangeReplicationStatus.rollup(refStatuses(projectNameKey, remoteURL));
+    if (status != null) {
+      changes.values().removeIf(change -> change.status() != status);
+    }
+    return Response.ok(changes);
+  }
+
+  private Map<String, ReplicationStatus> refStatuses(
+      Project.NameKey projectNameKey, String remoteURL) throws BadRequestException, IOException {
+    Optional<Map<String, ReplicationStatus>> indexed =
+        replicationStatusIndex.get(projectNameKey, remoteURL);
+    if (indexed.isPresent()) {
+      return indexed.get();
+    }
+    try (Repository git = repoManager.openRepository(projectNameKey)) {
+      return replicationStatusLoader.load(git, projectNameKey, remoteURL);
+    } catch (RepositoryNotFoundException e) {
+      throw new BadRequestException(
+          String.format("Project %s does not exist", projectNameKey.get()));
+    }
+  }
+}
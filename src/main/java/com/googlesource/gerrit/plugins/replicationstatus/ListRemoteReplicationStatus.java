@@ -0,0 +1,121 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.project.ProjectResource;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Lists the remotes a project has been replicated to, with the rollup of their ref statuses. The
+ * remotes configured in the {@code replication.config} are loaded on first access, or read on
+ * every access from a read-through store, so that the statuses persisted by previous runs are
+ * listed as well.
+ */
+class ListRemoteReplicationStatus implements RestReadView<ProjectResource> {
+  private final ReplicationStatusPermissions permissions;
+  private final GitRepositoryManager repoManager;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+  private final ReplicationRemotes replicationRemotes;
+
+  @Inject
+  ListRemoteReplicationStatus(
+      ReplicationStatusPermissions permissions,
+      GitRepositoryManager repoManager,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader,
+      ReplicationRemotes replicationRemotes) {
+    this.permissions = permissions;
+    this.repoManager = repoManager;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+    this.replicationRemotes = replicationRemotes;
+  }
+
+  @Override
+  public Response<Map<String, RemoteReplicationSummary>> apply(ProjectResource resource)
+      throws AuthException, BadRequestException, IOException {
+    Project.NameKey projectNameKey = resource.getNameKey();
+    permissions.checkIsOwnerOrAdmin(projectNameKey);
+
+    // The index only knows the remotes of the events received since the start, the configured
+    // remotes may have statuses persisted by previous runs.
+    Set<String> remotes = new LinkedHashSet<>(replicationRemotes.urls(projectNameKey));
+    remotes.addAll(replicationStatusIndex.remotes(projectNameKey).keySet());
+    if (replicationStatusLoader.isReadThrough()) {
+      return Response.ok(read(projectNameKey, remotes));
+    }
+    List<String> notLoaded = new ArrayList<>();
+    for (String remote : remotes) {
+      if (!replicationStatusIndex.isLoaded(projectNameKey, remote)) {
+        notLoaded.add(remote);
+      }
+    }
+    if (!notLoaded.isEmpty()) {
+      try (Repository git = repoManager.openRepository(projectNameKey)) {
+        replicationStatusLoader.load(git, projectNameKey, notLoaded);
+      } catch (RepositoryNotFoundException e) {
+        throw new BadRequestException(
+            String.format("Project %s does not exist", projectNameKey.get()));
+      }
+    }
+
+    Map<String, RemoteReplicationSummary> summaries = new TreeMap<>();
+    replicationStatusIndex
+        .remotes(projectNameKey)
+        .forEach(
+            (remote, statuses) -> {
+              if (!statuses.isEmpty()) {
+                summaries.put(
+                    remote,
+                    RemoteReplicationSummary.create(statuses.counts(), statuses.lastUpdated()));
+              }
+            });
+    return Response.ok(summaries);
+  }
+
+  private Map<String, RemoteReplicationSummary> read(
+      Project.NameKey projectNameKey, Set<String> remotes) throws BadRequestException, IOException {
+    Map<String, RemoteReplicationSummary> summaries = new TreeMap<>();
+    try (Repository git = repoManager.openRepository(projectNameKey)) {
+      for (String remote : remotes) {
+        Map<String, ReplicationStatus> statuses =
+            replicationStatusLoader.load(git, projectNameKey, remote);
+        if (!statuses.isEmpty()) {
+          summaries.put(remote, RemoteReplicationSummary.create(statuses.values()));
+        }
+      }
+    } catch (RepositoryNotFoundException e) {
+      throw new BadRequestException(
+          String.format("Project %s does not exist", projectNameKey.get()));
+    }
+    return summaries;
+  }
+}
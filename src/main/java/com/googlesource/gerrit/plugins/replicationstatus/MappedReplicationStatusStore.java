@@ -0,0 +1,682 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Stores the statuses off-heap, in memory-mapped files, so that persisting tens of millions of them
+ * does not go through a database. The statuses are read from the files on every access, rather
+ * than loaded into the {@link ReplicationStatusIndex}, which only holds a bounded number of the
+ * statuses recorded since the start: the heap used does not grow with the statuses persisted.
+ *
+ * <p>The statuses are the fixed-width records of an open-addressing hash table with linear probing,
+ * sized once for a maximum number of statuses. A record holds the hash of the key, the ids of the
+ * project and of the remote, the ref, and the time, status, type and object of the replication. The
+ * names of the projects and remotes, few and shared by many keys, are interned in a dictionary.
+ * The change refs are held in the record in their {@link ChangeRefName} encoded form, whereas the
+ * other ref names are appended to a file of their own, the record holding their offset.
+ *
+ * <p>The invalidated statuses are left as tombstones, which count towards the maximum load of the
+ * table. Once they are too many, the table is compacted: the tombstones are dropped, the statuses
+ * moved closer to their slot, and the refs file rewritten without the refs of the removed statuses.
+ * A compaction interrupted by a crash discards the statuses when the store is opened again.
+ *
+ * <p>Reads run concurrently, writes are exclusive.
+ */
+class MappedReplicationStatusStore implements ReplicationStatusStore {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  // Bumped whenever the layout of the records, or the order of the statuses and types, changes.
+  private static final int MAGIC = 0x52535354;
+  private static final int VERSION = 3;
+
+  private static final int HEADER_SIZE = 64;
+  private static final int HEADER_MAGIC = 0;
+  private static final int HEADER_VERSION = 4;
+  private static final int HEADER_CAPACITY = 8;
+  private static final int HEADER_SIZE_FIELD = 16;
+  private static final int HEADER_TOMBSTONES = 24;
+  private static final int HEADER_COMPACTING = 32;
+
+  static final int RECORD_SIZE = 64;
+  private static final int RECORD_HASH = 0;
+  private static final int RECORD_PROJECT = 8;
+  private static final int RECORD_REMOTE = 12;
+  private static final int RECORD_REF = 16;
+  private static final int RECORD_WHEN = 24;
+  private static final int RECORD_STATE = 32;
+  private static final int RECORD_STATUS = 33;
+  private static final int RECORD_TYPE = 34;
+  private static final int RECORD_REF_KIND = 35;
+  private static final int RECORD_OBJECT_ID = 40;
+
+  private static final byte EMPTY = 0;
+  private static final byte USED = 1;
+  private static final byte DELETED = 2;
+
+  private static final byte REF_OFFSET = 0;
+  private static final byte REF_CHANGE = 1;
+
+  private static final int SLOTS_PER_SEGMENT = 1 << 24;
+  private static final double MAX_LOAD = 0.9;
+  private static final long FULL = Long.MIN_VALUE;
+
+  private static final ReplicationStatus.ReplicationStatusResult[] STATUSES =
+      ReplicationStatus.ReplicationStatusResult.values();
+  private static final ReplicationStatus.ReplicationType[] TYPES =
+      ReplicationStatus.ReplicationType.values();
+
+  private final Path directory;
+  private final long capacity;
+  private final long maxSize;
+  private final MappedByteBuffer header;
+  private final MappedByteBuffer[] segments;
+  private final FileChannel dictionary;
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private FileChannel refs;
+  private long size;
+  private long tombstones;
+  private long refsEnd;
+  private long dictionaryEnd;
+  private long dropped;
+  private boolean closed;
+
+  /**
+   * Opens the store of the directory, creating it if needed. The statuses stored with a different
+   * capacity or layout are discarded.
+   */
+  static MappedReplicationStatusStore open(Path directory, long capacity) throws IOException {
+    Files.createDirectories(directory);
+    return new MappedReplicationStatusStore(directory, capacity);
+  }
+
+  private MappedReplicationStatusStore(Path directory, long capacity) throws IOException {
+    this.directory = directory;
+    this.capacity = capacity;
+    this.maxSize = (long) (capacity * MAX_LOAD);
+
+    try (FileChannel table = open(directory.resolve("table"))) {
+      refs = open(refsFile());
+      dictionary = open(directory.resolve("dictionary"));
+      boolean valid = isValid(table);
+      if (!valid) {
+        if (table.size() > 0) {
+          logger.atWarning().log(
+              "Discarding the replication statuses stored in %s: capacity or layout changed,"
+                  + " or compaction interrupted",
+              directory);
+        }
+        table.truncate(0);
+        refs.truncate(0);
+        dictionary.truncate(0);
+      }
+
+      // The mappings remain valid once the channel is closed.
+      header = table.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+      int segmentCount = (int) ((capacity + SLOTS_PER_SEGMENT - 1) / SLOTS_PER_SEGMENT);
+      segments = new MappedByteBuffer[segmentCount];
+      for (int i = 0; i < segments.length; i++) {
+        long slots = Math.min(SLOTS_PER_SEGMENT, capacity - (long) i * SLOTS_PER_SEGMENT);
+        segments[i] =
+            table.map(
+                FileChannel.MapMode.READ_WRITE,
+                HEADER_SIZE + (long) i * SLOTS_PER_SEGMENT * RECORD_SIZE,
+                slots * RECORD_SIZE);
+      }
+    }
+
+    if (!isValidHeader()) {
+      header.putInt(HEADER_MAGIC, MAGIC);
+      header.putInt(HEADER_VERSION, VERSION);
+      header.putLong(HEADER_CAPACITY, capacity);
+      header.putLong(HEADER_SIZE_FIELD, 0);
+      header.putLong(HEADER_TOMBSTONES, 0);
+      header.putInt(HEADER_COMPACTING, 0);
+    }
+    size = header.getLong(HEADER_SIZE_FIELD);
+    tombstones = header.getLong(HEADER_TOMBSTONES);
+    refsEnd = refs.size();
+    loadDictionary();
+  }
+
+  @Override
+  @Nullable
+  public ReplicationStatus get(ReplicationStatus.Key key) {
+    lock.readLock().lock();
+    try {
+      Integer projectId = ids.get(key.projectName().get());
+      Integer remoteId = ids.get(key.remote());
+      if (closed || projectId == null || remoteId == null) {
+        return null;
+      }
+      long slot = find(hash(key), projectId, remoteId, key.ref());
+      return slot >= 0 ? read(slot) : null;
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Unable to read the replication status of %s", key);
+      return null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void putAll(Map<ReplicationStatus.Key, ReplicationStatus> statuses) {
+    lock.writeLock().lock();
+    try {
+      if (isClosed()) {
+        return;
+      }
+      for (Map.Entry<ReplicationStatus.Key, ReplicationStatus> status : statuses.entrySet()) {
+        put(status.getKey(), status.getValue());
+      }
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Unable to store replication statuses");
+    } finally {
+      updateHeader();
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void invalidateAll(Collection<ReplicationStatus.Key> keys) {
+    lock.writeLock().lock();
+    try {
+      if (isClosed()) {
+        return;
+      }
+      for (ReplicationStatus.Key key : keys) {
+        Integer projectId = ids.get(key.projectName().get());
+        Integer remoteId = ids.get(key.remote());
+        if (projectId == null || remoteId == null) {
+          continue;
+        }
+        long slot = find(hash(key), projectId, remoteId, key.ref());
+        if (slot >= 0) {
+          delete(slot);
+        }
+      }
+      compactIfNeeded();
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Unable to invalidate replication statuses");
+    } finally {
+      updateHeader();
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public boolean isReadThrough() {
+    return true;
+  }
+
+  @Override
+  public void invalidateProject(Project.NameKey projectName) {
+    lock.writeLock().lock();
+    try {
+      Integer projectId = ids.get(projectName.get());
+      if (isClosed() || projectId == null) {
+        return;
+      }
+      for (long slot = 0; slot < capacity; slot++) {
+        if (state(slot) == USED
+            && segment(slot).getInt(offset(slot) + RECORD_PROJECT) == projectId) {
+          delete(slot);
+        }
+      }
+      compactIfNeeded();
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log(
+          "Unable to invalidate the replication statuses of project %s", projectName);
+    } finally {
+      updateHeader();
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void flush() {
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      header.force();
+      for (MappedByteBuffer segment : segments) {
+        segment.force();
+      }
+      refs.force(false);
+      dictionary.force(false);
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Unable to flush replication statuses");
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      if (closed) {
+        return;
+      }
+      flush();
+      closed = true;
+      // The mappings are released once garbage collected, there is no way to unmap them earlier.
+      refs.close();
+      dictionary.close();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Unable to close the replication status store");
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Returns the number of statuses stored. */
+  long size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void put(ReplicationStatus.Key key, ReplicationStatus status) throws IOException {
+    int projectId = id(key.projectName().get());
+    int remoteId = id(key.remote());
+    long hash = hash(key);
+    long slot = find(hash, projectId, remoteId, key.ref());
+    if (slot < 0 && slot != FULL && size + tombstones >= maxSize && tombstones > 0) {
+      compact();
+      slot = find(hash, projectId, remoteId, key.ref());
+    }
+    if (slot == FULL || (slot < 0 && size + tombstones >= maxSize)) {
+      dropped++;
+      logger.atWarning().atMostEvery(1, MINUTES).log(
+          "Replication status store is full (%d statuses), %d statuses not stored so far",
+          size, dropped);
+      return;
+    }
+
+    ByteBuffer segment;
+    int offset;
+    if (slot < 0) {
+      slot = -1 - slot;
+      if (state(slot) == DELETED) {
+        tombstones--;
+      }
+      segment = segment(slot);
+      offset = offset(slot);
+      segment.putLong(offset + RECORD_HASH, hash);
+      segment.putInt(offset + RECORD_PROJECT, projectId);
+      segment.putInt(offset + RECORD_REMOTE, remoteId);
+      long changeRef = ChangeRefName.encode(key.ref());
+      if (changeRef != ChangeRefName.NONE) {
+        segment.putLong(offset + RECORD_REF, changeRef);
+        segment.put(offset + RECORD_REF_KIND, REF_CHANGE);
+      } else {
+        segment.putLong(offset + RECORD_REF, appendRef(key.ref().getBytes(UTF_8)));
+        segment.put(offset + RECORD_REF_KIND, REF_OFFSET);
+      }
+      size++;
+    } else {
+      segment = segment(slot);
+      offset = offset(slot);
+    }
+    segment.putLong(offset + RECORD_WHEN, status.when());
+    segment.put(offset + RECORD_STATUS, (byte) status.status().ordinal());
+    segment.put(offset + RECORD_TYPE, (byte) status.type().ordinal());
+    // A ref cannot point to the zero id, which stands for an unknown object.
+    byte[] objectId = new byte[Constants.OBJECT_ID_LENGTH];
+    if (status.objectId() != null) {
+      ObjectId.fromString(status.objectId()).copyRawTo(objectId, 0);
+    }
+    for (int i = 0; i < objectId.length; i++) {
+      segment.put(offset + RECORD_OBJECT_ID + i, objectId[i]);
+    }
+    segment.put(offset + RECORD_STATE, USED);
+  }
+
+  /**
+   * Returns the slot holding the key if stored, else minus one minus the slot the key can be stored
+   * in, or {@link #FULL} if there is no room for it.
+   */
+  private long find(long hash, int projectId, int remoteId, String ref) throws IOException {
+    long changeRef = ChangeRefName.encode(ref);
+    byte[] refBytes = null;
+    long slot = Math.floorMod(hash, capacity);
+    long free = -1;
+    for (long probes = 0; probes < capacity; probes++, slot = slot + 1 < capacity ? slot + 1 : 0) {
+      ByteBuffer segment = segment(slot);
+      int offset = offset(slot);
+      byte state = segment.get(offset + RECORD_STATE);
+      if (state == EMPTY) {
+        return -1 - (free >= 0 ? free : slot);
+      }
+      if (state == DELETED) {
+        if (free < 0) {
+          free = slot;
+        }
+      } else if (segment.getLong(offset + RECORD_HASH) == hash
+          && segment.getInt(offset + RECORD_PROJECT) == projectId
+          && segment.getInt(offset + RECORD_REMOTE) == remoteId) {
+        long storedRef = segment.getLong(offset + RECORD_REF);
+        if (segment.get(offset + RECORD_REF_KIND) == REF_CHANGE) {
+          if (storedRef == changeRef) {
+            return slot;
+          }
+        } else if (changeRef == ChangeRefName.NONE) {
+          if (refBytes == null) {
+            refBytes = ref.getBytes(UTF_8);
+          }
+          if (refEquals(storedRef, refBytes)) {
+            return slot;
+          }
+        }
+      }
+    }
+    return free >= 0 ? -1 - free : FULL;
+  }
+
+  /** Leaves a tombstone, so that the keys probed past the slot can still be found. */
+  private void delete(long slot) {
+    segment(slot).put(offset(slot) + RECORD_STATE, DELETED);
+    size--;
+    tombstones++;
+  }
+
+  /** Compacts once the tombstones take more than a quarter of the table, to keep probes short. */
+  private void compactIfNeeded() throws IOException {
+    if (tombstones > capacity / 4) {
+      compact();
+    }
+  }
+
+  private void compact() throws IOException {
+    Stopwatch elapsed = Stopwatch.createStarted();
+    header.putInt(HEADER_COMPACTING, 1);
+    header.force();
+
+    for (long slot = 0; slot < capacity; slot++) {
+      if (state(slot) == DELETED) {
+        segment(slot).put(offset(slot) + RECORD_STATE, EMPTY);
+      }
+    }
+    tombstones = 0;
+    // Moves every status to the first free slot of its probe sequence, until none can move: a
+    // status is then found again, as no free slot lies between its slot and where it is.
+    byte[] record = new byte[RECORD_SIZE];
+    boolean moved;
+    do {
+      moved = false;
+      for (long slot = 0; slot < capacity; slot++) {
+        if (state(slot) != USED) {
+          continue;
+        }
+        long home = Math.floorMod(segment(slot).getLong(offset(slot) + RECORD_HASH), capacity);
+        for (long probe = home; probe != slot; probe = next(probe)) {
+          if (state(probe) == EMPTY) {
+            move(slot, probe, record);
+            moved = true;
+            break;
+          }
+        }
+      }
+    } while (moved);
+    compactRefs();
+
+    updateHeader();
+    for (MappedByteBuffer segment : segments) {
+      segment.force();
+    }
+    header.putInt(HEADER_COMPACTING, 0);
+    header.force();
+    logger.atInfo().log("Compacted the replication status store in %s: %d statuses", elapsed, size);
+  }
+
+  /** Rewrites the refs file with the refs of the statuses stored only. */
+  private void compactRefs() throws IOException {
+    Path compacted = directory.resolve("refs.compacted");
+    long end = 0;
+    try (FileChannel out =
+        FileChannel.open(
+            compacted,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      for (long slot = 0; slot < capacity; slot++) {
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        if (state(slot) != USED || segment.get(offset + RECORD_REF_KIND) != REF_OFFSET) {
+          continue;
+        }
+        byte[] ref = readRef(segment.getLong(offset + RECORD_REF));
+        if (ref == null) {
+          // Unreadable, the status could never be found again.
+          segment.put(offset + RECORD_STATE, EMPTY);
+          size--;
+          continue;
+        }
+        segment.putLong(offset + RECORD_REF, end);
+        end += write(out, end, ref);
+      }
+      out.force(false);
+    }
+    refs.close();
+    Files.move(
+        compacted, refsFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    refs = open(refsFile());
+    refsEnd = end;
+  }
+
+  private void move(long from, long to, byte[] record) {
+    ByteBuffer source = segment(from).duplicate();
+    source.position(offset(from));
+    source.get(record);
+    ByteBuffer target = segment(to).duplicate();
+    target.position(offset(to));
+    target.put(record);
+    segment(from).put(offset(from) + RECORD_STATE, EMPTY);
+  }
+
+  @Nullable
+  private byte[] readRef(long offset) throws IOException {
+    ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+    if (!readFully(refs, offset, length) || length.getInt(0) < 0) {
+      return null;
+    }
+    ByteBuffer ref = ByteBuffer.allocate(length.getInt(0));
+    return readFully(refs, offset + Integer.BYTES, ref) ? ref.array() : null;
+  }
+
+  private byte state(long slot) {
+    return segment(slot).get(offset(slot) + RECORD_STATE);
+  }
+
+  private long next(long slot) {
+    return slot + 1 < capacity ? slot + 1 : 0;
+  }
+
+  private void updateHeader() {
+    header.putLong(HEADER_SIZE_FIELD, size);
+    header.putLong(HEADER_TOMBSTONES, tombstones);
+  }
+
+  private boolean isClosed() {
+    if (closed) {
+      logger.atWarning().atMostEvery(1, MINUTES).log(
+          "Replication status store closed, statuses not updated");
+    }
+    return closed;
+  }
+
+  private Path refsFile() {
+    return directory.resolve("refs");
+  }
+
+  @Nullable
+  private ReplicationStatus read(long slot) {
+    ByteBuffer segment = segment(slot);
+    int offset = offset(slot);
+    int status = segment.get(offset + RECORD_STATUS);
+    int type = segment.get(offset + RECORD_TYPE);
+    if (status < 0 || status >= STATUSES.length || type < 0 || type >= TYPES.length) {
+      return null;
+    }
+    byte[] objectId = new byte[Constants.OBJECT_ID_LENGTH];
+    for (int i = 0; i < objectId.length; i++) {
+      objectId[i] = segment.get(offset + RECORD_OBJECT_ID + i);
+    }
+    ObjectId id = ObjectId.fromRaw(objectId);
+    return ReplicationStatus.create(
+        TYPES[type],
+        STATUSES[status],
+        segment.getLong(offset + RECORD_WHEN),
+        ObjectId.zeroId().equals(id) ? null : id.name());
+  }
+
+  private int id(String name) throws IOException {
+    Integer id = ids.get(name);
+    if (id != null) {
+      return id;
+    }
+    dictionaryEnd += write(dictionary, dictionaryEnd, name.getBytes(UTF_8));
+    id = ids.size();
+    ids.put(name, id);
+    return id;
+  }
+
+  private long appendRef(byte[] ref) throws IOException {
+    long offset = refsEnd;
+    refsEnd += write(refs, offset, ref);
+    return offset;
+  }
+
+  private boolean refEquals(long offset, byte[] ref) throws IOException {
+    ByteBuffer stored = ByteBuffer.allocate(Integer.BYTES + ref.length);
+    if (!readFully(refs, offset, stored) || stored.getInt(0) != ref.length) {
+      return false;
+    }
+    return Arrays.equals(stored.array(), Integer.BYTES, stored.capacity(), ref, 0, ref.length);
+  }
+
+  private void loadDictionary() throws IOException {
+    long position = 0;
+    long end = dictionary.size();
+    ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+    while (position + Integer.BYTES <= end) {
+      length.clear();
+      readFully(dictionary, position, length);
+      ByteBuffer name = ByteBuffer.allocate(length.getInt(0));
+      if (!readFully(dictionary, position + Integer.BYTES, name)) {
+        // Partially written, when the previous run stopped while adding it.
+        break;
+      }
+      ids.put(new String(name.array(), UTF_8), ids.size());
+      position += Integer.BYTES + name.capacity();
+    }
+    dictionaryEnd = position;
+  }
+
+  private boolean isValid(FileChannel table) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+    return table.size() >= HEADER_SIZE + capacity * RECORD_SIZE
+        && readFully(table, 0, buffer)
+        && buffer.getInt(HEADER_MAGIC) == MAGIC
+        && buffer.getInt(HEADER_VERSION) == VERSION
+        && buffer.getLong(HEADER_CAPACITY) == capacity
+        && buffer.getInt(HEADER_COMPACTING) == 0;
+  }
+
+  private boolean isValidHeader() {
+    return header.getInt(HEADER_MAGIC) == MAGIC
+        && header.getInt(HEADER_VERSION) == VERSION
+        && header.getLong(HEADER_CAPACITY) == capacity;
+  }
+
+  private ByteBuffer segment(long slot) {
+    return segments[(int) (slot / SLOTS_PER_SEGMENT)];
+  }
+
+  private static int offset(long slot) {
+    return (int) (slot % SLOTS_PER_SEGMENT) * RECORD_SIZE;
+  }
+
+  private static long hash(ReplicationStatus.Key key) {
+    return Hashing.murmur3_128()
+        .newHasher()
+        .putString(key.projectName().get(), UTF_8)
+        .putByte((byte) 0)
+        .putString(key.remote(), UTF_8)
+        .putByte((byte) 0)
+        .putString(key.ref(), UTF_8)
+        .hash()
+        .asLong();
+  }
+
+  /** Writes the length-prefixed bytes at the position, returns the number of bytes written. */
+  private static int write(FileChannel channel, long position, byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+    buffer.putInt(bytes.length).put(bytes).flip();
+    long written = 0;
+    while (buffer.hasRemaining()) {
+      written += channel.write(buffer, position + written);
+    }
+    return buffer.capacity();
+  }
+
+  /** Fills the buffer with the bytes at the position, returns false if the file ends before. */
+  private static boolean readFully(FileChannel channel, long position, ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static FileChannel open(Path file) throws IOException {
+    return FileChannel.open(
+        file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+}
@@ -14,15 +14,42 @@
 
 package com.googlesource.gerrit.plugins.replicationstatus;
 
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.ProjectDeletedListener;
+import com.google.gerrit.extensions.registration.DynamicItem;
 import com.google.gerrit.extensions.registration.DynamicSet;
 import com.google.gerrit.lifecycle.LifecycleModule;
 import com.google.gerrit.server.events.EventListener;
+import com.google.inject.Inject;
+import com.google.inject.Scopes;
 
 class Module extends LifecycleModule {
+  private final ReplicationStatusConfig config;
+
+  @Inject
+  Module(ReplicationStatusConfig config) {
+    this.config = config;
+  }
+
   @Override
   protected void configure() {
     DynamicSet.bind(binder(), EventListener.class).to(EventHandler.class);
+    bind(ReplicationStatusStore.class)
+        .toProvider(ReplicationStatusStoreProvider.class)
+        .in(Scopes.SINGLETON);
+    listener().to(ReplicationStatusWriter.class);
+    DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(ReplicationStatusPruner.class);
+    DynamicSet.bind(binder(), ProjectDeletedListener.class).to(ReplicationStatusPruner.class);
+    DynamicSet.bind(binder(), GitReferenceUpdatedListener.class).to(OutOfDateListener.class);
+    listener().to(ReplicationStatusPruner.class);
+    listener().to(ReplicationStatusWarmUp.class);
+    listener().to(ReplicationStatusReconciler.class);
+    DynamicItem.itemOf(binder(), ReplicationStatusBroker.class);
+    DynamicItem.bind(binder(), ReplicationStatusBroker.class)
+        .to(FileReplicationStatusBroker.class);
+    listener().to(FileReplicationStatusBroker.class);
+    listener().to(ClusterReplicationStatus.class);
     install(new ReplicationStatusApiModule());
-    install(new ReplicationStatusCacheModule());
+    install(new ReplicationStatusCacheModule(config.cacheDiskLimit()));
   }
 }
@@ -0,0 +1,49 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Marks the statuses of the refs replicated successfully as out of date as soon as the refs are
+ * updated, comparing the object they were replicated with to the new one of the update.
+ *
+ * <p>Only the statuses known by the index are marked. The out of date state is not persisted: it is
+ * derived from the persisted object when the statuses are loaded, see {@link
+ * ReplicationStatusLoader}, and superseded by the statuses of the replication of the update.
+ */
+@Singleton
+class OutOfDateListener implements GitReferenceUpdatedListener {
+  private final ReplicationStatusIndex replicationStatusIndex;
+
+  @Inject
+  OutOfDateListener(ReplicationStatusIndex replicationStatusIndex) {
+    this.replicationStatusIndex = replicationStatusIndex;
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (!event.isDelete()) {
+      replicationStatusIndex.refUpdated(
+          Project.nameKey(event.getProjectName()),
+          event.getRefName(),
+          ObjectId.fromString(event.getNewObjectId()));
+    }
+  }
+}
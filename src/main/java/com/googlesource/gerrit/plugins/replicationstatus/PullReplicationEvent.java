@@ -0,0 +1,110 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import java.util.Optional;
+
+/**
+ * Fetch event of the pull-replication plugin, read from its JSON form.
+ *
+ * <p>The classes of the pull-replication plugin are not visible to this plugin, so its events are
+ * recognized by their type and their fields are read by name. A single event can carry a batch of
+ * refs, in a {@code refs} array, instead of the single {@code ref}.
+ */
+@AutoValue
+abstract class PullReplicationEvent {
+  static final String FETCH_SCHEDULED = "fetch-ref-replication-scheduled";
+  static final String FETCH_REPLICATED = "fetch-ref-replicated";
+  static final ImmutableSet<String> TYPES = ImmutableSet.of(FETCH_SCHEDULED, FETCH_REPLICATED);
+
+  private static final ImmutableList<String> REMOTE_FIELDS =
+      ImmutableList.of("targetUri", "sourceUri", "sourceNode", "targetNode");
+
+  /** Returns the fetch event, or empty if the JSON does not have the expected fields. */
+  static Optional<PullReplicationEvent> parse(JsonObject json) {
+    String type = string(json.get("type"));
+    String project = project(json.get("project"));
+    String remote = remote(json);
+    ImmutableList<String> refs = refs(json);
+    if (type == null || project == null || remote == null || refs.isEmpty()) {
+      return Optional.empty();
+    }
+    String status = string(json.get("status"));
+    return Optional.of(
+        new AutoValue_PullReplicationEvent(
+            Project.nameKey(project),
+            remote,
+            refs,
+            status == null || type.equals(FETCH_SCHEDULED)
+                ? ReplicationStatus.ReplicationStatusResult.SCHEDULED
+                : ReplicationStatus.ReplicationStatusResult.fromString(status)));
+  }
+
+  abstract Project.NameKey projectName();
+
+  abstract String remote();
+
+  abstract ImmutableList<String> refs();
+
+  abstract ReplicationStatus.ReplicationStatusResult status();
+
+  @Nullable
+  private static String project(@Nullable JsonElement project) {
+    // Either the project name, or its serialized Project.NameKey.
+    if (project != null && project.isJsonObject()) {
+      return string(project.getAsJsonObject().get("name"));
+    }
+    return string(project);
+  }
+
+  @Nullable
+  private static String remote(JsonObject json) {
+    for (String field : REMOTE_FIELDS) {
+      String remote = string(json.get(field));
+      if (remote != null) {
+        return remote;
+      }
+    }
+    return null;
+  }
+
+  private static ImmutableList<String> refs(JsonObject json) {
+    JsonElement refs = json.get("refs");
+    if (refs == null || !refs.isJsonArray()) {
+      String ref = string(json.get("ref"));
+      return ref != null ? ImmutableList.of(ref) : ImmutableList.of();
+    }
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (JsonElement ref : refs.getAsJsonArray()) {
+      String refName = string(ref);
+      if (refName != null) {
+        result.add(refName);
+      }
+    }
+    return result.build();
+  }
+
+  @Nullable
+  private static String string(@Nullable JsonElement element) {
+    return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.auto.value.AutoValue;
+
+/** Percentiles, in milliseconds, of the replication latency to a remote. */
+@AutoValue
+public abstract class RemoteReplicationLatency {
+  static RemoteReplicationLatency create(LatencyHistogram histogram) {
+    return new AutoValue_RemoteReplicationLatency(
+        histogram.count(),
+        histogram.percentile(50),
+        histogram.percentile(95),
+        histogram.percentile(99));
+  }
+
+  public abstract long count();
+
+  public abstract long p50();
+
+  public abstract long p95();
+
+  public abstract long p99();
+}
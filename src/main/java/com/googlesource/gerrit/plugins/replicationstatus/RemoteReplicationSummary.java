@@ -0,0 +1,54 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.auto.value.AutoValue;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+@AutoValue
+public abstract class RemoteReplicationSummary {
+  static RemoteReplicationSummary create(
+      Map<ReplicationStatus.ReplicationStatusResult, Long> refs, long when) {
+    long pending =
+        refs.getOrDefault(ReplicationStatus.ReplicationStatusResult.SCHEDULED, 0L)
+            + refs.getOrDefault(ReplicationStatus.ReplicationStatusResult.OUT_OF_DATE, 0L);
+    return new AutoValue_RemoteReplicationSummary(refs, pending, when);
+  }
+
+  /** Rolls up the statuses of the refs, as {@link ReplicationStatusIndex.RemoteStatuses} does. */
+  static RemoteReplicationSummary create(Collection<ReplicationStatus> statuses) {
+    Map<ReplicationStatus.ReplicationStatusResult, Long> refs =
+        new EnumMap<>(ReplicationStatus.ReplicationStatusResult.class);
+    for (ReplicationStatus.ReplicationStatusResult status :
+        ReplicationStatus.ReplicationStatusResult.values()) {
+      refs.put(status, 0L);
+    }
+    long when = 0;
+    for (ReplicationStatus status : statuses) {
+      refs.merge(status.status(), 1L, Long::sum);
+      when = Math.max(when, status.when());
+    }
+    return create(refs, when);
+  }
+
+  public abstract Map<ReplicationStatus.ReplicationStatusResult, Long> refs();
+
+  /** Number of refs scheduled for replication or updated since their last replication. */
+  public abstract long pending();
+
+  public abstract long when();
+}
@@ -0,0 +1,54 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.auto.value.AutoValue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@AutoValue
+public abstract class ReplicationHealth {
+  static ReplicationHealth create(Collection<ReplicationStatus.Key> failures, boolean complete) {
+    Map<String, Map<String, List<String>>> failedRefs = new TreeMap<>();
+    for (ReplicationStatus.Key key : failures) {
+      failedRefs
+          .computeIfAbsent(key.projectName().get(), p -> new TreeMap<>())
+          .computeIfAbsent(key.remote(), r -> new ArrayList<>())
+          .add(key.ref());
+    }
+    failedRefs.values().forEach(remotes -> remotes.values().forEach(refs -> refs.sort(null)));
+
+    return new AutoValue_ReplicationHealth(
+        failedRefs.isEmpty()
+            ? ProjectReplicationStatus.ProjectReplicationStatusResult.OK
+            : ProjectReplicationStatus.ProjectReplicationStatusResult.FAILED,
+        failedRefs,
+        complete);
+  }
+
+  public abstract ProjectReplicationStatus.ProjectReplicationStatusResult status();
+
+  /** Refs whose replication failed, by project and remote. */
+  public abstract Map<String, Map<String, List<String>>> failures();
+
+  /**
+   * Whether the persisted statuses of all the projects have been loaded. Until then, only the
+   * failures of the projects and remotes loaded since the start are known.
+   */
+  public abstract boolean complete();
+}
@@ -0,0 +1,50 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+/**
+ * Reports the refs of all projects whose last replication failed, among the statuses loaded in
+ * memory.
+ */
+@Singleton
+class ReplicationHealthAction implements RestReadView<ConfigResource> {
+  private final ReplicationStatusPermissions permissions;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusWarmUp warmUp;
+
+  @Inject
+  ReplicationHealthAction(
+      ReplicationStatusPermissions permissions,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusWarmUp warmUp) {
+    this.permissions = permissions;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.warmUp = warmUp;
+  }
+
+  @Override
+  public Response<ReplicationHealth> apply(ConfigResource resource) throws AuthException {
+    permissions.checkIsAdmin();
+    return Response.ok(
+        ReplicationHealth.create(replicationStatusIndex.failures(), warmUp.isComplete()));
+  }
+}
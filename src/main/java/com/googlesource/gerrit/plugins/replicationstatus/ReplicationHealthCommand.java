@@ -0,0 +1,38 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.inject.Inject;
+
+@RequiresCapability(GlobalCapability.ADMINISTRATE_SERVER)
+@CommandMetaData(name = "health", description = "Show the refs whose last replication failed")
+class ReplicationHealthCommand extends SshCommand {
+  @Inject private ReplicationStatusIndex replicationStatusIndex;
+  @Inject private ReplicationStatusWarmUp warmUp;
+
+  @Override
+  protected void run() {
+    stdout.println(
+        OutputFormat.JSON
+            .newGson()
+            .toJson(
+                ReplicationHealth.create(replicationStatusIndex.failures(), warmUp.isComplete())));
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Records, for every remote, the time elapsed between a ref being scheduled for replication and
+ * its successful replication.
+ *
+ * <p>Events only carry their creation time with a resolution of one second, so the latency is
+ * measured from the time the events are received by this instance.
+ */
+@Singleton
+class ReplicationLatency {
+  private final Ticker ticker;
+  private final Cache<ReplicationStatus.Key, Long> scheduledAt;
+  private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+  private final Timer1<String> latency;
+
+  @Inject
+  ReplicationLatency(MetricMaker metricMaker, ReplicationStatusConfig config) {
+    this(metricMaker, config, Ticker.systemTicker());
+  }
+
+  ReplicationLatency(MetricMaker metricMaker, ReplicationStatusConfig config, Ticker ticker) {
+    this.ticker = ticker;
+    this.scheduledAt =
+        CacheBuilder.newBuilder()
+            .maximumSize(config.maxScheduledRefs())
+            .expireAfterWrite(1, DAYS)
+            .ticker(ticker)
+            .build();
+    this.latency =
+        metricMaker.newTimer(
+            "replication/latency",
+            new Description("Time elapsed between scheduling a ref and its replication")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS),
+            Field.ofString("remote", (metadataBuilder, remote) -> {})
+                .description("URL of the remote the ref was replicated to")
+                .build());
+  }
+
+  void scheduled(ReplicationStatus.Key key) {
+    // Only the first schedule counts, a ref scheduled again is still waiting.
+    scheduledAt.asMap().putIfAbsent(key, ticker.read());
+  }
+
+  void completed(ReplicationStatus.Key key, ReplicationStatus.ReplicationStatusResult result) {
+    Long scheduled = scheduledAt.asMap().remove(key);
+    if (scheduled == null || result != ReplicationStatus.ReplicationStatusResult.SUCCEEDED) {
+      return;
+    }
+
+    long elapsedMs = NANOSECONDS.toMillis(ticker.read() - scheduled);
+    histograms.computeIfAbsent(key.remote(), r -> new LatencyHistogram()).record(elapsedMs);
+    latency.record(key.remote(), elapsedMs, MILLISECONDS);
+  }
+
+  /** Returns the latency histograms, by remote. */
+  Map<String, LatencyHistogram> histograms() {
+    return Collections.unmodifiableMap(histograms);
+  }
+}
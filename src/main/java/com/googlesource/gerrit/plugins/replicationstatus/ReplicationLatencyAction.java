@@ -0,0 +1,52 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Reports the percentiles of the replication latency to every remote. */
+@Singleton
+class ReplicationLatencyAction implements RestReadView<ConfigResource> {
+  private final ReplicationStatusPermissions permissions;
+  private final ReplicationLatency replicationLatency;
+
+  @Inject
+  ReplicationLatencyAction(
+      ReplicationStatusPermissions permissions, ReplicationLatency replicationLatency) {
+    this.permissions = permissions;
+    this.replicationLatency = replicationLatency;
+  }
+
+  @Override
+  public Response<Map<String, RemoteReplicationLatency>> apply(ConfigResource resource)
+      throws AuthException {
+    permissions.checkIsAdmin();
+
+    Map<String, RemoteReplicationLatency> latencies = new TreeMap<>();
+    replicationLatency
+        .histograms()
+        .forEach(
+            (remote, histogram) ->
+                latencies.put(remote, RemoteReplicationLatency.create(histogram)));
+    return Response.ok(latencies);
+  }
+}
@@ -0,0 +1,298 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Remotes configured in the replication plugin's {@code replication.config}: their URLs, the
+ * projects they host and the refs pushed to them.
+ *
+ * <p>The configuration is parsed again only once its files, or the set of fan-out files, changed.
+ */
+@Singleton
+class ReplicationRemotes {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final String NAME_PLACEHOLDER = "${name}";
+  // The refspec of the replication plugin for the remotes without push refspec.
+  private static final RefSpec DEFAULT_PUSH = new RefSpec("+refs/*:refs/*");
+
+  private final SitePaths site;
+  private volatile Loaded loaded;
+
+  @Inject
+  ReplicationRemotes(SitePaths site) {
+    this.site = site;
+  }
+
+  /**
+   * Returns the remotes configured in {@code replication.config} and in the {@code
+   * etc/replication} fan-out directory. Returns an empty optional if the configuration cannot be
+   * read.
+   */
+  Optional<List<Remote>> remotes() {
+    Loaded current = loaded;
+    if (current == null || current.isModified()) {
+      synchronized (this) {
+        current = loaded;
+        if (current == null || current.isModified()) {
+          current = load();
+          loaded = current;
+        }
+      }
+    }
+    return current.remotes;
+  }
+
+  private Loaded load() {
+    Path configDir = site.etc_dir.resolve("replication");
+    // Read before the fan-out files are listed, so that a file added meanwhile is seen.
+    FileTime configDirModified = lastModified(configDir);
+    List<FileBasedConfig> configs = new ArrayList<>();
+    ImmutableList.Builder<Remote> remotes = ImmutableList.builder();
+    try {
+      // Loaded even if missing, so that it is seen once created.
+      configs.add(config(site.etc_dir.resolve("replication.config")));
+      if (configDirModified != null) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(configDir, "*.config")) {
+          for (Path file : files) {
+            configs.add(config(file));
+          }
+        }
+      }
+      // Kept when invalid, so that they are read again until fixed.
+      for (FileBasedConfig config : configs) {
+        config.load();
+        remotes.addAll(remotes(config));
+      }
+    } catch (IOException | ConfigInvalidException | IllegalArgumentException e) {
+      logger.atWarning().withCause(e).log("Unable to read the replication configuration");
+      return new Loaded(Optional.empty(), configs, configDir, configDirModified);
+    }
+    return new Loaded(Optional.of(remotes.build()), configs, configDir, configDirModified);
+  }
+
+  /**
+   * Returns the URLs of the configured remotes, possibly containing the {@code ${name}}
+   * placeholder. Returns an empty optional if the configuration cannot be read.
+   */
+  Optional<List<String>> urls() {
+    return remotes()
+        .map(
+            remotes ->
+                remotes.stream()
+                    .flatMap(remote -> remote.urls().stream())
+                    .collect(Collectors.toList()));
+  }
+
+  /**
+   * Returns the URLs of the configured remotes hosting the project, expanded for the project as
+   * found in replication events. Returns an empty list if the configuration cannot be read.
+   */
+  List<String> urls(Project.NameKey projectName) {
+    return remotes().orElse(Collections.emptyList()).stream()
+        .flatMap(remote -> remote.urls(projectName).stream())
+        .distinct()
+        .collect(Collectors.toList());
+  }
+
+  /** Returns whether the remote URL of a replication event has been produced by the template. */
+  static boolean matches(String urlTemplate, String remote) {
+    String regex =
+        Arrays.stream(urlTemplate.split(Pattern.quote(NAME_PLACEHOLDER), -1))
+            .map(Pattern::quote)
+            .collect(Collectors.joining(".+"));
+    return Pattern.matches(regex, remote);
+  }
+
+  /**
+   * Returns the remote URL the template is expanded to for the project, as found in replication
+   * events. Only the default {@code remoteNameStyle} of the replication plugin is supported.
+   */
+  static String expand(String urlTemplate, Project.NameKey projectName) {
+    String url = urlTemplate.replace(NAME_PLACEHOLDER, projectName.get());
+    try {
+      return new URIish(url).toString();
+    } catch (URISyntaxException e) {
+      return url;
+    }
+  }
+
+  private static FileBasedConfig config(Path file) {
+    return new FileBasedConfig(file.toFile(), FS.DETECTED);
+  }
+
+  /** Returns the modification time of the directory, or null if it does not exist. */
+  @Nullable
+  private static FileTime lastModified(Path dir) {
+    try {
+      return Files.isDirectory(dir) ? Files.getLastModifiedTime(dir) : null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static List<Remote> remotes(Config config) {
+    ImmutableList.Builder<Remote> remotes = ImmutableList.builder();
+    // Fan-out files configure a single remote, named after the file, without subsection.
+    if (config.getStringList("remote", null, "url").length > 0) {
+      remotes.add(new Remote(config, null));
+    }
+    for (String remote : config.getSubsections("remote")) {
+      remotes.add(new Remote(config, remote));
+    }
+    return remotes.build();
+  }
+
+  /** Remotes parsed from the configuration, with what tells whether it changed since. */
+  private static class Loaded {
+    // Modification times this recent may not change when the directory is modified again.
+    private static final Duration RACY_INTERVAL = Duration.ofSeconds(3);
+
+    private final Optional<List<Remote>> remotes;
+    private final List<FileBasedConfig> configs;
+    private final Path configDir;
+    @Nullable private final FileTime configDirModified;
+    private final boolean racy;
+
+    private Loaded(
+        Optional<List<Remote>> remotes,
+        List<FileBasedConfig> configs,
+        Path configDir,
+        @Nullable FileTime configDirModified) {
+      this.remotes = remotes;
+      this.configs = configs;
+      this.configDir = configDir;
+      this.configDirModified = configDirModified;
+      this.racy =
+          configDirModified != null
+              && configDirModified.toInstant().isAfter(Instant.now().minus(RACY_INTERVAL));
+    }
+
+    private boolean isModified() {
+      if (racy || !Objects.equals(lastModified(configDir), configDirModified)) {
+        return true;
+      }
+      for (FileBasedConfig config : configs) {
+        if (config.isOutdated()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Remote of the {@code replication.config}, interpreting its {@code projects} and {@code push}
+   * settings as the replication plugin does.
+   */
+  static class Remote {
+    private final List<String> urls;
+    private final List<String> projects;
+    private final List<RefSpec> push;
+
+    private Remote(Config config, @Nullable String name) {
+      urls = ImmutableList.copyOf(config.getStringList("remote", name, "url"));
+      projects = ImmutableList.copyOf(config.getStringList("remote", name, "projects"));
+      String[] refSpecs = config.getStringList("remote", name, "push");
+      push =
+          refSpecs.length > 0
+              ? Arrays.stream(refSpecs).map(RefSpec::new).collect(ImmutableList.toImmutableList())
+              : ImmutableList.of(DEFAULT_PUSH);
+    }
+
+    /** Returns the URLs of the remote, possibly containing the {@code ${name}} placeholder. */
+    List<String> urls() {
+      return urls;
+    }
+
+    /** Returns the URLs of the remote expanded for the project, empty if it does not host it. */
+    List<String> urls(Project.NameKey projectName) {
+      if (!hosts(projectName)) {
+        return ImmutableList.of();
+      }
+      return urls.stream().map(url -> expand(url, projectName)).collect(Collectors.toList());
+    }
+
+    /**
+     * Returns whether the project is replicated to the remote: the remote replicates all the
+     * projects when it has no {@code projects} setting, else the projects of the given names,
+     * name prefixes ending with {@code *} or regular expressions starting with {@code ^}.
+     */
+    boolean hosts(Project.NameKey projectName) {
+      if (projects.isEmpty()) {
+        return true;
+      }
+      String name = projectName.get();
+      for (String pattern : projects) {
+        if (pattern.startsWith("^")) {
+          if (name.matches(pattern)) {
+            return true;
+          }
+        } else if (pattern.endsWith("*")) {
+          if (name.startsWith(pattern.substring(0, pattern.length() - 1))) {
+            return true;
+          }
+        } else if (name.equals(pattern)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns the name the ref is pushed to on the remote, or null if no push refspec of the
+     * remote matches it.
+     */
+    @Nullable
+    String remoteRef(String ref) {
+      for (RefSpec refSpec : push) {
+        if (refSpec.matchSource(ref)) {
+          String destination = refSpec.expandFromSource(ref).getDestination();
+          return destination != null ? destination : ref;
+        }
+      }
+      return null;
+    }
+  }
+}
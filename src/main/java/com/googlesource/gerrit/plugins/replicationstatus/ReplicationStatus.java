@@ -15,11 +15,20 @@
 package com.googlesource.gerrit.plugins.replicationstatus;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.proto.Protos;
 import com.google.gerrit.server.cache.serialize.CacheSerializer;
+import com.google.protobuf.ByteString;
 import com.googlesource.gerrit.plugins.replicationstatus.proto.Cache;
+import com.googlesource.gerrit.plugins.replicationstatus.proto.Cache.ReplicationStatusProto;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 
 @AutoValue
 public abstract class ReplicationStatus {
@@ -27,7 +36,12 @@ public abstract class ReplicationStatus {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   static ReplicationStatus create(ReplicationType type, ReplicationStatusResult status, long when) {
-    return new AutoValue_ReplicationStatus(type, status, when);
+    return create(type, status, when, null);
+  }
+
+  static ReplicationStatus create(
+      ReplicationType type, ReplicationStatusResult status, long when, @Nullable String objectId) {
+    return new AutoValue_ReplicationStatus(type, status, when, objectId);
   }
 
   public abstract ReplicationType type();
@@ -36,14 +50,66 @@ public abstract class ReplicationStatus {
 
   public abstract long when();
 
+  /** Name of the object the ref pointed to when it was replicated successfully, if known. */
+  @Nullable
+  public abstract String objectId();
+
   public boolean isFailure() {
     return status().isFailure();
   }
 
+  /**
+   * Returns whether the ref was replicated successfully, but no longer points to the object it was
+   * replicated with.
+   */
+  boolean isOutOfDate(@Nullable AnyObjectId current) {
+    return status() == ReplicationStatusResult.SUCCEEDED
+        && objectId() != null
+        && (current == null || !current.name().equals(objectId()));
+  }
+
+  /** Returns the same status, out of date. */
+  ReplicationStatus outOfDate() {
+    return create(type(), ReplicationStatusResult.OUT_OF_DATE, when(), objectId());
+  }
+
+  /** Returns the status of the ref now pointing to the object, out of date if it moved since. */
+  ReplicationStatus current(@Nullable AnyObjectId current) {
+    return isOutOfDate(current) ? outOfDate() : this;
+  }
+
+  /**
+   * Returns the status to persist, the status itself unless out of date. Out of date statuses are
+   * persisted as succeeded, whether they are out of date is decided again once loaded.
+   */
+  ReplicationStatus persisted() {
+    return status() == ReplicationStatusResult.OUT_OF_DATE
+        ? create(type(), ReplicationStatusResult.SUCCEEDED, when(), objectId())
+        : this;
+  }
+
+  /**
+   * Returns the status of the newest event between the two, the current one when they happened at
+   * the same time.
+   */
+  static ReplicationStatus latest(@Nullable ReplicationStatus previous, ReplicationStatus current) {
+    return previous != null && previous.when() > current.when() ? previous : current;
+  }
+
   @AutoValue
   public abstract static class Key {
+    private static final Interner<Project.NameKey> PROJECTS = Interners.newWeakInterner();
+    private static final Interner<String> REMOTES = Interners.newWeakInterner();
+
     static ReplicationStatus.Key create(Project.NameKey projectName, String remote, String ref) {
-      return new AutoValue_ReplicationStatus_Key(projectName, remote, ref);
+      return create(projectName, remote, ref, false);
+    }
+
+    private static ReplicationStatus.Key create(
+        Project.NameKey projectName, String remote, String ref, boolean changeRefByName) {
+      // Millions of keys share a few projects and remotes, keep a single instance of each.
+      return new AutoValue_ReplicationStatus_Key(
+          PROJECTS.intern(projectName), REMOTES.intern(remote), ref, changeRefByName);
     }
 
     abstract Project.NameKey projectName();
@@ -52,25 +118,73 @@ public abstract class ReplicationStatus {
 
     abstract String ref();
 
+    /**
+     * Whether the key is the one of a change ref serialized by name, like the keys persisted before
+     * the change refs were serialized by number.
+     */
+    abstract boolean changeRefByName();
+
+    /**
+     * Returns the key of the same change ref serialized by name, or null if the ref is not a change
+     * ref, so that the statuses persisted before the change refs were serialized by number can
+     * still be looked up.
+     */
+    @Nullable
+    ReplicationStatus.Key changeRefByNameKey() {
+      if (changeRefByName() || ChangeRefName.encode(ref()) == ChangeRefName.NONE) {
+        return null;
+      }
+      return create(projectName(), remote(), ref(), true);
+    }
+
     enum Serializer implements CacheSerializer<ReplicationStatus.Key> {
       INSTANCE;
 
       @Override
       public byte[] serialize(ReplicationStatus.Key object) {
-        return Protos.toByteArray(
-            Cache.ReplicationStatusKeyProto.newBuilder()
-                .setProject(object.projectName().get())
-                .setRemote(object.remote())
-                .setRef(object.ref())
-                .build());
+        return Protos.toByteArray(toProto(object));
       }
 
       @Override
       public ReplicationStatus.Key deserialize(byte[] in) {
         Cache.ReplicationStatusKeyProto proto =
             Protos.parseUnchecked(Cache.ReplicationStatusKeyProto.parser(), in);
+        ReplicationStatus.Key key = fromProto(proto);
+        // Serialized again the same way, for the persisted key to be found.
+        ReplicationStatus.Key byName = proto.getChange() == 0 ? key.changeRefByNameKey() : null;
+        return byName != null ? byName : key;
+      }
+
+      static Cache.ReplicationStatusKeyProto toProto(ReplicationStatus.Key key) {
+        Cache.ReplicationStatusKeyProto.Builder proto =
+            key.changeRefByName()
+                ? Cache.ReplicationStatusKeyProto.newBuilder().setRef(key.ref())
+                : refProto(key.ref());
+        return proto.setProject(key.projectName().get()).setRemote(key.remote()).build();
+      }
+
+      static ReplicationStatus.Key fromProto(Cache.ReplicationStatusKeyProto proto) {
         return ReplicationStatus.Key.create(
-            Project.nameKey(proto.getProject()), proto.getRemote(), proto.getRef());
+            Project.nameKey(proto.getProject()), proto.getRemote(), ref(proto));
+      }
+
+      /** Returns the proto of the ref of a key, without the project and remote. */
+      static Cache.ReplicationStatusKeyProto.Builder refProto(String ref) {
+        Cache.ReplicationStatusKeyProto.Builder proto =
+            Cache.ReplicationStatusKeyProto.newBuilder();
+        long changeRef = ChangeRefName.encode(ref);
+        if (changeRef != ChangeRefName.NONE) {
+          return proto
+              .setChange(ChangeRefName.change(changeRef))
+              .setPatchSet(ChangeRefName.patchSet(changeRef));
+        }
+        return proto.setRef(ref);
+      }
+
+      static String ref(Cache.ReplicationStatusKeyProto proto) {
+        return proto.getChange() != 0
+            ? ChangeRefName.decode(ChangeRefName.encode(proto.getChange(), proto.getPatchSet()))
+            : proto.getRef();
       }
     }
   }
@@ -78,20 +192,60 @@ public abstract class ReplicationStatus {
   enum Serializer implements CacheSerializer<ReplicationStatus> {
     INSTANCE;
 
+    /** Origin of the time of the statuses in the serialized form, 2021-01-01T00:00:00Z. */
+    static final long WHEN_EPOCH_SECONDS = 1609459200L;
+
+    private static final ImmutableBiMap<ReplicationStatusResult, ReplicationStatusProto.Status>
+        STATUSES =
+            ImmutableBiMap.of(
+                ReplicationStatusResult.FAILED, ReplicationStatusProto.Status.STATUS_FAILED,
+                ReplicationStatusResult.NOT_ATTEMPTED,
+                    ReplicationStatusProto.Status.STATUS_NOT_ATTEMPTED,
+                ReplicationStatusResult.SUCCEEDED, ReplicationStatusProto.Status.STATUS_SUCCEEDED,
+                ReplicationStatusResult.SCHEDULED, ReplicationStatusProto.Status.STATUS_SCHEDULED,
+                ReplicationStatusResult.UNKNOWN, ReplicationStatusProto.Status.STATUS_UNKNOWN,
+                ReplicationStatusResult.OUT_OF_DATE,
+                    ReplicationStatusProto.Status.STATUS_OUT_OF_DATE);
+
+    private static final ImmutableBiMap<ReplicationType, ReplicationStatusProto.Type> TYPES =
+        ImmutableBiMap.of(
+            ReplicationType.PUSH, ReplicationStatusProto.Type.TYPE_PUSH,
+            ReplicationType.PULL, ReplicationStatusProto.Type.TYPE_PULL);
+
     @Override
     public byte[] serialize(ReplicationStatus object) {
-      return Protos.toByteArray(
-          Cache.ReplicationStatusProto.newBuilder()
-              .setWhen(object.when())
-              .setStatus(object.status().name())
-              .setType(object.type().name())
-              .build());
+      return Protos.toByteArray(toProto(object));
     }
 
     @Override
     public ReplicationStatus deserialize(byte[] in) {
-      Cache.ReplicationStatusProto proto =
-          Protos.parseUnchecked(Cache.ReplicationStatusProto.parser(), in);
+      return fromProto(Protos.parseUnchecked(ReplicationStatusProto.parser(), in));
+    }
+
+    static ReplicationStatusProto toProto(ReplicationStatus status) {
+      ReplicationStatusProto.Builder proto =
+          ReplicationStatusProto.newBuilder()
+              .setWhenDelta(status.when() - WHEN_EPOCH_SECONDS)
+              .setStatusV2(STATUSES.get(status.status()))
+              .setTypeV2(TYPES.get(status.type()));
+      if (status.objectId() != null) {
+        byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        ObjectId.fromString(status.objectId()).copyRawTo(raw, 0);
+        proto.setObjectId(ByteString.copyFrom(raw));
+      }
+      return proto.build();
+    }
+
+    static ReplicationStatus fromProto(ReplicationStatusProto proto) {
+      if (proto.getStatusV2() != ReplicationStatusProto.Status.STATUS_UNSPECIFIED) {
+        return ReplicationStatus.create(
+            TYPES.inverse().get(proto.getTypeV2()),
+            STATUSES.inverse().get(proto.getStatusV2()),
+            proto.getWhenDelta() + WHEN_EPOCH_SECONDS,
+            proto.getObjectId().isEmpty()
+                ? null
+                : ObjectId.fromRaw(proto.getObjectId().toByteArray()).name());
+      }
 
       return ReplicationStatus.create(
           ReplicationStatus.ReplicationType.valueOf(proto.getType()),
@@ -105,13 +259,16 @@ public abstract class ReplicationStatus {
     NOT_ATTEMPTED,
     SUCCEEDED,
     SCHEDULED,
-    UNKNOWN;
+    UNKNOWN,
+    /** Replicated successfully, but the ref has been updated since. */
+    OUT_OF_DATE;
 
     static ReplicationStatusResult fromString(String result) {
       switch (result.toLowerCase()) {
         case "succeeded":
           return SUCCEEDED;
         case "not-attempted":
+        case "not_attempted":
           return NOT_ATTEMPTED;
         case "scheduled":
           return SCHEDULED;
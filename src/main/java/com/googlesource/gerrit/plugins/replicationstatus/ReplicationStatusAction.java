@@ -14,76 +14,199 @@
 
 package com.googlesource.gerrit.plugins.replicationstatus;
 
-import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.CACHE_NAME;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.common.cache.Cache;
+import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.restapi.AuthException;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.BinaryResult;
+import com.google.gerrit.extensions.restapi.ETagView;
 import com.google.gerrit.extensions.restapi.ResourceConflictException;
 import com.google.gerrit.extensions.restapi.Response;
-import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.metrics.Timer0;
 import com.google.gerrit.server.git.GitRepositoryManager;
-import com.google.gerrit.server.permissions.GlobalPermission;
-import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
-import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 import com.google.inject.Inject;
-import com.google.inject.name.Named;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
-import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
+import org.kohsuke.args4j.Option;
 
-class ReplicationStatusAction implements RestReadView<ReplicationStatusProjectRemoteResource> {
-  private final PermissionBackend permissionBackend;
+class ReplicationStatusAction implements ETagView<ReplicationStatusProjectRemoteResource> {
+  // Distinguishes the ETags computed before and after a restart, as generations start over.
+  private static final String ETAG_EPOCH = UUID.randomUUID().toString();
+
+  private final ReplicationStatusPermissions permissions;
   private final GitRepositoryManager repoManager;
-  private final Cache<ReplicationStatus.Key, ReplicationStatus> replicationStatusCache;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+  private final ReplicationStatusMetrics metrics;
+  private final ReplicationStatusResponseCache responseCache;
+
+  @Option(
+      name = "--prefix",
+      aliases = {"-p"},
+      metaVar = "PREFIX",
+      usage = "only return the status of refs starting with the given prefix")
+  private String prefix;
+
+  @Option(
+      name = "--regex",
+      aliases = {"-r"},
+      metaVar = "REGEX",
+      usage = "only return the status of refs matching the given regular expression")
+  private String regex;
+
+  @Option(
+      name = "--status",
+      aliases = {"-s"},
+      metaVar = "STATUS",
+      usage = "only return the refs having the given replication status")
+  private ReplicationStatus.ReplicationStatusResult status;
+
+  @Option(
+      name = "--limit",
+      aliases = {"-n"},
+      metaVar = "CNT",
+      usage = "maximum number of refs to return")
+  private int limit;
+
+  @Option(
+      name = "--start",
+      aliases = {"-S"},
+      metaVar = "CNT",
+      usage = "number of refs to skip")
+  private int start;
+
+  @Option(
+      name = "--format",
+      aliases = {"-f"},
+      metaVar = "FORMAT",
+      usage = "format of the response: JSON (default), JSON_STREAM or PROTO")
+  private Format format = Format.JSON;
+
+  /** Encoding of the response. */
+  enum Format {
+    /** JSON object built in memory, memoized until the statuses change. */
+    JSON,
+    /** Same JSON object, written as the statuses are read, without the XSSI prefix. */
+    JSON_STREAM,
+    /** Protobuf entries written as the statuses are read, see {@link ReplicationStatusEntries}. */
+    PROTO
+  }
 
   @Inject
   ReplicationStatusAction(
-      PermissionBackend permissionBackend,
+      ReplicationStatusPermissions permissions,
       GitRepositoryManager repoManager,
-      @Named(CACHE_NAME) Cache<ReplicationStatus.Key, ReplicationStatus> replicationStatusCache) {
-    this.permissionBackend = permissionBackend;
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader,
+      ReplicationStatusMetrics metrics,
+      ReplicationStatusResponseCache responseCache) {
+    this.permissions = permissions;
     this.repoManager = repoManager;
-    this.replicationStatusCache = replicationStatusCache;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+    this.metrics = metrics;
+    this.responseCache = responseCache;
+  }
+
+  ReplicationStatusAction setFormat(Format format) {
+    this.format = format;
+    return this;
+  }
+
+  @Override
+  public String getETag(ReplicationStatusProjectRemoteResource resource) {
+    Project.NameKey projectNameKey = resource.getProjectNameKey();
+    return Hashing.murmur3_128()
+        .newHasher()
+        .putString(ETAG_EPOCH, UTF_8)
+        .putString(projectNameKey.get(), UTF_8)
+        .putString(resource.getRemoteUrl(), UTF_8)
+        .putLong(replicationStatusIndex.generation(projectNameKey, resource.getRemoteUrl()))
+        .putBoolean(permissions.isOwnerOrAdmin(projectNameKey))
+        .putString(options(), UTF_8)
+        .putString(format.name(), UTF_8)
+        .hash()
+        .toString();
   }
 
   @Override
-  public Response<ProjectReplicationStatus> apply(ReplicationStatusProjectRemoteResource resource)
+  public Response<?> apply(ReplicationStatusProjectRemoteResource resource)
       throws AuthException, PermissionBackendException, BadRequestException,
           ResourceConflictException, IOException {
 
     Project.NameKey projectNameKey = resource.getProjectNameKey();
     String remoteURL = resource.getRemoteUrl();
 
-    checkIsOwnerOrAdmin(projectNameKey);
+    permissions.checkIsOwnerOrAdmin(projectNameKey);
+    Predicate<String> refFilter = refFilter();
+
+    ReplicationStatusResponseCache.Key responseKey =
+        ReplicationStatusResponseCache.Key.create(projectNameKey, remoteURL, options());
+    long generation = replicationStatusIndex.generation(projectNameKey, remoteURL);
+    Optional<ProjectReplicationStatus> cachedStatus =
+        format == Format.JSON ? responseCache.get(responseKey, generation) : Optional.empty();
+    if (cachedStatus.isPresent()) {
+      return Response.ok(cachedStatus.get());
+    }
 
-    ProjectReplicationStatus.ProjectReplicationStatusResult overallStatus =
-        ProjectReplicationStatus.ProjectReplicationStatusResult.OK;
     Map<String, RemoteReplicationStatus> remoteStatuses = new HashMap<>();
-    try (Repository git = repoManager.openRepository(projectNameKey)) {
-
-      Map<String, ReplicationStatus> refStatuses = new HashMap<>();
-      for (Ref r : git.getRefDatabase().getRefs()) {
-        ReplicationStatus replicationStatus =
-            replicationStatusCache.getIfPresent(
-                ReplicationStatus.Key.create(projectNameKey, remoteURL, r.getName()));
-
-        if (replicationStatus != null) {
-          refStatuses.put(r.getName(), replicationStatus);
-          if (replicationStatus.isFailure()) {
-            overallStatus = ProjectReplicationStatus.ProjectReplicationStatusResult.FAILED;
-          }
-        }
+    try (Timer0.Context ctx = metrics.startQuery();
+        Repository git = repoManager.openRepository(projectNameKey)) {
+
+      Optional<Map<String, ReplicationStatus>> indexedStatuses =
+          replicationStatusIndex.get(projectNameKey, remoteURL);
+      if (format != Format.JSON) {
+        // When the index is cold, the statuses are read from the store as they are written rather
+        // than all loaded in memory beforehand, only the refs are listed beforehand.
+        Iterable<Map.Entry<String, ReplicationStatus>> refStatuses =
+            indexedStatuses.isPresent()
+                ? indexedStatuses.get().entrySet()
+                : replicationStatusLoader.stream(
+                    git, projectNameKey, remoteURL, Strings.nullToEmpty(prefix));
+        return Response.ok(stream(projectNameKey, remoteURL, refStatuses, refFilter));
       }
-      remoteStatuses.put(remoteURL, RemoteReplicationStatus.create(refStatuses));
+
+      Map<String, ReplicationStatus> refStatuses =
+          indexedStatuses.isPresent()
+              ? indexedStatuses.get()
+              : loadRefStatuses(git, projectNameKey, remoteURL);
+      Map<String, ReplicationStatus> page = limit == 0 ? new HashMap<>() : new LinkedHashMap<>();
+      ProjectReplicationStatus.ProjectReplicationStatusResult overallStatus =
+          forEachMatching(refStatuses.entrySet(), refFilter, page::put);
+      metrics.queried(refStatuses.size(), page.size());
+      remoteStatuses.put(remoteURL, RemoteReplicationStatus.create(page));
 
       ProjectReplicationStatus projectStatus =
           ProjectReplicationStatus.create(remoteStatuses, overallStatus, projectNameKey.get());
+      if (indexedStatuses.isPresent()) {
+        // Built from the index, valid until the generation read beforehand changes.
+        responseCache.put(responseKey, generation, projectStatus);
+      }
 
       return Response.ok(projectStatus);
 
@@ -93,13 +216,162 @@ class ReplicationStatusAction implements RestReadView<ReplicationStatusProjectRe
     }
   }
 
-  private void checkIsOwnerOrAdmin(Project.NameKey project) throws AuthException {
-    if (!permissionBackend.currentUser().testOrFalse(GlobalPermission.ADMINISTRATE_SERVER)
-        && !permissionBackend
-            .currentUser()
-            .project(project)
-            .testOrFalse(ProjectPermission.WRITE_CONFIG)) {
-      throw new AuthException("Administrate Server or Project owner required");
+  private String options() {
+    return String.join(
+        "\n",
+        Strings.nullToEmpty(prefix),
+        Strings.nullToEmpty(regex),
+        String.valueOf(status),
+        String.valueOf(limit),
+        String.valueOf(start));
+  }
+
+  private Predicate<String> refFilter() throws BadRequestException {
+    if (limit < 0 || start < 0) {
+      throw new BadRequestException("limit and start must not be negative");
     }
+    if (!Strings.isNullOrEmpty(prefix) && !Strings.isNullOrEmpty(regex)) {
+      throw new BadRequestException("specify exactly one of prefix/regex");
+    }
+    if (!Strings.isNullOrEmpty(prefix)) {
+      return ref -> ref.startsWith(prefix);
+    }
+    if (!Strings.isNullOrEmpty(regex)) {
+      try {
+        Pattern pattern = Pattern.compile(regex);
+        return ref -> pattern.matcher(ref).matches();
+      } catch (PatternSyntaxException e) {
+        throw new BadRequestException(e.getMessage());
+      }
+    }
+    return ref -> true;
+  }
+
+  /**
+   * Passes the statuses matching the filters in the requested page to the writer, reading the
+   * statuses once, and returns the overall status of all the matching ones.
+   *
+   * <p>With a limit, the page is sorted by ref and selected keeping at most {@code start + limit}
+   * statuses in memory. Without a limit, the statuses past the first {@code start} ones by ref are
+   * written as they are read, in no particular order, keeping at most {@code start} statuses in
+   * memory. Either way, the memory used does not depend on the number of refs.
+   */
+  private ProjectReplicationStatus.ProjectReplicationStatusResult forEachMatching(
+      Iterable<Map.Entry<String, ReplicationStatus>> refStatuses,
+      Predicate<String> refFilter,
+      RefWriter writer)
+      throws IOException {
+    int maxSize = limit > 0 ? (int) Math.min(Integer.MAX_VALUE - 1, (long) start + limit) : start;
+    Comparator<Map.Entry<String, ReplicationStatus>> byRef = Map.Entry.comparingByKey();
+    PriorityQueue<Map.Entry<String, ReplicationStatus>> first =
+        new PriorityQueue<>(byRef.reversed());
+
+    boolean failed = false;
+    for (Map.Entry<String, ReplicationStatus> refStatus : refStatuses) {
+      ReplicationStatus replicationStatus = refStatus.getValue();
+      if (!refFilter.test(refStatus.getKey())
+          || (status != null && replicationStatus.status() != status)) {
+        continue;
+      }
+      failed |= replicationStatus.isFailure();
+      if (maxSize == 0) {
+        writer.write(refStatus.getKey(), replicationStatus);
+        continue;
+      }
+      first.add(refStatus);
+      if (first.size() > maxSize) {
+        Map.Entry<String, ReplicationStatus> last = first.poll();
+        if (limit == 0) {
+          // Not among the first start refs seen so far, so not among the first start refs at all.
+          writer.write(last.getKey(), last.getValue());
+        }
+      }
+    }
+
+    if (limit > 0) {
+      List<Map.Entry<String, ReplicationStatus>> sorted = new ArrayList<>(first);
+      sorted.sort(byRef);
+      for (int i = start; i < sorted.size(); i++) {
+        writer.write(sorted.get(i).getKey(), sorted.get(i).getValue());
+      }
+    }
+    return failed
+        ? ProjectReplicationStatus.ProjectReplicationStatusResult.FAILED
+        : ProjectReplicationStatus.ProjectReplicationStatusResult.OK;
+  }
+
+  private BinaryResult stream(
+      Project.NameKey projectNameKey,
+      String remoteURL,
+      Iterable<Map.Entry<String, ReplicationStatus>> refStatuses,
+      Predicate<String> refFilter) {
+    BinaryResult result =
+        new BinaryResult() {
+          @Override
+          public void writeTo(OutputStream os) throws IOException {
+            int[] read = {0};
+            int[] written = {0};
+            Iterable<Map.Entry<String, ReplicationStatus>> counted =
+                Iterables.transform(
+                    refStatuses,
+                    refStatus -> {
+                      read[0]++;
+                      return refStatus;
+                    });
+            if (format == Format.PROTO) {
+              OutputStream out = new BufferedOutputStream(os);
+              forEachMatching(
+                  counted,
+                  refFilter,
+                  (ref, refStatus) -> {
+                    ReplicationStatusEntries.write(ref, refStatus, out);
+                    written[0]++;
+                  });
+              out.flush();
+            } else {
+              JsonWriter json =
+                  new JsonWriter(new BufferedWriter(new OutputStreamWriter(os, UTF_8)));
+              Gson gson = OutputFormat.JSON_COMPACT.newGson();
+              json.beginObject();
+              json.name("remotes").beginObject();
+              json.name(remoteURL).beginObject();
+              json.name("status").beginObject();
+              ProjectReplicationStatus.ProjectReplicationStatusResult overallStatus =
+                  forEachMatching(
+                      counted,
+                      refFilter,
+                      (ref, refStatus) -> {
+                        json.name(ref);
+                        gson.toJson(refStatus, refStatus.getClass(), json);
+                        written[0]++;
+                      });
+              json.endObject();
+              json.endObject();
+              json.endObject();
+              json.name("status").value(overallStatus.name());
+              json.name("project").value(projectNameKey.get());
+              json.endObject();
+              json.flush();
+            }
+            metrics.queried(read[0], written[0]);
+          }
+        };
+    return format == Format.PROTO
+        ? result.setContentType(ReplicationStatusEntries.CONTENT_TYPE)
+        : result.setContentType(OutputFormat.JSON.mimeType()).setCharacterEncoding(UTF_8);
+  }
+
+  private Map<String, ReplicationStatus> loadRefStatuses(
+      Repository git, Project.NameKey projectNameKey, String remoteURL) throws IOException {
+    // Only a full scan can complete the index, a prefix scan just serves this request.
+    if (Strings.isNullOrEmpty(prefix)) {
+      return replicationStatusLoader.load(git, projectNameKey, remoteURL);
+    }
+    return replicationStatusLoader.read(git, projectNameKey, remoteURL, prefix);
+  }
+
+  @FunctionalInterface
+  private interface RefWriter {
+    void write(String ref, ReplicationStatus status) throws IOException;
   }
 }
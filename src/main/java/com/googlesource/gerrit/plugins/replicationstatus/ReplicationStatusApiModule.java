@@ -14,20 +14,34 @@
 
 package com.googlesource.gerrit.plugins.replicationstatus;
 
+import static com.google.gerrit.server.config.ConfigResource.CONFIG_KIND;
 import static com.google.gerrit.server.project.ProjectResource.PROJECT_KIND;
+import static com.googlesource.gerrit.plugins.replicationstatus.ChangeReplicationStatusResource.CHANGE_REPLICATION_STATUS_KIND;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatusProjectRemoteResource.REPLICATION_STATUS_PROJECT_REMOTE_KIND;
+import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatusRefResource.REPLICATION_STATUS_REF_KIND;
 
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.restapi.RestApiModule;
-import com.google.inject.Scopes;
 
 class ReplicationStatusApiModule extends RestApiModule {
   @Override
   protected void configure() {
-    bind(ReplicationStatusAction.class).in(Scopes.SINGLETON);
     DynamicMap.mapOf(binder(), REPLICATION_STATUS_PROJECT_REMOTE_KIND);
     child(PROJECT_KIND, "remotes").to(ReplicationStatusProjectRemoteCollection.class);
     get(REPLICATION_STATUS_PROJECT_REMOTE_KIND, "replication-status")
         .to(ReplicationStatusAction.class);
+    get(REPLICATION_STATUS_PROJECT_REMOTE_KIND, "cluster-replication-status")
+        .to(ClusterReplicationStatusAction.class);
+    DynamicMap.mapOf(binder(), REPLICATION_STATUS_REF_KIND);
+    child(REPLICATION_STATUS_PROJECT_REMOTE_KIND, "refs").to(ReplicationStatusRefCollection.class);
+    get(REPLICATION_STATUS_REF_KIND, "replication-status").to(ReplicationStatusRefAction.class);
+    DynamicMap.mapOf(binder(), CHANGE_REPLICATION_STATUS_KIND);
+    child(REPLICATION_STATUS_PROJECT_REMOTE_KIND, "changes")
+        .to(ChangeReplicationStatusCollection.class);
+    get(CHANGE_REPLICATION_STATUS_KIND, "replication-status")
+        .to(ChangeReplicationStatusAction.class);
+    post(CONFIG_KIND, "replication-status").to(BulkReplicationStatusAction.class);
+    get(CONFIG_KIND, "replication-health").to(ReplicationHealthAction.class);
+    get(CONFIG_KIND, "replication-latency").to(ReplicationLatencyAction.class);
   }
 }
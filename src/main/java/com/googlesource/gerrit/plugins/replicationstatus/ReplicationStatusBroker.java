@@ -0,0 +1,39 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.extensions.registration.RegistrationHandle;
+
+/**
+ * Exchanges the changes of replication status between the nodes of a cluster.
+ *
+ * <p>Every node publishes the changes it records, and receives the changes recorded by the other
+ * nodes, along with the instance id of the node which recorded them.
+ */
+public interface ReplicationStatusBroker {
+  /** Receives the changes published by the other nodes. */
+  interface Listener {
+    void onChange(String instanceId, ReplicationStatusChange change);
+  }
+
+  /** Publishes a change recorded by the node with the given instance id. */
+  void publish(String instanceId, ReplicationStatusChange change);
+
+  /**
+   * Delivers the changes published by the nodes other than the given instance id to the listener,
+   * until the returned handle is removed.
+   */
+  RegistrationHandle subscribe(String instanceId, Listener listener);
+}
@@ -17,12 +17,22 @@ package com.googlesource.gerrit.plugins.replicationstatus;
 import com.google.gerrit.server.cache.CacheModule;
 
 public class ReplicationStatusCacheModule extends CacheModule {
+  private final long diskLimit;
+
+  /** Module of the cache, whose disk limit defaults to {@code diskLimit} bytes. */
+  public ReplicationStatusCacheModule(long diskLimit) {
+    this.diskLimit = diskLimit;
+  }
 
   @Override
   protected void configure() {
     persist(ReplicationStatus.CACHE_NAME, ReplicationStatus.Key.class, ReplicationStatus.class)
+        // The keys of the change refs persisted by name before they were serialized by number are
+        // still read, and moved to the new key once found, see CacheReplicationStatusStore.
         .version(1)
-        .diskLimit(-1)
+        // Sized for the statuses expected, see ReplicationStatusConfig#cacheDiskLimit(): the
+        // statuses of the projects deleted while not loaded are only reclaimed once evicted.
+        .diskLimit(diskLimit)
         .keySerializer(ReplicationStatus.Key.Serializer.INSTANCE)
         .valueSerializer(ReplicationStatus.Serializer.INSTANCE);
   }
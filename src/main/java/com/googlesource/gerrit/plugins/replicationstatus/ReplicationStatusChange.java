@@ -0,0 +1,48 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.auto.value.AutoValue;
+import com.google.gerrit.common.Nullable;
+
+/** Change of the replication status of a ref, as delivered to the stream subscribers. */
+@AutoValue
+public abstract class ReplicationStatusChange {
+  static ReplicationStatusChange create(ReplicationStatus.Key key, ReplicationStatus status) {
+    return new AutoValue_ReplicationStatusChange(
+        key.projectName().get(),
+        key.remote(),
+        key.ref(),
+        status.type(),
+        status.status(),
+        status.when(),
+        status.objectId());
+  }
+
+  public abstract String project();
+
+  public abstract String remote();
+
+  public abstract String ref();
+
+  public abstract ReplicationStatus.ReplicationType type();
+
+  public abstract ReplicationStatus.ReplicationStatusResult status();
+
+  public abstract long when();
+
+  @Nullable
+  public abstract String objectId();
+}
@@ -0,0 +1,277 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritServerConfig;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+
+/** Settings of the plugin, read from the {@code plugin.replication-status} gerrit.config. */
+@Singleton
+class ReplicationStatusConfig {
+  static final boolean DEFAULT_ASYNC_WRITES = true;
+  static final int DEFAULT_WRITE_QUEUE_SIZE = 100_000;
+  static final int DEFAULT_WRITE_BATCH_SIZE = 1_000;
+  static final long DEFAULT_MAX_SCHEDULED_REFS = 1_000_000L;
+  static final long DEFAULT_PRUNE_INTERVAL_MS = HOURS.toMillis(1);
+  static final long DEFAULT_RETIRED_REMOTE_MAX_AGE_SEC = DAYS.toSeconds(7);
+  static final int DEFAULT_STREAM_BUFFER_SIZE = 10_000;
+  static final int DEFAULT_STREAM_THREADS = 4;
+  static final String DEFAULT_CLUSTER_BROKER_DIRECTORY = "cluster";
+  static final long DEFAULT_CLUSTER_SYNC_INTERVAL_MS = SECONDS.toMillis(1);
+  static final String DEFAULT_MAPPED_STORAGE_DIRECTORY = "store";
+  static final long DEFAULT_MAPPED_STORAGE_CAPACITY = 8L << 20;
+  static final long DEFAULT_MAPPED_STORAGE_INDEX_SIZE = 100_000L;
+  static final long DEFAULT_PERSISTED_STATUSES = 1_000_000L;
+  // Disk space of a status in the persistent cache: a serialized status takes up to 37 bytes and
+  // its key up to 21 bytes plus the names of its project, remote and ref other than a change ref,
+  // which leaves room for 454 bytes of names.
+  static final long CACHE_DISK_BYTES_PER_STATUS = 512;
+  static final int DEFAULT_RECONCILE_THREADS = 4;
+  static final int DEFAULT_RECONCILE_MAX_PER_REMOTE = 2;
+
+  /** What to do with a status update when the write queue is full. */
+  enum WriteQueueFullPolicy {
+    /** Block the event dispatch until the writer makes room in the queue. */
+    BLOCK,
+    /** Do not persist the update, it is only kept in memory. */
+    DROP
+  }
+
+  /** Where the replication statuses are persisted. */
+  enum Storage {
+    /** The persistent cache of Gerrit. */
+    CACHE,
+    /** Memory-mapped files, off the Java heap. */
+    MAPPED
+  }
+
+  private final boolean asyncWrites;
+  private final int writeQueueSize;
+  private final int writeBatchSize;
+  private final WriteQueueFullPolicy writeQueueFullPolicy;
+  private final long maxScheduledRefs;
+  private final long pruneIntervalMs;
+  private final long retiredRemoteMaxAgeSec;
+  private final int warmUpThreads;
+  private final int streamBufferSize;
+  private final int streamThreads;
+  private final boolean clusterMode;
+  private final String clusterBrokerDirectory;
+  private final long clusterSyncIntervalMs;
+  private final Storage storage;
+  private final String mappedStorageDirectory;
+  private final long mappedStorageCapacity;
+  private final long mappedStorageIndexSize;
+  private final long persistedStatuses;
+  private final long reconcileIntervalMs;
+  private final int reconcileThreads;
+  private final int reconcileMaxPerRemote;
+
+  @Inject
+  ReplicationStatusConfig(@GerritServerConfig Config config, @PluginName String pluginName) {
+    asyncWrites = config.getBoolean("plugin", pluginName, "asyncWrites", DEFAULT_ASYNC_WRITES);
+    writeQueueSize =
+        Math.max(
+            1, config.getInt("plugin", pluginName, "writeQueueSize", DEFAULT_WRITE_QUEUE_SIZE));
+    writeBatchSize =
+        Math.max(
+            1, config.getInt("plugin", pluginName, "writeBatchSize", DEFAULT_WRITE_BATCH_SIZE));
+    writeQueueFullPolicy =
+        config.getEnum("plugin", pluginName, "writeQueueFullPolicy", WriteQueueFullPolicy.BLOCK);
+    maxScheduledRefs =
+        Math.max(
+            0,
+            config.getLong("plugin", pluginName, "maxScheduledRefs", DEFAULT_MAX_SCHEDULED_REFS));
+    pruneIntervalMs =
+        ConfigUtil.getTimeUnit(
+            config, "plugin", pluginName, "pruneInterval", DEFAULT_PRUNE_INTERVAL_MS, MILLISECONDS);
+    retiredRemoteMaxAgeSec =
+        ConfigUtil.getTimeUnit(
+            config,
+            "plugin",
+            pluginName,
+            "retiredRemoteMaxAge",
+            DEFAULT_RETIRED_REMOTE_MAX_AGE_SEC,
+            SECONDS);
+    warmUpThreads = config.getInt("plugin", pluginName, "warmUpThreads", 0);
+    streamBufferSize =
+        Math.max(
+            1, config.getInt("plugin", pluginName, "streamBufferSize", DEFAULT_STREAM_BUFFER_SIZE));
+    streamThreads =
+        Math.max(1, config.getInt("plugin", pluginName, "streamThreads", DEFAULT_STREAM_THREADS));
+    clusterMode = config.getBoolean("plugin", pluginName, "clusterMode", false);
+    clusterBrokerDirectory =
+        Optional.ofNullable(config.getString("plugin", pluginName, "clusterBrokerDirectory"))
+            .orElse(DEFAULT_CLUSTER_BROKER_DIRECTORY);
+    clusterSyncIntervalMs =
+        Math.max(
+            1,
+            ConfigUtil.getTimeUnit(
+                config,
+                "plugin",
+                pluginName,
+                "clusterSyncInterval",
+                DEFAULT_CLUSTER_SYNC_INTERVAL_MS,
+                MILLISECONDS));
+    storage = config.getEnum("plugin", pluginName, "storage", Storage.CACHE);
+    mappedStorageDirectory =
+        Optional.ofNullable(config.getString("plugin", pluginName, "mappedStorageDirectory"))
+            .orElse(DEFAULT_MAPPED_STORAGE_DIRECTORY);
+    mappedStorageCapacity =
+        Math.max(
+            1,
+            config.getLong(
+                "plugin", pluginName, "mappedStorageCapacity", DEFAULT_MAPPED_STORAGE_CAPACITY));
+    mappedStorageIndexSize =
+        Math.max(
+            1,
+            config.getLong(
+                "plugin",
+                pluginName,
+                "mappedStorageIndexSize",
+                DEFAULT_MAPPED_STORAGE_INDEX_SIZE));
+    persistedStatuses =
+        Math.max(
+            1,
+            config.getLong("plugin", pluginName, "persistedStatuses", DEFAULT_PERSISTED_STATUSES));
+    reconcileIntervalMs =
+        ConfigUtil.getTimeUnit(config, "plugin", pluginName, "reconcileInterval", 0, MILLISECONDS);
+    reconcileThreads =
+        Math.max(
+            1,
+            config.getInt("plugin", pluginName, "reconcileThreads", DEFAULT_RECONCILE_THREADS));
+    reconcileMaxPerRemote =
+        Math.max(
+            1,
+            config.getInt(
+                "plugin", pluginName, "reconcileMaxPerRemote", DEFAULT_RECONCILE_MAX_PER_REMOTE));
+  }
+
+  boolean asyncWrites() {
+    return asyncWrites;
+  }
+
+  int writeQueueSize() {
+    return writeQueueSize;
+  }
+
+  int writeBatchSize() {
+    return writeBatchSize;
+  }
+
+  WriteQueueFullPolicy writeQueueFullPolicy() {
+    return writeQueueFullPolicy;
+  }
+
+  long maxScheduledRefs() {
+    return maxScheduledRefs;
+  }
+
+  /** Interval between two runs of the pruning of stale statuses, zero or less to disable it. */
+  long pruneIntervalMs() {
+    return pruneIntervalMs;
+  }
+
+  /** Age of the latest status after which a remote no longer configured is pruned. */
+  long retiredRemoteMaxAgeSec() {
+    return retiredRemoteMaxAgeSec;
+  }
+
+  /** Number of threads loading the persisted statuses at startup, zero or less to disable it. */
+  int warmUpThreads() {
+    return warmUpThreads;
+  }
+
+  /** Number of changes buffered for a stream subscriber before it is dropped. */
+  int streamBufferSize() {
+    return streamBufferSize;
+  }
+
+  /** Number of threads writing the changes to the stream subscribers. */
+  int streamThreads() {
+    return streamThreads;
+  }
+
+  /** Whether the statuses recorded by the other nodes of the cluster are merged. */
+  boolean clusterMode() {
+    return clusterMode;
+  }
+
+  /** Directory shared by the nodes of the cluster to exchange the statuses they record. */
+  String clusterBrokerDirectory() {
+    return clusterBrokerDirectory;
+  }
+
+  /** Interval between two reads of the statuses recorded by the other nodes. */
+  long clusterSyncIntervalMs() {
+    return clusterSyncIntervalMs;
+  }
+
+  /** Where the replication statuses are persisted. */
+  Storage storage() {
+    return storage;
+  }
+
+  /** Directory of the memory-mapped files of the statuses. */
+  String mappedStorageDirectory() {
+    return mappedStorageDirectory;
+  }
+
+  /** Number of records of the memory-mapped files, fixed when they are created. */
+  long mappedStorageCapacity() {
+    return mappedStorageCapacity;
+  }
+
+  /**
+   * Number of statuses recorded since the start kept in memory with the memory-mapped files, the
+   * others being read from the files.
+   */
+  long mappedStorageIndexSize() {
+    return mappedStorageIndexSize;
+  }
+
+  /**
+   * Default disk limit of the persistent cache, sized for the number of statuses expected to be
+   * persisted, so that the statuses of live refs are not evicted.
+   */
+  long cacheDiskLimit() {
+    return persistedStatuses * CACHE_DISK_BYTES_PER_STATUS;
+  }
+
+  /** Interval between two comparisons of the refs with the remotes, zero or less to disable it. */
+  long reconcileIntervalMs() {
+    return reconcileIntervalMs;
+  }
+
+  /** Number of threads listing the refs of the remotes during a reconciliation. */
+  int reconcileThreads() {
+    return reconcileThreads;
+  }
+
+  /** Number of refs listings running at the same time for each configured remote. */
+  int reconcileMaxPerRemote() {
+    return reconcileMaxPerRemote;
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.googlesource.gerrit.plugins.replicationstatus.proto.Cache.ReplicationStatusEntryProto;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.BiConsumer;
+
+/**
+ * Binary stream of replication statuses, each one written as a length-delimited {@link
+ * ReplicationStatusEntryProto} as soon as it is read, rather than the whole stream being built in
+ * memory. Streams read back are decoded one entry at a time as well.
+ */
+final class ReplicationStatusEntries {
+  static final String CONTENT_TYPE = "application/x-protobuf";
+
+  /** Writes the status of the ref, leaving out the project and remote known to the reader. */
+  static void write(String ref, ReplicationStatus status, OutputStream out) throws IOException {
+    ReplicationStatusEntryProto.newBuilder()
+        .setKey(ReplicationStatus.Key.Serializer.refProto(ref))
+        .setStatus(ReplicationStatus.Serializer.toProto(status))
+        .build()
+        .writeDelimitedTo(out);
+  }
+
+  /** Writes the status of the ref with its full key, as exported by the snapshots. */
+  static void write(ReplicationStatus.Key key, ReplicationStatus status, OutputStream out)
+      throws IOException {
+    ReplicationStatusEntryProto.newBuilder()
+        .setKey(ReplicationStatus.Key.Serializer.toProto(key))
+        .setStatus(ReplicationStatus.Serializer.toProto(status))
+        .build()
+        .writeDelimitedTo(out);
+  }
+
+  /**
+   * Reads the entries written with their full key until the end of the stream, passing each one to
+   * the consumer. Returns the number of entries read.
+   */
+  static long readAll(
+      InputStream in, BiConsumer<ReplicationStatus.Key, ReplicationStatus> consumer)
+      throws IOException {
+    long read = 0;
+    ReplicationStatusEntryProto entry;
+    while ((entry = ReplicationStatusEntryProto.parseDelimitedFrom(in)) != null) {
+      consumer.accept(
+          ReplicationStatus.Key.Serializer.fromProto(entry.getKey()),
+          ReplicationStatus.Serializer.fromProto(entry.getStatus()));
+      read++;
+    }
+    return read;
+  }
+
+  private ReplicationStatusEntries() {}
+}
@@ -0,0 +1,58 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.kohsuke.args4j.Option;
+
+@RequiresCapability(GlobalCapability.ADMINISTRATE_SERVER)
+@CommandMetaData(
+    name = "export",
+    description = "Write the persisted replication statuses as a length-delimited protobuf stream")
+class ReplicationStatusExportCommand extends SshCommand {
+  @Inject private ReplicationStatusSnapshot snapshot;
+  @Inject private ProjectCache projectCache;
+
+  @Option(
+      name = "--project",
+      aliases = {"-p"},
+      metaVar = "PROJECT",
+      usage = "only export the statuses of the given project, can be repeated")
+  private Set<String> projects = new LinkedHashSet<>();
+
+  @Override
+  protected void run() throws UnloggedFailure {
+    Collection<Project.NameKey> projectNames =
+        projects.isEmpty()
+            ? projectCache.all()
+            : projects.stream().map(Project::nameKey).collect(Collectors.toList());
+    try {
+      snapshot.export(projectNames, out);
+    } catch (IOException e) {
+      throw die(e);
+    }
+  }
+}
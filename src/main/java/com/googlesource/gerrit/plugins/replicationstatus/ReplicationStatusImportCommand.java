@@ -0,0 +1,52 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.inject.Inject;
+import java.io.IOException;
+import org.kohsuke.args4j.Option;
+
+@RequiresCapability(GlobalCapability.ADMINISTRATE_SERVER)
+@CommandMetaData(
+    name = "import",
+    description = "Read replication statuses written by export from the standard input")
+class ReplicationStatusImportCommand extends SshCommand {
+  private static final int DEFAULT_THREADS = 4;
+
+  @Inject private ReplicationStatusSnapshot snapshot;
+
+  @Option(
+      name = "--threads",
+      aliases = {"-t"},
+      metaVar = "N",
+      usage = "number of threads writing the statuses, 4 by default")
+  private int threads = DEFAULT_THREADS;
+
+  @Override
+  protected void run() throws UnloggedFailure, InterruptedException {
+    if (threads < 1) {
+      throw die("--threads must be at least 1");
+    }
+    try {
+      stdout.println("Imported " + snapshot.restore(in, threads) + " replication statuses");
+    } catch (IOException | RuntimeException e) {
+      throw die(e);
+    }
+  }
+}
@@ -0,0 +1,635 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterators;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * In-memory secondary index of the replication status cache, keyed by project and remote.
+ *
+ * <p>The index is updated by the {@link EventHandler} on every consumed event, so that the refs
+ * having a replication status for a given project and remote can be read without looking up the
+ * cache for every ref of the repository.
+ *
+ * <p>Entries persisted by previous runs are not known to the index until they are loaded from the
+ * cache, see {@link #load(Project.NameKey, String, Map)}.
+ *
+ * <p>With a store read on every access, see {@link ReplicationStatusStore#isReadThrough()}, nothing
+ * is loaded and the index only holds the statuses recorded since the start. They are then bounded:
+ * beyond the maximum, the statuses of the least recently updated remotes are evicted, as the
+ * writer has persisted them or still holds them.
+ */
+@Singleton
+class ReplicationStatusIndex {
+  private static final int RECENT_UPDATES = 10_000;
+  // Counting the statuses walks all the remotes, the bound is only checked every so many statuses.
+  private static final int BOUND_CHECK_INTERVAL = 1_024;
+
+  private final ConcurrentMap<Project.NameKey, ConcurrentMap<String, RemoteStatuses>> projects =
+      new ConcurrentHashMap<>();
+  // The remotes loaded without any status, which are not worth RemoteStatuses of their own. Only
+  // updated within the mapping of the project in projects.
+  private final ConcurrentMap<Project.NameKey, Set<String>> loadedEmpty = new ConcurrentHashMap<>();
+  private final Set<ReplicationStatus.Key> failures = ConcurrentHashMap.newKeySet();
+  // Objects of the latest updates of the refs, keyed by refKey(), so that the replication of the
+  // refs can be recorded with their object without reading them.
+  private final Cache<String, ObjectId> recentUpdates =
+      CacheBuilder.newBuilder().maximumSize(RECENT_UPDATES).build();
+  private final long maxStatuses;
+  private final AtomicLong recorded = new AtomicLong();
+  private final AtomicBoolean evicting = new AtomicBoolean();
+  // Generation of the remotes without statuses, changed whenever statuses are forgotten, so that
+  // the responses built before are not mistaken for current ones.
+  private volatile long unknownGeneration = -1;
+
+  /** Index without any maximum number of statuses. */
+  ReplicationStatusIndex() {
+    this(0);
+  }
+
+  @Inject
+  ReplicationStatusIndex(ReplicationStatusConfig config) {
+    this(
+        config.storage() == ReplicationStatusConfig.Storage.MAPPED
+            ? config.mappedStorageIndexSize()
+            : 0);
+  }
+
+  private ReplicationStatusIndex(long maxStatuses) {
+    this.maxStatuses = maxStatuses;
+  }
+
+  /**
+   * Records the status of the key, unless a status of a newer event is already indexed. Returns the
+   * status indexed for the key.
+   */
+  ReplicationStatus put(ReplicationStatus.Key key, ReplicationStatus status) {
+    ReplicationStatus indexed =
+        remoteStatuses(key.projectName(), key.remote())
+            .put(key.ref(), status, current -> trackFailure(key, current));
+    recorded(1);
+    return indexed;
+  }
+
+  /**
+   * Records the statuses of several refs of the project replicated to the remote, unless statuses
+   * of newer events are already indexed. Returns the statuses indexed for the refs.
+   */
+  Map<ReplicationStatus.Key, ReplicationStatus> putAll(
+      Project.NameKey projectName, String remote, Map<String, ReplicationStatus> refStatuses) {
+    RemoteStatuses statuses = remoteStatuses(projectName, remote);
+    Map<ReplicationStatus.Key, ReplicationStatus> indexed = new HashMap<>(refStatuses.size());
+    refStatuses.forEach(
+        (ref, status) -> {
+          ReplicationStatus.Key key = ReplicationStatus.Key.create(projectName, remote, ref);
+          indexed.put(key, statuses.put(ref, status, current -> trackFailure(key, current)));
+        });
+    recorded(refStatuses.size());
+    return indexed;
+  }
+
+  /**
+   * Returns a live view of the statuses of the refs replicated to the remote, if the index has been
+   * fully loaded for the project and remote.
+   */
+  Optional<Map<String, ReplicationStatus>> get(Project.NameKey projectName, String remote) {
+    RemoteStatuses statuses = projectRemotes(projectName).get(remote);
+    if (statuses == null) {
+      return isLoadedEmpty(projectName, remote)
+          ? Optional.of(Collections.emptyMap())
+          : Optional.empty();
+    }
+    return statuses.loaded
+        ? Optional.of(Collections.unmodifiableMap(statuses.byName))
+        : Optional.empty();
+  }
+
+  /**
+   * Returns the indexed status of the key, or null if not indexed. Statuses persisted by previous
+   * runs are only known once loaded.
+   */
+  @Nullable
+  ReplicationStatus get(ReplicationStatus.Key key) {
+    RemoteStatuses statuses = projectRemotes(key.projectName()).get(key.remote());
+    return statuses != null ? statuses.byName.get(key.ref()) : null;
+  }
+
+  /** Returns whether the persisted statuses of the project and remote are loaded. */
+  boolean isLoaded(Project.NameKey projectName, String remote) {
+    RemoteStatuses statuses = projectRemotes(projectName).get(remote);
+    return statuses != null ? statuses.loaded : isLoadedEmpty(projectName, remote);
+  }
+
+  /**
+   * Returns the generation of the statuses of the project and remote, which changes every time they
+   * are updated. The remotes without any status known share a generation, which changes every time
+   * statuses are removed or evicted.
+   */
+  long generation(Project.NameKey projectName, String remote) {
+    RemoteStatuses statuses = projectRemotes(projectName).get(remote);
+    return statuses != null ? statuses.generation : unknownGeneration;
+  }
+
+  /** Returns the remotes the project has been replicated to, as known by the index. */
+  Map<String, RemoteStatuses> remotes(Project.NameKey projectName) {
+    return Collections.unmodifiableMap(projectRemotes(projectName));
+  }
+
+  /** Returns the projects having at least one remote known by the index. */
+  Set<Project.NameKey> projects() {
+    return Collections.unmodifiableSet(projects.keySet());
+  }
+
+  /**
+   * Marks the statuses of the ref replicated successfully to any remote of the project as out of
+   * date, if the ref no longer points to the object it was replicated with, and remembers the
+   * object of the update, see {@link #lastUpdate}. Returns the number of statuses marked.
+   */
+  int refUpdated(Project.NameKey projectName, String ref, @Nullable AnyObjectId current) {
+    if (current != null) {
+      recentUpdates.put(refKey(projectName, ref), current.copy());
+    } else {
+      recentUpdates.invalidate(refKey(projectName, ref));
+    }
+    int marked = 0;
+    for (RemoteStatuses statuses : projectRemotes(projectName).values()) {
+      ReplicationStatus status = statuses.byName.get(ref);
+      if (status != null
+          && status.isOutOfDate(current)
+          && statuses.replace(ref, status, status.outOfDate())) {
+        marked++;
+      }
+    }
+    return marked;
+  }
+
+  /**
+   * Returns the object the ref was last updated to, or null if the ref has not been updated among
+   * the latest updates since the start.
+   */
+  @Nullable
+  ObjectId lastUpdate(Project.NameKey projectName, String ref) {
+    return recentUpdates.getIfPresent(refKey(projectName, ref));
+  }
+
+  /** Removes the status of the ref for all the remotes of the project, returns the removed keys. */
+  List<ReplicationStatus.Key> removeRef(Project.NameKey projectName, String ref) {
+    recentUpdates.invalidate(refKey(projectName, ref));
+    List<ReplicationStatus.Key> removed = new ArrayList<>();
+    projectRemotes(projectName)
+        .forEach(
+            (remote, statuses) -> {
+              ReplicationStatus.Key key = ReplicationStatus.Key.create(projectName, remote, ref);
+              if (statuses.remove(ref, () -> failures.remove(key))) {
+                removed.add(key);
+              }
+            });
+    return removed;
+  }
+
+  /** Removes the statuses of the project for the remote, returns the removed keys. */
+  List<ReplicationStatus.Key> removeRemote(Project.NameKey projectName, String remote) {
+    List<RemoteStatuses> statuses = new ArrayList<>(1);
+    // Within the mapping, so that a remote added concurrently is not removed with the project.
+    projects.compute(
+        projectName,
+        (name, remotes) -> {
+          unmarkLoadedEmpty(name, remote);
+          if (remotes == null) {
+            return null;
+          }
+          RemoteStatuses removed = remotes.remove(remote);
+          if (removed != null) {
+            statuses.add(removed);
+          }
+          return remotes.isEmpty() ? null : remotes;
+        });
+    forgotten();
+    return statuses.isEmpty()
+        ? Collections.emptyList()
+        : removed(projectName, remote, statuses.get(0));
+  }
+
+  /** Removes all the statuses of the project, returns the removed keys. */
+  List<ReplicationStatus.Key> removeProject(Project.NameKey projectName) {
+    List<Map<String, RemoteStatuses>> removedRemotes = new ArrayList<>(1);
+    projects.compute(
+        projectName,
+        (name, remotes) -> {
+          loadedEmpty.remove(name);
+          if (remotes != null) {
+            removedRemotes.add(remotes);
+          }
+          return null;
+        });
+    forgotten();
+    String updatesPrefix = refKey(projectName, "");
+    recentUpdates.asMap().keySet().removeIf(key -> key.startsWith(updatesPrefix));
+    if (removedRemotes.isEmpty()) {
+      return Collections.emptyList();
+    }
+    List<ReplicationStatus.Key> removed = new ArrayList<>();
+    removedRemotes
+        .get(0)
+        .forEach((remote, statuses) -> removed.addAll(removed(projectName, remote, statuses)));
+    return removed;
+  }
+
+  /**
+   * Counts the statuses recorded, and evicts the least recently updated remotes once the statuses
+   * exceed the maximum. Checked every {@link #BOUND_CHECK_INTERVAL} statuses only, so that the
+   * index can exceed the maximum by as many.
+   */
+  private void recorded(int statuses) {
+    if (maxStatuses <= 0) {
+      return;
+    }
+    long total = recorded.addAndGet(statuses);
+    if ((total - statuses) / BOUND_CHECK_INTERVAL != total / BOUND_CHECK_INTERVAL
+        && evicting.compareAndSet(false, true)) {
+      try {
+        evict();
+      } finally {
+        evicting.set(false);
+      }
+    }
+  }
+
+  private void evict() {
+    long size = 0;
+    List<Map.Entry<Project.NameKey, Map.Entry<String, RemoteStatuses>>> remotes =
+        new ArrayList<>();
+    for (Map.Entry<Project.NameKey, ConcurrentMap<String, RemoteStatuses>> project :
+        projects.entrySet()) {
+      for (Map.Entry<String, RemoteStatuses> remote : project.getValue().entrySet()) {
+        size += remote.getValue().refs.size();
+        remotes.add(new AbstractMap.SimpleImmutableEntry<>(project.getKey(), remote));
+      }
+    }
+    if (size <= maxStatuses) {
+      return;
+    }
+
+    remotes.sort(Comparator.comparingLong(remote -> remote.getValue().getValue().lastUpdated()));
+    for (Map.Entry<Project.NameKey, Map.Entry<String, RemoteStatuses>> remote : remotes) {
+      if (size <= maxStatuses) {
+        break;
+      }
+      Project.NameKey projectName = remote.getKey();
+      String remoteName = remote.getValue().getKey();
+      RemoteStatuses statuses = remote.getValue().getValue();
+      boolean[] evicted = {false};
+      projects.computeIfPresent(
+          projectName,
+          (name, byRemote) -> {
+            evicted[0] = byRemote.remove(remoteName, statuses);
+            return byRemote.isEmpty() ? null : byRemote;
+          });
+      if (evicted[0]) {
+        size -= statuses.refs.size();
+        removed(projectName, remoteName, statuses);
+      }
+    }
+    forgotten();
+  }
+
+  private void forgotten() {
+    unknownGeneration = RemoteStatuses.GENERATIONS.incrementAndGet();
+  }
+
+  private static String refKey(Project.NameKey projectName, String ref) {
+    // Ref names cannot contain ':', the key is not ambiguous.
+    return projectName.get() + ":" + ref;
+  }
+
+  private List<ReplicationStatus.Key> removed(
+      Project.NameKey projectName, String remote, @Nullable RemoteStatuses statuses) {
+    if (statuses == null) {
+      return Collections.emptyList();
+    }
+    List<ReplicationStatus.Key> removed = new ArrayList<>(statuses.refs.size());
+    for (String ref : statuses.byName.keySet()) {
+      ReplicationStatus.Key key = ReplicationStatus.Key.create(projectName, remote, ref);
+      failures.remove(key);
+      removed.add(key);
+    }
+    return removed;
+  }
+
+  /** Returns the number of refs indexed in each status, across all the projects and remotes. */
+  Map<ReplicationStatus.ReplicationStatusResult, Long> counts() {
+    Map<ReplicationStatus.ReplicationStatusResult, Long> counts =
+        new EnumMap<>(ReplicationStatus.ReplicationStatusResult.class);
+    for (Map<String, RemoteStatuses> remotes : projects.values()) {
+      for (RemoteStatuses statuses : remotes.values()) {
+        statuses.counts().forEach((status, count) -> counts.merge(status, count, Long::sum));
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Loads the statuses read from the persisted cache into the index and marks the project and
+   * remote as fully indexed. Statuses already indexed take precedence, because they have been
+   * recorded by events received after the cache was read. A remote without any status is only
+   * marked as loaded, so that the projects never replicated to it cost no statuses.
+   */
+  void load(Project.NameKey projectName, String remote, Map<String, ReplicationStatus> loaded) {
+    if (loaded.isEmpty()) {
+      projects.compute(
+          projectName,
+          (name, remotes) -> {
+            RemoteStatuses statuses = remotes != null ? remotes.get(remote) : null;
+            if (statuses != null) {
+              statuses.loaded = true;
+              statuses.updated();
+            } else {
+              loadedEmpty.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).add(remote);
+            }
+            return remotes;
+          });
+      return;
+    }
+    RemoteStatuses statuses = remoteStatuses(projectName, remote);
+    loaded.forEach(
+        (ref, status) -> {
+          ReplicationStatus.Key key = ReplicationStatus.Key.create(projectName, remote, ref);
+          statuses.putIfAbsent(ref, status, () -> trackFailure(key, status));
+        });
+    statuses.loaded = true;
+    statuses.updated();
+  }
+
+  /**
+   * Returns the keys whose last replication failed, and did not succeed since. The failures are
+   * only known for the projects and remotes loaded into the index.
+   */
+  Set<ReplicationStatus.Key> failures() {
+    return Collections.unmodifiableSet(failures);
+  }
+
+  private void trackFailure(ReplicationStatus.Key key, ReplicationStatus status) {
+    if (status.isFailure()) {
+      failures.add(key);
+    } else if (status.status() == ReplicationStatus.ReplicationStatusResult.SUCCEEDED) {
+      failures.remove(key);
+    }
+  }
+
+  private Map<String, RemoteStatuses> projectRemotes(Project.NameKey projectName) {
+    Map<String, RemoteStatuses> remotes = projects.get(projectName);
+    return remotes != null ? remotes : Collections.emptyMap();
+  }
+
+  private RemoteStatuses remoteStatuses(Project.NameKey projectName, String remote) {
+    RemoteStatuses statuses = projectRemotes(projectName).get(remote);
+    if (statuses != null) {
+      return statuses;
+    }
+    // Within the mapping, so that the remote is not added to a project being removed.
+    List<RemoteStatuses> added = new ArrayList<>(1);
+    projects.compute(
+        projectName,
+        (name, remotes) -> {
+          ConcurrentMap<String, RemoteStatuses> byRemote =
+              remotes != null ? remotes : new ConcurrentHashMap<>();
+          added.add(
+              byRemote.computeIfAbsent(
+                  remote,
+                  k -> {
+                    RemoteStatuses created = new RemoteStatuses();
+                    created.loaded = unmarkLoadedEmpty(name, remote);
+                    return created;
+                  }));
+          return byRemote;
+        });
+    return added.get(0);
+  }
+
+  private boolean isLoadedEmpty(Project.NameKey projectName, String remote) {
+    Set<String> remotes = loadedEmpty.get(projectName);
+    return remotes != null && remotes.contains(remote);
+  }
+
+  /** Returns whether the remote was marked as loaded without any status. */
+  private boolean unmarkLoadedEmpty(Project.NameKey projectName, String remote) {
+    boolean[] unmarked = new boolean[1];
+    loadedEmpty.computeIfPresent(
+        projectName,
+        (name, remotes) -> {
+          unmarked[0] = remotes.remove(remote);
+          return remotes.isEmpty() ? null : remotes;
+        });
+    return unmarked[0];
+  }
+
+  /**
+   * Statuses of the refs of a project replicated to a remote, with their per-status rollup.
+   *
+   * <p>The statuses of the change refs, most of the refs, are keyed by the {@link ChangeRefName}
+   * encoded name rather than by the name itself, which saves 44 bytes of heap per ref, as
+   * measured by {@code FootprintBenchmark}.
+   */
+  static class RemoteStatuses {
+    // Shared by all the instances, so that a remote removed and indexed again does not reuse the
+    // generations it had before.
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+
+    private final ConcurrentMap<Object, ReplicationStatus> refs = new ConcurrentHashMap<>();
+    private final Map<String, ReplicationStatus> byName = new ByName();
+    private final AtomicLongArray counts =
+        new AtomicLongArray(ReplicationStatus.ReplicationStatusResult.values().length);
+    private final AtomicLong lastUpdated = new AtomicLong();
+    private volatile long generation = GENERATIONS.incrementAndGet();
+    private volatile boolean loaded;
+
+    boolean isLoaded() {
+      return loaded;
+    }
+
+    long lastUpdated() {
+      return lastUpdated.get();
+    }
+
+    Map<ReplicationStatus.ReplicationStatusResult, Long> counts() {
+      Map<ReplicationStatus.ReplicationStatusResult, Long> result =
+          new EnumMap<>(ReplicationStatus.ReplicationStatusResult.class);
+      for (ReplicationStatus.ReplicationStatusResult status :
+          ReplicationStatus.ReplicationStatusResult.values()) {
+        result.put(status, counts.get(status.ordinal()));
+      }
+      return result;
+    }
+
+    /**
+     * Records the status of the ref unless a newer one is indexed, and returns the indexed status.
+     * The tracker is called with the indexed status while the ref is locked, so that it observes
+     * the updates of the ref in order.
+     */
+    private ReplicationStatus put(
+        String ref, ReplicationStatus status, Consumer<ReplicationStatus> tracker) {
+      ReplicationStatus[] previous = new ReplicationStatus[1];
+      ReplicationStatus current =
+          refs.compute(
+              key(ref),
+              (k, indexed) -> {
+                previous[0] = indexed;
+                ReplicationStatus latest = ReplicationStatus.latest(indexed, status);
+                tracker.accept(latest);
+                return latest;
+              });
+      if (current != previous[0]) {
+        updated(previous[0], current);
+      }
+      return current;
+    }
+
+    Set<String> refs() {
+      return Collections.unmodifiableSet(byName.keySet());
+    }
+
+    boolean isEmpty() {
+      return refs.isEmpty();
+    }
+
+    private boolean remove(String ref, Runnable tracker) {
+      ReplicationStatus[] removed = new ReplicationStatus[1];
+      refs.computeIfPresent(
+          key(ref),
+          (k, indexed) -> {
+            removed[0] = indexed;
+            tracker.run();
+            return null;
+          });
+      if (removed[0] == null) {
+        return false;
+      }
+      counts.decrementAndGet(removed[0].status().ordinal());
+      updated();
+      return true;
+    }
+
+    /** Replaces the status of the ref, unless it changed since it was read. */
+    private boolean replace(String ref, ReplicationStatus expected, ReplicationStatus status) {
+      if (!refs.replace(key(ref), expected, status)) {
+        return false;
+      }
+      updated(expected, status);
+      return true;
+    }
+
+    private void putIfAbsent(String ref, ReplicationStatus status, Runnable tracker) {
+      boolean[] added = new boolean[1];
+      refs.computeIfAbsent(
+          key(ref),
+          k -> {
+            added[0] = true;
+            tracker.run();
+            return status;
+          });
+      if (added[0]) {
+        updated(null, status);
+      }
+    }
+
+    private void updated(ReplicationStatus previous, ReplicationStatus current) {
+      if (previous != null) {
+        counts.decrementAndGet(previous.status().ordinal());
+      }
+      counts.incrementAndGet(current.status().ordinal());
+      lastUpdated.accumulateAndGet(current.when(), Math::max);
+      updated();
+    }
+
+    private void updated() {
+      generation = GENERATIONS.incrementAndGet();
+    }
+
+    private static Object key(String ref) {
+      long changeRef = ChangeRefName.encode(ref);
+      return changeRef != ChangeRefName.NONE ? Long.valueOf(changeRef) : ref;
+    }
+
+    private static String name(Object key) {
+      return key instanceof Long ? ChangeRefName.decode((Long) key) : (String) key;
+    }
+
+    /** Live view of the statuses keyed by ref name, the change ref names decoded on the fly. */
+    private class ByName extends AbstractMap<String, ReplicationStatus> {
+      @Override
+      public ReplicationStatus get(Object ref) {
+        return ref instanceof String ? refs.get(key((String) ref)) : null;
+      }
+
+      @Override
+      public boolean containsKey(Object ref) {
+        return get(ref) != null;
+      }
+
+      @Override
+      public int size() {
+        return refs.size();
+      }
+
+      @Override
+      public boolean isEmpty() {
+        return refs.isEmpty();
+      }
+
+      @Override
+      public Set<Map.Entry<String, ReplicationStatus>> entrySet() {
+        return new AbstractSet<Map.Entry<String, ReplicationStatus>>() {
+          @Override
+          public Iterator<Map.Entry<String, ReplicationStatus>> iterator() {
+            return Iterators.transform(
+                refs.entrySet().iterator(),
+                e -> new AbstractMap.SimpleImmutableEntry<>(name(e.getKey()), e.getValue()));
+          }
+
+          @Override
+          public int size() {
+            return refs.size();
+          }
+        };
+      }
+    }
+  }
+}
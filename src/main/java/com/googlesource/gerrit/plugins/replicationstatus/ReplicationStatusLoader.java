@@ -0,0 +1,165 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.collect.Iterables;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Reads the replication statuses persisted in the {@link ReplicationStatusStore} by walking the
+ * refs of a repository. The statuses of the refs updated since their successful replication are
+ * reported out of date, from the objects of the refs walked.
+ *
+ * <p>The statuses are read from the index first, then from the updates the writer has not
+ * persisted yet, and then from the store. The statuses of a store read on every access, see {@link
+ * ReplicationStatusStore#isReadThrough()}, are never loaded into the index.
+ */
+@Singleton
+class ReplicationStatusLoader {
+  private final ReplicationStatusStore replicationStatusStore;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusWriter replicationStatusWriter;
+
+  @Inject
+  ReplicationStatusLoader(
+      ReplicationStatusStore replicationStatusStore,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusWriter replicationStatusWriter) {
+    this.replicationStatusStore = replicationStatusStore;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusWriter = replicationStatusWriter;
+  }
+
+  /** Whether the statuses are read from the store on every access, rather than loaded. */
+  boolean isReadThrough() {
+    return replicationStatusStore.isReadThrough();
+  }
+
+  /**
+   * Loads the statuses of all the refs of the repository replicated to the remote into the index.
+   * Returns the statuses indexed once loaded, which include the ones recorded by the events, so
+   * that the same statuses are returned before and after the index is loaded. With a read-through
+   * store, returns the statuses read without loading them.
+   */
+  Map<String, ReplicationStatus> load(Repository git, Project.NameKey projectName, String remote)
+      throws IOException {
+    Map<String, ReplicationStatus> refStatuses =
+        read(git.getRefDatabase().getRefs(), projectName, remote);
+    if (isReadThrough()) {
+      return refStatuses;
+    }
+    replicationStatusIndex.load(projectName, remote, refStatuses);
+    return replicationStatusIndex.get(projectName, remote).orElse(refStatuses);
+  }
+
+  /**
+   * Loads the statuses of all the refs of the repository replicated to any of the remotes into the
+   * index, walking the refs only once. Nothing is loaded with a read-through store.
+   */
+  void load(Repository git, Project.NameKey projectName, Collection<String> remotes)
+      throws IOException {
+    if (isReadThrough()) {
+      return;
+    }
+    List<Ref> refs = git.getRefDatabase().getRefs();
+    for (String remote : remotes) {
+      replicationStatusIndex.load(projectName, remote, read(refs, projectName, remote));
+    }
+  }
+
+  /**
+   * Returns the status of a single ref, from the index if known there, else from the writer or the
+   * store, or null if the ref has no status.
+   */
+  @Nullable
+  ReplicationStatus get(ReplicationStatus.Key key) {
+    ReplicationStatus indexed = replicationStatusIndex.get(key);
+    if (indexed != null) {
+      return indexed;
+    }
+    Optional<ReplicationStatus> pending = replicationStatusWriter.pending(key);
+    return pending != null ? pending.orElse(null) : replicationStatusStore.get(key);
+  }
+
+  /**
+   * Reads the statuses of the refs starting with the prefix, without loading them into the index.
+   */
+  Map<String, ReplicationStatus> read(
+      Repository git, Project.NameKey projectName, String remote, String prefix)
+      throws IOException {
+    return read(git.getRefDatabase().getRefsByPrefix(prefix), projectName, remote);
+  }
+
+  /** Reads the statuses of the refs, looked up by name, without loading them into the index. */
+  Map<String, ReplicationStatus> readRefs(
+      Repository git, Project.NameKey projectName, String remote, Collection<String> refs)
+      throws IOException {
+    return read(
+        git.getRefDatabase().exactRef(refs.toArray(new String[0])).values(), projectName, remote);
+  }
+
+  /**
+   * Returns the statuses of the refs starting with the prefix, read one at a time as they are
+   * iterated, see {@link #get}, without loading them into the index nor holding them in memory.
+   *
+   * <p>The refs are listed beforehand, the ref database not listing them lazily: the memory held is
+   * bounded by the refs starting with the prefix, which the packed refs of a repository mostly keep
+   * in memory anyway, and not by their statuses, read once iterated.
+   */
+  Iterable<Map.Entry<String, ReplicationStatus>> stream(
+      Repository git, Project.NameKey projectName, String remote, String prefix)
+      throws IOException {
+    List<Ref> refs = git.getRefDatabase().getRefsByPrefix(prefix);
+    return Iterables.filter(
+        Iterables.transform(
+            refs,
+            r -> {
+              ReplicationStatus replicationStatus =
+                  get(ReplicationStatus.Key.create(projectName, remote, r.getName()));
+              return replicationStatus != null
+                  ? new AbstractMap.SimpleImmutableEntry<>(
+                      r.getName(), replicationStatus.current(r.getObjectId()))
+                  : null;
+            }),
+        Objects::nonNull);
+  }
+
+  private Map<String, ReplicationStatus> read(
+      Collection<Ref> refs, Project.NameKey projectName, String remote) {
+    Map<String, ReplicationStatus> refStatuses = new HashMap<>();
+    for (Ref r : refs) {
+      ReplicationStatus replicationStatus =
+          get(ReplicationStatus.Key.create(projectName, remote, r.getName()));
+
+      if (replicationStatus != null) {
+        refStatuses.put(r.getName(), replicationStatus.current(r.getObjectId()));
+      }
+    }
+    return refStatuses;
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram0;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+@Singleton
+class ReplicationStatusMetrics {
+  private final Timer0 eventLatency;
+  private final Counter1<Boolean> events;
+  private final Timer0 cacheWriteLatency;
+  private final Timer0 queryLatency;
+  private final Histogram0 queryRefsScanned;
+  private final Histogram0 queryRefsReturned;
+  private final Counter1<ReplicationStatus.ReplicationStatusResult> reconciled;
+
+  @Inject
+  ReplicationStatusMetrics(MetricMaker metricMaker, ReplicationStatusIndex replicationStatusIndex) {
+    eventLatency =
+        metricMaker.newTimer(
+            "events/latency",
+            new Description("Time spent processing a replication event")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS));
+    events =
+        metricMaker.newCounter(
+            "events/count",
+            new Description("Replication events received").setRate().setUnit("events"),
+            Field.ofBoolean("consumed", (metadataBuilder, consumed) -> {})
+                .description(
+                    "Whether the event was consumed, or skipped for coming from another instance")
+                .build());
+    cacheWriteLatency =
+        metricMaker.newTimer(
+            "cache/write_latency",
+            new Description("Time spent persisting replication statuses into the cache")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS));
+    queryLatency =
+        metricMaker.newTimer(
+            "query/latency",
+            new Description("Time spent serving a replication-status request")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS));
+    queryRefsScanned =
+        metricMaker.newHistogram(
+            "query/refs_scanned",
+            new Description("Ref statuses examined to serve a replication-status request")
+                .setCumulative()
+                .setUnit("refs"));
+    queryRefsReturned =
+        metricMaker.newHistogram(
+            "query/refs_returned",
+            new Description("Ref statuses returned by a replication-status request")
+                .setCumulative()
+                .setUnit("refs"));
+
+    reconciled =
+        metricMaker.newCounter(
+            "reconciler/corrections",
+            new Description("Ref statuses corrected after comparing the refs with the remotes")
+                .setRate()
+                .setUnit("refs"),
+            Field.ofEnum(
+                    ReplicationStatus.ReplicationStatusResult.class,
+                    "status",
+                    (metadataBuilder, status) -> {})
+                .description("Replication status the refs have been corrected to")
+                .build());
+
+    CallbackMetric1<ReplicationStatus.ReplicationStatusResult, Long> entries =
+        metricMaker.newCallbackMetric(
+            "entries",
+            Long.class,
+            new Description("Ref statuses held in memory").setGauge().setUnit("refs"),
+            Field.ofEnum(
+                    ReplicationStatus.ReplicationStatusResult.class,
+                    "status",
+                    (metadataBuilder, status) -> {})
+                .description("Replication status of the refs")
+                .build());
+    metricMaker.newTrigger(
+        entries,
+        () -> {
+          replicationStatusIndex.counts().forEach(entries::set);
+          entries.prune();
+        });
+  }
+
+  Timer0.Context startEvent() {
+    return eventLatency.start();
+  }
+
+  void eventReceived(boolean consumed) {
+    events.increment(consumed);
+  }
+
+  Timer0.Context startCacheWrite() {
+    return cacheWriteLatency.start();
+  }
+
+  Timer0.Context startQuery() {
+    return queryLatency.start();
+  }
+
+  void queried(int refsScanned, int refsReturned) {
+    queryRefsScanned.record(refsScanned);
+    queryRefsReturned.record(refsReturned);
+  }
+
+  void reconciled(ReplicationStatus.ReplicationStatusResult status) {
+    reconciled.increment(status);
+  }
+}
@@ -0,0 +1,53 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.server.permissions.GlobalPermission;
+import com.google.gerrit.server.permissions.PermissionBackend;
+import com.google.gerrit.server.permissions.ProjectPermission;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+
+@Singleton
+class ReplicationStatusPermissions {
+  private final PermissionBackend permissionBackend;
+
+  @Inject
+  ReplicationStatusPermissions(PermissionBackend permissionBackend) {
+    this.permissionBackend = permissionBackend;
+  }
+
+  void checkIsAdmin() throws AuthException {
+    if (!permissionBackend.currentUser().testOrFalse(GlobalPermission.ADMINISTRATE_SERVER)) {
+      throw new AuthException("Administrate Server required");
+    }
+  }
+
+  void checkIsOwnerOrAdmin(Project.NameKey project) throws AuthException {
+    if (!isOwnerOrAdmin(project)) {
+      throw new AuthException("Administrate Server or Project owner required");
+    }
+  }
+
+  boolean isOwnerOrAdmin(Project.NameKey project) {
+    return permissionBackend.currentUser().testOrFalse(GlobalPermission.ADMINISTRATE_SERVER)
+        || permissionBackend
+            .currentUser()
+            .project(project)
+            .testOrFalse(ProjectPermission.WRITE_CONFIG);
+  }
+}
@@ -18,28 +18,31 @@ import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.restapi.ChildCollection;
 import com.google.gerrit.extensions.restapi.IdString;
-import com.google.gerrit.extensions.restapi.NotImplementedException;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.RestView;
 import com.google.gerrit.server.project.ProjectResource;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
 
 @Singleton
 public class ReplicationStatusProjectRemoteCollection
     implements ChildCollection<ProjectResource, ReplicationStatusProjectRemoteResource> {
   private final DynamicMap<RestView<ReplicationStatusProjectRemoteResource>> views;
+  private final Provider<ListRemoteReplicationStatus> list;
 
   @Inject
   ReplicationStatusProjectRemoteCollection(
-      DynamicMap<RestView<ReplicationStatusProjectRemoteResource>> views) {
+      DynamicMap<RestView<ReplicationStatusProjectRemoteResource>> views,
+      Provider<ListRemoteReplicationStatus> list) {
     this.views = views;
+    this.list = list;
   }
 
   @Override
   public RestView<ProjectResource> list() throws RestApiException {
-    throw new NotImplementedException();
+    return list.get();
   }
 
   @Override
@@ -0,0 +1,207 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.GitReferenceUpdatedListener;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.events.ProjectDeletedListener;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Removes the statuses that can no longer be queried: statuses of deleted refs, of deleted projects
+ * and of remotes no longer configured for replication.
+ *
+ * <p>Deleted refs and projects are pruned as soon as they are deleted, including the statuses
+ * persisted but not loaded: those of the deleted ref for every configured remote and, in the {@code
+ * MAPPED} storage, all those of the deleted project, as well as the statuses recorded by the other
+ * nodes of the cluster. A background task periodically catches up with the deletions that happened
+ * while the plugin was not running, and prunes the remotes that have not been replicated to for a
+ * while and are no longer in the {@code replication.config}.
+ */
+@Singleton
+class ReplicationStatusPruner
+    implements GitReferenceUpdatedListener, ProjectDeletedListener, LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusWriter replicationStatusWriter;
+  private final ReplicationStatusStore replicationStatusStore;
+  private final ReplicationStatusConfig config;
+  private final ReplicationRemotes replicationRemotes;
+  private final ClusterReplicationStatus clusterReplicationStatus;
+  private final ProjectCache projectCache;
+  private final GitRepositoryManager repoManager;
+  private final WorkQueue workQueue;
+  private ScheduledFuture<?> pruneTask;
+
+  @Inject
+  ReplicationStatusPruner(
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusWriter replicationStatusWriter,
+      ReplicationStatusStore replicationStatusStore,
+      ReplicationStatusConfig config,
+      ReplicationRemotes replicationRemotes,
+      ClusterReplicationStatus clusterReplicationStatus,
+      ProjectCache projectCache,
+      GitRepositoryManager repoManager,
+      WorkQueue workQueue) {
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusWriter = replicationStatusWriter;
+    this.replicationStatusStore = replicationStatusStore;
+    this.config = config;
+    this.replicationRemotes = replicationRemotes;
+    this.clusterReplicationStatus = clusterReplicationStatus;
+    this.projectCache = projectCache;
+    this.repoManager = repoManager;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    long interval = config.pruneIntervalMs();
+    if (interval > 0) {
+      pruneTask =
+          workQueue
+              .getDefaultQueue()
+              .scheduleAtFixedRate(this::prune, interval, interval, MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (pruneTask != null) {
+      pruneTask.cancel(true);
+      pruneTask = null;
+    }
+  }
+
+  @Override
+  public void onGitReferenceUpdated(GitReferenceUpdatedListener.Event event) {
+    if (event.isDelete()) {
+      Project.NameKey projectName = Project.nameKey(event.getProjectName());
+      String ref = event.getRefName();
+      List<ReplicationStatus.Key> removed = replicationStatusIndex.removeRef(projectName, ref);
+      invalidate(removed);
+      clusterReplicationStatus.removeRef(projectName, ref);
+      // The statuses of the remotes not loaded yet are only persisted.
+      for (String remote : replicationRemotes.urls(projectName)) {
+        ReplicationStatus.Key key = ReplicationStatus.Key.create(projectName, remote, ref);
+        if (!removed.contains(key)) {
+          replicationStatusWriter.invalidate(key);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onProjectDeleted(ProjectDeletedListener.Event event) {
+    Project.NameKey projectName = Project.nameKey(event.getProjectName());
+    invalidate(replicationStatusIndex.removeProject(projectName));
+    clusterReplicationStatus.removeProject(projectName);
+    // Walks the whole store, off the thread deleting the project.
+    workQueue
+        .getDefaultQueue()
+        .execute(() -> replicationStatusStore.invalidateProject(projectName));
+  }
+
+  void prune() {
+    Stopwatch elapsed = Stopwatch.createStarted();
+    Optional<List<String>> configuredUrls = replicationRemotes.urls();
+    long retiredBefore = Instant.now().getEpochSecond() - config.retiredRemoteMaxAgeSec();
+    int pruned = 0;
+
+    Set<Project.NameKey> projects = new HashSet<>(replicationStatusIndex.projects());
+    projects.addAll(clusterReplicationStatus.projects());
+    for (Project.NameKey projectName : projects) {
+      try {
+        if (!projectCache.get(projectName).isPresent()) {
+          pruned += invalidate(replicationStatusIndex.removeProject(projectName));
+          clusterReplicationStatus.removeProject(projectName);
+          continue;
+        }
+        if (configuredUrls.isPresent()) {
+          pruned += pruneRetiredRemotes(projectName, configuredUrls.get(), retiredBefore);
+        }
+        pruned += pruneDeletedRefs(projectName);
+      } catch (IOException | RuntimeException e) {
+        logger.atWarning().withCause(e).log(
+            "Unable to prune the replication statuses of project %s", projectName);
+      }
+    }
+    logger.atInfo().log("Pruned %d replication statuses in %s", pruned, elapsed);
+  }
+
+  private int pruneRetiredRemotes(
+      Project.NameKey projectName, List<String> configuredUrls, long retiredBefore) {
+    int pruned = 0;
+    for (Map.Entry<String, ReplicationStatusIndex.RemoteStatuses> remote :
+        replicationStatusIndex.remotes(projectName).entrySet()) {
+      String url = remote.getKey();
+      if (remote.getValue().lastUpdated() < retiredBefore
+          && configuredUrls.stream().noneMatch(t -> ReplicationRemotes.matches(t, url))) {
+        pruned += invalidate(replicationStatusIndex.removeRemote(projectName, url));
+      }
+    }
+    return pruned;
+  }
+
+  private int pruneDeletedRefs(Project.NameKey projectName) throws IOException {
+    Set<String> refs = new HashSet<>();
+    replicationStatusIndex
+        .remotes(projectName)
+        .values()
+        .forEach(statuses -> refs.addAll(statuses.refs()));
+    refs.addAll(clusterReplicationStatus.refs(projectName));
+    if (refs.isEmpty()) {
+      return 0;
+    }
+
+    int pruned = 0;
+    try (Repository git = repoManager.openRepository(projectName)) {
+      RefDatabase refDatabase = git.getRefDatabase();
+      for (String ref : refs) {
+        if (refDatabase.exactRef(ref) == null) {
+          pruned += invalidate(replicationStatusIndex.removeRef(projectName, ref));
+          clusterReplicationStatus.removeRef(projectName, ref);
+        }
+      }
+    }
+    return pruned;
+  }
+
+  private int invalidate(List<ReplicationStatus.Key> keys) {
+    keys.forEach(replicationStatusWriter::invalidate);
+    return keys.size();
+  }
+}
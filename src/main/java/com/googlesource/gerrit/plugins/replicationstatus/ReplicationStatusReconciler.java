@@ -0,0 +1,355 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationStatusResult.FAILED;
+import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationStatusResult.SUCCEEDED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Corrects the statuses that no longer reflect the refs of the remotes, e.g. because replication
+ * events were missed while the plugin was reloaded, by comparing the refs of the projects with the
+ * ones advertised by the remotes configured in the {@code replication.config}.
+ *
+ * <p>Only the projects a remote hosts, as per its {@code projects} setting, and the refs its push
+ * refspecs replicate are compared, with the refs they are pushed to. A ref advertised with the same
+ * object as the local ref is recorded as {@code SUCCEEDED}, even if no status was recorded for it.
+ * A ref recorded as {@code SUCCEEDED} whose object differs from the advertised one, or which is not
+ * advertised, is recorded as {@code FAILED}. Other refs are left untouched, since they may be
+ * waiting for their replication.
+ *
+ * <p>The remotes are listed by a dedicated work queue, created only when the reconciliation is
+ * enabled. The listings of each configured remote URL are queued apart, and run by at most {@code
+ * reconcileMaxPerRemote} tasks taking turns with the ones of the other remotes, so that no thread
+ * waits for a connection to a busy remote. A run is skipped while the previous one is still
+ * running. The corrections are recorded as events of the time the run started, so that
+ * the statuses of events received during the run take precedence.
+ */
+@Singleton
+class ReplicationStatusReconciler implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final int TRANSPORT_TIMEOUT_SEC = 60;
+
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+  private final ReplicationStatusWriter replicationStatusWriter;
+  private final ReplicationStatusConfig config;
+  private final ReplicationStatusMetrics metrics;
+  private final ReplicationRemotes replicationRemotes;
+  private final ProjectCache projectCache;
+  private final GitRepositoryManager repoManager;
+  private final WorkQueue workQueue;
+  private final AtomicBoolean running = new AtomicBoolean();
+  private volatile ListeningExecutorService executor;
+  private ScheduledFuture<?> reconcileTask;
+
+  @Inject
+  ReplicationStatusReconciler(
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader,
+      ReplicationStatusWriter replicationStatusWriter,
+      ReplicationStatusConfig config,
+      ReplicationStatusMetrics metrics,
+      ReplicationRemotes replicationRemotes,
+      ProjectCache projectCache,
+      GitRepositoryManager repoManager,
+      WorkQueue workQueue) {
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+    this.replicationStatusWriter = replicationStatusWriter;
+    this.config = config;
+    this.metrics = metrics;
+    this.replicationRemotes = replicationRemotes;
+    this.projectCache = projectCache;
+    this.repoManager = repoManager;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    long interval = config.reconcileIntervalMs();
+    if (interval <= 0) {
+      return;
+    }
+    executor =
+        MoreExecutors.listeningDecorator(
+            workQueue.createQueue(config.reconcileThreads(), "ReplicationStatusReconciler"));
+    reconcileTask =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(this::reconcileAll, interval, interval, MILLISECONDS);
+  }
+
+  @Override
+  public void stop() {
+    if (reconcileTask != null) {
+      reconcileTask.cancel(true);
+      reconcileTask = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private void reconcileAll() {
+    if (!running.compareAndSet(false, true)) {
+      logger.atWarning().log("Previous reconciliation still running, skipping this one");
+      return;
+    }
+    Stopwatch elapsed = Stopwatch.createStarted();
+    Futures.addCallback(
+        reconcile(projectCache.all()),
+        new FutureCallback<Integer>() {
+          @Override
+          public void onSuccess(Integer corrected) {
+            running.set(false);
+            logger.atInfo().log("Corrected %d replication statuses in %s", corrected, elapsed);
+          }
+
+          @Override
+          public void onFailure(Throwable e) {
+            running.set(false);
+            logger.atWarning().withCause(e).log("Unable to reconcile the replication statuses");
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Reconciles the statuses of the projects with the configured remotes hosting them, and returns
+   * the number of statuses corrected once done, without waiting for the remotes to be listed. Fails
+   * if the reconciliation is disabled.
+   */
+  ListenableFuture<Integer> reconcile(Collection<Project.NameKey> projects) {
+    ListeningExecutorService executor = this.executor;
+    if (executor == null) {
+      return Futures.immediateFailedFuture(
+          new IllegalStateException("Reconciliation of the replication statuses is disabled"));
+    }
+    List<ReplicationRemotes.Remote> remotes =
+        replicationRemotes.remotes().orElse(Collections.emptyList());
+
+    Map<String, Queue<Listing>> listings = new LinkedHashMap<>();
+    int total = 0;
+    for (Project.NameKey projectName : projects) {
+      for (ReplicationRemotes.Remote remote : remotes) {
+        if (!remote.hosts(projectName)) {
+          continue;
+        }
+        for (String urlTemplate : remote.urls()) {
+          listings
+              .computeIfAbsent(urlTemplate, t -> new ConcurrentLinkedQueue<>())
+              .add(
+                  new Listing(
+                      projectName, remote, ReplicationRemotes.expand(urlTemplate, projectName)));
+          total++;
+        }
+      }
+    }
+    if (total == 0) {
+      return Futures.immediateFuture(0);
+    }
+
+    Run run = new Run(executor, Instant.now().getEpochSecond(), total);
+    for (Queue<Listing> queue : listings.values()) {
+      for (int i = Math.min(config.reconcileMaxPerRemote(), queue.size()); i > 0; i--) {
+        run.next(queue);
+      }
+    }
+    return run.result;
+  }
+
+  private int reconcile(
+      Project.NameKey projectName, ReplicationRemotes.Remote remote, String url, long now)
+      throws IOException {
+    try (Repository git = repoManager.openRepository(projectName)) {
+      RefDatabase refDatabase = git.getRefDatabase();
+      List<Ref> localRefs = refDatabase.getRefsByPrefix("refs/");
+      Map<String, Ref> remoteRefs = advertisedRefs(git, url);
+
+      int corrected = 0;
+      for (Ref localRef : localRefs) {
+        String remoteRef = remote.remoteRef(localRef.getName());
+        if (remoteRef == null) {
+          continue;
+        }
+        ReplicationStatus.Key key =
+            ReplicationStatus.Key.create(projectName, url, localRef.getName());
+        ReplicationStatus recorded = replicationStatusLoader.get(key);
+        if (recorded != null && recorded.when() >= now) {
+          continue;
+        }
+
+        ObjectId advertised = objectId(remoteRefs.get(remoteRef));
+        ObjectId local = objectId(localRef);
+        if (!Objects.equals(local, advertised)) {
+          // The ref may have been updated and replicated after it was read.
+          local = objectId(refDatabase.exactRef(localRef.getName()));
+        }
+        boolean replicated = advertised != null && advertised.equals(local);
+
+        if (replicated && (recorded == null || recorded.status() != SUCCEEDED)) {
+          record(key, recorded, SUCCEEDED, now, local);
+          corrected++;
+        } else if (!replicated && recorded != null && recorded.status() == SUCCEEDED) {
+          record(key, recorded, FAILED, now, null);
+          corrected++;
+        }
+      }
+      return corrected;
+    } catch (RepositoryNotFoundException e) {
+      logger.atFine().log("Project %s deleted during the reconciliation", projectName);
+      return 0;
+    }
+  }
+
+  private Map<String, Ref> advertisedRefs(Repository git, String remote) throws IOException {
+    URIish uri;
+    try {
+      uri = new URIish(remote);
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid remote URL " + remote, e);
+    }
+    try (Transport transport = Transport.open(git, uri)) {
+      transport.setTimeout(TRANSPORT_TIMEOUT_SEC);
+      try (FetchConnection connection = transport.openFetch()) {
+        return connection.getRefsMap();
+      }
+    }
+  }
+
+  private void record(
+      ReplicationStatus.Key key,
+      @Nullable ReplicationStatus recorded,
+      ReplicationStatus.ReplicationStatusResult result,
+      long now,
+      @Nullable ObjectId objectId) {
+    ReplicationStatus.ReplicationType type =
+        recorded != null ? recorded.type() : ReplicationStatus.ReplicationType.PUSH;
+    ReplicationStatus indexed =
+        replicationStatusIndex.put(
+            key,
+            ReplicationStatus.create(
+                type, result, now, objectId != null ? objectId.name() : null));
+    replicationStatusWriter.put(key, indexed);
+    metrics.reconciled(result);
+  }
+
+  @Nullable
+  private static ObjectId objectId(@Nullable Ref ref) {
+    return ref != null ? ref.getObjectId() : null;
+  }
+
+  /** Listing of the refs of a remote URL, to reconcile a project with. */
+  private static class Listing {
+    private final Project.NameKey projectName;
+    private final ReplicationRemotes.Remote remote;
+    private final String url;
+
+    private Listing(Project.NameKey projectName, ReplicationRemotes.Remote remote, String url) {
+      this.projectName = projectName;
+      this.remote = remote;
+      this.url = url;
+    }
+  }
+
+  /** A reconciliation, whose result completes once all its listings are done. */
+  private class Run {
+    private final ListeningExecutorService executor;
+    private final long now;
+    private final AtomicInteger remaining;
+    private final AtomicInteger corrected = new AtomicInteger();
+    private final SettableFuture<Integer> result = SettableFuture.create();
+
+    private Run(ListeningExecutorService executor, long now, int listings) {
+      this.executor = executor;
+      this.now = now;
+      this.remaining = new AtomicInteger(listings);
+    }
+
+    /**
+     * Runs the next listing of the queue of a remote URL, then submits the following one, behind
+     * the listings of the other remotes submitted meanwhile.
+     */
+    private void next(Queue<Listing> queue) {
+      Listing listing = queue.poll();
+      if (listing == null) {
+        return;
+      }
+      try {
+        executor.execute(
+            () -> {
+              try {
+                corrected.addAndGet(
+                    reconcile(listing.projectName, listing.remote, listing.url, now));
+              } catch (IOException | RuntimeException e) {
+                logger.atWarning().withCause(e).log(
+                    "Unable to reconcile the replication statuses of project %s with %s",
+                    listing.projectName, listing.url);
+              } finally {
+                if (remaining.decrementAndGet() == 0) {
+                  result.set(corrected.get());
+                } else {
+                  next(queue);
+                }
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        result.setException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.Response;
+import com.google.gerrit.extensions.restapi.RestReadView;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.inject.Inject;
+import java.io.IOException;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Returns the replication status of a single ref, looked up by key without walking the refs of the
+ * repository. A successful replication read from the store is reported out of date if the ref,
+ * looked up on its own, has been updated since: the indexed statuses are already marked out of date
+ * as the refs are updated, see {@link OutOfDateListener}.
+ */
+class ReplicationStatusRefAction implements RestReadView<ReplicationStatusRefResource> {
+  private final ReplicationStatusPermissions permissions;
+  private final GitRepositoryManager repoManager;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+
+  @Option(
+      name = "--check-exists",
+      aliases = {"-e"},
+      usage = "fail if the ref does not exist in the repository")
+  private boolean checkExists;
+
+  @Inject
+  ReplicationStatusRefAction(
+      ReplicationStatusPermissions permissions,
+      GitRepositoryManager repoManager,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader) {
+    this.permissions = permissions;
+    this.repoManager = repoManager;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+  }
+
+  @Override
+  public Response<ReplicationStatus> apply(ReplicationStatusRefResource resource)
+      throws AuthException, BadRequestException, ResourceNotFoundException, IOException {
+    Project.NameKey projectNameKey = resource.getRemote().getProjectNameKey();
+    permissions.checkIsOwnerOrAdmin(projectNameKey);
+
+    ReplicationStatus status = replicationStatusIndex.get(resource.getKey());
+    boolean compare = false;
+    if (status == null) {
+      status = replicationStatusLoader.get(resource.getKey());
+      compare = status != null && status.objectId() != null;
+    }
+    if (checkExists || compare) {
+      Ref ref = exactRef(projectNameKey, resource.getRef());
+      if (checkExists && ref == null) {
+        throw new ResourceNotFoundException(
+            String.format("Ref %s does not exist", resource.getRef()));
+      }
+      if (status != null) {
+        status = status.current(ref != null ? ref.getObjectId() : null);
+      }
+    }
+    if (status == null) {
+      throw new ResourceNotFoundException(
+          String.format("No replication status for %s", resource.getRef()));
+    }
+    return Response.ok(status);
+  }
+
+  @Nullable
+  private Ref exactRef(Project.NameKey projectNameKey, String ref)
+      throws BadRequestException, IOException {
+    try (Repository git = repoManager.openRepository(projectNameKey)) {
+      return git.exactRef(ref);
+    } catch (RepositoryNotFoundException e) {
+      throw new BadRequestException(
+          String.format("Project %s does not exist", projectNameKey.get()));
+    }
+  }
+}
@@ -0,0 +1,57 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.extensions.registration.DynamicMap;
+import com.google.gerrit.extensions.restapi.ChildCollection;
+import com.google.gerrit.extensions.restapi.IdString;
+import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
+import com.google.gerrit.extensions.restapi.RestView;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import org.eclipse.jgit.lib.Repository;
+
+@Singleton
+public class ReplicationStatusRefCollection
+    implements ChildCollection<
+        ReplicationStatusProjectRemoteResource, ReplicationStatusRefResource> {
+  private final DynamicMap<RestView<ReplicationStatusRefResource>> views;
+
+  @Inject
+  ReplicationStatusRefCollection(DynamicMap<RestView<ReplicationStatusRefResource>> views) {
+    this.views = views;
+  }
+
+  @Override
+  public RestView<ReplicationStatusProjectRemoteResource> list() throws ResourceNotFoundException {
+    throw new ResourceNotFoundException();
+  }
+
+  @Override
+  public ReplicationStatusRefResource parse(
+      ReplicationStatusProjectRemoteResource parent, IdString id)
+      throws ResourceNotFoundException {
+    String ref = id.get();
+    if (!Repository.isValidRefName(ref)) {
+      throw new ResourceNotFoundException(id);
+    }
+    return new ReplicationStatusRefResource(parent, ref);
+  }
+
+  @Override
+  public DynamicMap<RestView<ReplicationStatusRefResource>> views() {
+    return views;
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.inject.Singleton;
+import java.util.Optional;
+
+/**
+ * Last replication-status responses built for each project, remote and set of query options, kept
+ * until the statuses of the project and remote change.
+ */
+@Singleton
+class ReplicationStatusResponseCache {
+  private static final long MAX_RESPONSES = 1_000;
+
+  private final Cache<Key, Response> responses =
+      CacheBuilder.newBuilder().maximumSize(MAX_RESPONSES).build();
+
+  Optional<ProjectReplicationStatus> get(Key key, long generation) {
+    Response response = responses.getIfPresent(key);
+    if (response == null || response.generation() != generation) {
+      return Optional.empty();
+    }
+    return Optional.of(response.status());
+  }
+
+  void put(Key key, long generation, ProjectReplicationStatus status) {
+    responses.put(key, Response.create(generation, status));
+  }
+
+  @AutoValue
+  abstract static class Key {
+    static Key create(Project.NameKey projectName, String remote, String options) {
+      return new AutoValue_ReplicationStatusResponseCache_Key(projectName, remote, options);
+    }
+
+    abstract Project.NameKey projectName();
+
+    abstract String remote();
+
+    abstract String options();
+  }
+
+  @AutoValue
+  abstract static class Response {
+    static Response create(long generation, ProjectReplicationStatus status) {
+      return new AutoValue_ReplicationStatusResponseCache_Response(generation, status);
+    }
+
+    abstract long generation();
+
+    abstract ProjectReplicationStatus status();
+  }
+}
@@ -0,0 +1,205 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Exports the persisted replication statuses to a stream of {@link ReplicationStatusEntries}, and
+ * imports them back, e.g. when a node is rebuilt or migrated.
+ *
+ * <p>The persistent cache cannot list its entries, so the statuses are exported by looking them up
+ * for every ref of the projects, and for every remote either configured in the {@code
+ * replication.config} to host the project or known by the index. Both directions keep at most a
+ * few batches of statuses in memory, whatever the size of the store.
+ */
+@Singleton
+class ReplicationStatusSnapshot {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final ReplicationStatusStore replicationStatusStore;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+  private final ReplicationStatusConfig config;
+  private final ReplicationStatusMetrics metrics;
+  private final ReplicationRemotes replicationRemotes;
+  private final GitRepositoryManager repoManager;
+  private final WorkQueue workQueue;
+
+  @Inject
+  ReplicationStatusSnapshot(
+      ReplicationStatusStore replicationStatusStore,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader,
+      ReplicationStatusConfig config,
+      ReplicationStatusMetrics metrics,
+      ReplicationRemotes replicationRemotes,
+      GitRepositoryManager repoManager,
+      WorkQueue workQueue) {
+    this.replicationStatusStore = replicationStatusStore;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+    this.config = config;
+    this.metrics = metrics;
+    this.replicationRemotes = replicationRemotes;
+    this.repoManager = repoManager;
+    this.workQueue = workQueue;
+  }
+
+  /**
+   * Writes the statuses of the refs of the projects to the stream, one ref at a time. Returns the
+   * number of statuses written.
+   */
+  long export(Collection<Project.NameKey> projects, OutputStream out) throws IOException {
+    List<ReplicationRemotes.Remote> configured =
+        replicationRemotes.remotes().orElse(Collections.emptyList());
+    OutputStream buffered = new BufferedOutputStream(out);
+    long written = 0;
+    for (Project.NameKey projectName : projects) {
+      Set<String> remotes = new LinkedHashSet<>();
+      configured.forEach(remote -> remotes.addAll(remote.urls(projectName)));
+      remotes.addAll(replicationStatusIndex.remotes(projectName).keySet());
+      if (remotes.isEmpty()) {
+        continue;
+      }
+
+      List<Ref> refs;
+      try (Repository git = repoManager.openRepository(projectName)) {
+        refs = git.getRefDatabase().getRefs();
+      } catch (RepositoryNotFoundException e) {
+        logger.atFine().log("Project %s deleted during the export", projectName);
+        continue;
+      }
+      for (String remote : remotes) {
+        for (Ref ref : refs) {
+          ReplicationStatus.Key key =
+              ReplicationStatus.Key.create(projectName, remote, ref.getName());
+          ReplicationStatus status = replicationStatusLoader.get(key);
+          if (status != null) {
+            ReplicationStatusEntries.write(key, status, buffered);
+            written++;
+          }
+        }
+      }
+    }
+    buffered.flush();
+    return written;
+  }
+
+  /**
+   * Reads the statuses from the stream and persists them in batches written by parallel threads.
+   * The statuses of the projects and remotes loaded into the index are indexed as well. Statuses of
+   * newer events already indexed or persisted are kept. Returns the number of statuses read.
+   */
+  long restore(InputStream in, int threads) throws IOException, InterruptedException {
+    int batchSize = config.writeBatchSize();
+    Semaphore inFlight = new Semaphore(2 * threads);
+    AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    ScheduledExecutorService executor = workQueue.createQueue(threads, "ReplicationStatusImport");
+    try {
+      Map<ReplicationStatus.Key, ReplicationStatus> batch = new HashMap<>();
+      long read =
+          ReplicationStatusEntries.readAll(
+              new BufferedInputStream(in),
+              (key, status) -> {
+                batch.put(key, status);
+                if (batch.size() >= batchSize) {
+                  submit(executor, inFlight, failure, new HashMap<>(batch));
+                  batch.clear();
+                }
+              });
+      if (!batch.isEmpty()) {
+        submit(executor, inFlight, failure, batch);
+      }
+      inFlight.acquire(2 * threads);
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+      return read;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void submit(
+      ScheduledExecutorService executor,
+      Semaphore inFlight,
+      AtomicReference<RuntimeException> failure,
+      Map<ReplicationStatus.Key, ReplicationStatus> batch) {
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    inFlight.acquireUninterruptibly();
+    executor.execute(
+        () -> {
+          try {
+            write(batch);
+          } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+          } finally {
+            inFlight.release();
+          }
+        });
+  }
+
+  private void write(Map<ReplicationStatus.Key, ReplicationStatus> batch) {
+    Map<ReplicationStatus.Key, ReplicationStatus> statuses = new HashMap<>(batch.size());
+    batch.forEach(
+        (key, status) -> {
+          if (isIndexed(key)) {
+            statuses.put(key, replicationStatusIndex.put(key, status).persisted());
+            return;
+          }
+          // An event recorded since the export may have persisted a newer status.
+          ReplicationStatus persisted = replicationStatusStore.get(key);
+          ReplicationStatus latest = ReplicationStatus.latest(persisted, status);
+          if (latest != persisted) {
+            statuses.put(key, latest.persisted());
+          }
+        });
+    try (Timer0.Context ctx = metrics.startCacheWrite()) {
+      replicationStatusStore.putAll(statuses);
+    }
+  }
+
+  private boolean isIndexed(ReplicationStatus.Key key) {
+    return replicationStatusIndex.get(key) != null
+        || replicationStatusIndex.isLoaded(key.projectName(), key.remote());
+  }
+}
@@ -0,0 +1,51 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import java.util.Collection;
+import java.util.Map;
+
+/** Persistent storage of the replication statuses, by key. */
+interface ReplicationStatusStore {
+  /** Returns the status stored for the key, or null if none. */
+  @Nullable
+  ReplicationStatus get(ReplicationStatus.Key key);
+
+  void putAll(Map<ReplicationStatus.Key, ReplicationStatus> statuses);
+
+  void invalidateAll(Collection<ReplicationStatus.Key> keys);
+
+  /**
+   * Whether the statuses are cheap enough to read to be read from the store on every access, rather
+   * than loaded into the {@link ReplicationStatusIndex}.
+   */
+  default boolean isReadThrough() {
+    return false;
+  }
+
+  /**
+   * Removes the statuses of the deleted project, including those not known by key. Stores that
+   * evict on their own, like the cache, leave them to the eviction.
+   */
+  default void invalidateProject(Project.NameKey projectName) {}
+
+  /** Makes the statuses stored so far durable, called when the plugin stops. */
+  void flush();
+
+  /** Releases the files of the store, called when the plugin stops, once flushed. */
+  default void close() {}
+}
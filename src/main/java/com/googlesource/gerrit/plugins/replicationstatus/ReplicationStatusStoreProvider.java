@@ -0,0 +1,60 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.SitePaths;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.ProvisionException;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/** Provides the {@link ReplicationStatusStore} selected by the {@code storage} setting. */
+class ReplicationStatusStoreProvider implements Provider<ReplicationStatusStore> {
+  private final ReplicationStatusConfig config;
+  private final Provider<CacheReplicationStatusStore> cacheStore;
+  private final Path mappedStorageDirectory;
+
+  @Inject
+  ReplicationStatusStoreProvider(
+      ReplicationStatusConfig config,
+      Provider<CacheReplicationStatusStore> cacheStore,
+      SitePaths sitePaths,
+      @PluginName String pluginName) {
+    this.config = config;
+    this.cacheStore = cacheStore;
+    // Relative to the data directory of the plugin, unless absolute.
+    this.mappedStorageDirectory =
+        sitePaths.data_dir.resolve(pluginName).resolve(config.mappedStorageDirectory());
+  }
+
+  @Override
+  public ReplicationStatusStore get() {
+    switch (config.storage()) {
+      case MAPPED:
+        try {
+          return MappedReplicationStatusStore.open(
+              mappedStorageDirectory, config.mappedStorageCapacity());
+        } catch (IOException e) {
+          throw new ProvisionException(
+              "Unable to open the replication status store in " + mappedStorageDirectory, e);
+        }
+      case CACHE:
+      default:
+        return cacheStore.get();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Delivers the changes of replication status recorded by the {@link EventHandler} to the
+ * subscribers interested in them.
+ *
+ * <p>Every subscriber has its own bounded buffer: a subscriber not keeping up with the changes is
+ * dropped as soon as its buffer is full, so that it never slows down the event processing.
+ */
+@Singleton
+class ReplicationStatusStream {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+  private final int bufferSize;
+
+  @Inject
+  ReplicationStatusStream(ReplicationStatusConfig config) {
+    this.bufferSize = config.streamBufferSize();
+  }
+
+  /** Subscribes to the changes matching the filter, until the subscription is closed. */
+  Subscription subscribe(Predicate<ReplicationStatusChange> filter) {
+    return subscribe(filter, () -> {});
+  }
+
+  /**
+   * Subscribes to the changes matching the filter, until the subscription is closed. The listener
+   * is notified on the thread publishing the changes, every time one is buffered and once the
+   * subscriber is dropped: it must not block.
+   */
+  Subscription subscribe(Predicate<ReplicationStatusChange> filter, Runnable listener) {
+    Subscription subscription = new Subscription(filter, listener, bufferSize);
+    subscriptions.add(subscription);
+    return subscription;
+  }
+
+  /** Returns whether at least one subscriber is listening to the changes. */
+  boolean hasSubscribers() {
+    return !subscriptions.isEmpty();
+  }
+
+  void publish(ReplicationStatusChange change) {
+    for (Subscription subscription : subscriptions) {
+      if (!subscription.filter.test(change)) {
+        continue;
+      }
+      if (!subscription.changes.offer(change)) {
+        subscription.dropped = true;
+        subscriptions.remove(subscription);
+        logger.atWarning().log(
+            "Dropped a replication status stream subscriber: more than %d changes pending",
+            bufferSize);
+      }
+      subscription.listener.run();
+    }
+  }
+
+  class Subscription implements AutoCloseable {
+    private final Predicate<ReplicationStatusChange> filter;
+    private final Runnable listener;
+    private final BlockingQueue<ReplicationStatusChange> changes;
+    private volatile boolean dropped;
+
+    private Subscription(
+        Predicate<ReplicationStatusChange> filter, Runnable listener, int bufferSize) {
+      this.filter = filter;
+      this.listener = listener;
+      this.changes = new ArrayBlockingQueue<>(bufferSize);
+    }
+
+    /**
+     * Returns the next buffered change, or null if none. Once the subscriber has been dropped, the
+     * changes already buffered are still returned.
+     */
+    @Nullable
+    ReplicationStatusChange poll() {
+      return changes.poll();
+    }
+
+    /** Returns whether no change is buffered. */
+    boolean isEmpty() {
+      return changes.isEmpty();
+    }
+
+    /** Returns whether the subscriber has been dropped for not keeping up with the changes. */
+    boolean isDropped() {
+      return dropped;
+    }
+
+    @Override
+    public void close() {
+      subscriptions.remove(this);
+    }
+  }
+}
@@ -0,0 +1,239 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.restapi.AuthException;
+import com.google.gerrit.json.OutputFormat;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.sshd.BaseCommand;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gson.Gson;
+import com.google.inject.Inject;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Streams the changes of replication status to the client.
+ *
+ * <p>Like the {@code stream-events} command, the command returns from {@link #start} once
+ * subscribed, rather than holding an SSH command thread for as long as the client is connected: the
+ * changes are written by the {@link ReplicationStatusStreamExecutor}, shared by the subscribers.
+ * A subscriber is written at most {@link #FLUSH_BATCH_SIZE} changes at a time, then waits for its
+ * turn behind the other subscribers. A subscriber whose write blocks for more than {@link
+ * #WRITE_TIMEOUT_SEC} seconds, because its client does not read, is disconnected, which releases
+ * the thread writing to it.
+ */
+@CommandMetaData(
+    name = "stream",
+    description = "Stream the changes of replication status, one JSON object per line")
+class ReplicationStatusStreamCommand extends BaseCommand {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final int FLUSH_BATCH_SIZE = 100;
+  private static final int WRITE_TIMEOUT_SEC = 30;
+
+  @Inject private ReplicationStatusPermissions permissions;
+  @Inject private ReplicationStatusStream stream;
+  @Inject private ReplicationStatusStreamExecutor executor;
+  @Inject private WorkQueue workQueue;
+
+  @Option(
+      name = "--project",
+      aliases = {"-p"},
+      metaVar = "PROJECT",
+      usage = "only stream the changes of the given project, can be repeated")
+  private Set<String> projects = new HashSet<>();
+
+  @Option(
+      name = "--remote",
+      aliases = {"-r"},
+      metaVar = "URL",
+      usage = "only stream the changes of the given remote, can be repeated")
+  private Set<String> remotes = new HashSet<>();
+
+  @Option(
+      name = "--status",
+      aliases = {"-s"},
+      metaVar = "STATUS",
+      usage = "only stream the changes to the given status, can be repeated")
+  private Set<ReplicationStatus.ReplicationStatusResult> statuses =
+      EnumSet.noneOf(ReplicationStatus.ReplicationStatusResult.class);
+
+  private final Gson gson = OutputFormat.JSON_COMPACT.newGson();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  // Start of the write in progress, zero when not writing.
+  private volatile long writeStartNanos;
+  private PrintWriter stdout;
+  private ReplicationStatusStream.Subscription subscription;
+  private ScheduledFuture<?> stallCheck;
+  private volatile boolean done;
+
+  @Override
+  public void start(ChannelSession channel, Environment env) throws IOException {
+    try {
+      parseCommandLine();
+      checkPermissions();
+    } catch (UnloggedFailure e) {
+      fail(e.getMessage());
+      return;
+    }
+
+    stdout = toPrintWriter(out);
+    synchronized (this) {
+      subscription = stream.subscribe(filter(), this::schedule);
+      stallCheck =
+          workQueue
+              .getDefaultQueue()
+              .scheduleAtFixedRate(
+                  this::checkStalled, WRITE_TIMEOUT_SEC, WRITE_TIMEOUT_SEC, SECONDS);
+    }
+  }
+
+  @Override
+  public void destroy(ChannelSession channel) {
+    synchronized (this) {
+      done = true;
+      unsubscribe();
+    }
+    super.destroy(channel);
+  }
+
+  /** Called by the stream on the thread publishing the changes, and once a batch is written. */
+  private void schedule() {
+    if (!done && scheduled.compareAndSet(false, true)) {
+      executor.execute(this::flush);
+    }
+  }
+
+  /**
+   * Writes the next batch of changes. A single flush runs at a time, the changes buffered meanwhile
+   * are written by the next one.
+   */
+  private void flush() {
+    ReplicationStatusStream.Subscription subscription;
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      subscription = this.subscription;
+    }
+    // Not written within the lock, so that a blocked write does not prevent the disconnection.
+    writeStartNanos = System.nanoTime();
+    try {
+      for (int i = 0; i < FLUSH_BATCH_SIZE; i++) {
+        ReplicationStatusChange change = subscription.poll();
+        if (change == null) {
+          break;
+        }
+        stdout.println(gson.toJson(change));
+      }
+      stdout.flush();
+    } finally {
+      writeStartNanos = 0;
+    }
+    if (stdout.checkError()) {
+      logger.atFine().log("Replication status stream subscriber went away");
+      exit(0);
+      return;
+    }
+    if (subscription.isDropped() && subscription.isEmpty()) {
+      fail("fatal: too many changes pending, the stream has been dropped");
+      return;
+    }
+    scheduled.set(false);
+    if (!subscription.isEmpty()) {
+      schedule();
+    }
+  }
+
+  /** Disconnects the subscriber whose write has been blocked for too long. */
+  private void checkStalled() {
+    long start = writeStartNanos;
+    if (start != 0 && System.nanoTime() - start > SECONDS.toNanos(WRITE_TIMEOUT_SEC)) {
+      logger.atWarning().log(
+          "Dropped a replication status stream subscriber: blocked for more than %d seconds",
+          WRITE_TIMEOUT_SEC);
+      // Not reported on the error stream, whose write would block as well.
+      exit(1);
+    }
+  }
+
+  private void fail(String message) {
+    if (done) {
+      return;
+    }
+    writeStartNanos = System.nanoTime();
+    try {
+      err.write((message.endsWith("\n") ? message : message + "\n").getBytes(UTF_8));
+      err.flush();
+    } catch (IOException e) {
+      logger.atFine().withCause(e).log("Unable to report the failure of the stream");
+    } finally {
+      writeStartNanos = 0;
+    }
+    exit(1);
+  }
+
+  private synchronized void exit(int rc) {
+    if (done) {
+      return;
+    }
+    done = true;
+    unsubscribe();
+    onExit(rc);
+  }
+
+  private void unsubscribe() {
+    if (subscription != null) {
+      subscription.close();
+    }
+    if (stallCheck != null) {
+      stallCheck.cancel(false);
+    }
+  }
+
+  private void checkPermissions() throws UnloggedFailure {
+    try {
+      if (projects.isEmpty()) {
+        permissions.checkIsAdmin();
+      }
+      for (String project : projects) {
+        permissions.checkIsOwnerOrAdmin(Project.nameKey(project));
+      }
+    } catch (AuthException e) {
+      throw die(e.getMessage());
+    }
+  }
+
+  private Predicate<ReplicationStatusChange> filter() {
+    return change ->
+        (projects.isEmpty() || projects.contains(change.project()))
+            && (remotes.isEmpty() || remotes.contains(change.remote()))
+            && (statuses.isEmpty() || statuses.contains(change.status()));
+  }
+}
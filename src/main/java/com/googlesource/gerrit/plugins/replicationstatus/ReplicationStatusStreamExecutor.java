@@ -0,0 +1,57 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Writes the changes to the subscribers of the {@code stream} command, so that a subscriber does
+ * not hold an SSH command thread for as long as it is connected.
+ */
+@Singleton
+class ReplicationStatusStreamExecutor implements Executor, LifecycleListener {
+  private final ReplicationStatusConfig config;
+  private final WorkQueue workQueue;
+  private ScheduledExecutorService executor;
+
+  @Inject
+  ReplicationStatusStreamExecutor(ReplicationStatusConfig config, WorkQueue workQueue) {
+    this.config = config;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    executor = workQueue.createQueue(config.streamThreads(), "ReplicationStatusStream");
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    executor.execute(command);
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Loads the persisted statuses of all the projects into the index in the background, so that the
+ * REST endpoints do not need to read them from the persistent cache on first access.
+ *
+ * <p>The persistent cache cannot list its entries, so the statuses are looked up for every ref of
+ * every project, and for every remote URL configured in the {@code replication.config} to host the
+ * project. Only the remotes having statuses are indexed, see {@link ReplicationStatusIndex#load}.
+ * Requests for projects not loaded yet are still served, by loading them on demand. Nothing is
+ * loaded when the statuses are read from the store on every access, see {@link
+ * ReplicationStatusLoader#isReadThrough()}.
+ */
+@Singleton
+class ReplicationStatusWarmUp implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final int PROGRESS_LOG_INTERVAL_SEC = 30;
+
+  private final ReplicationStatusConfig config;
+  private final ReplicationStatusIndex replicationStatusIndex;
+  private final ReplicationStatusLoader replicationStatusLoader;
+  private final ReplicationRemotes replicationRemotes;
+  private final ProjectCache projectCache;
+  private final GitRepositoryManager repoManager;
+  private final WorkQueue workQueue;
+  private ScheduledExecutorService executor;
+  private ScheduledFuture<?> progressTask;
+  private volatile boolean complete;
+
+  @Inject
+  ReplicationStatusWarmUp(
+      ReplicationStatusConfig config,
+      ReplicationStatusIndex replicationStatusIndex,
+      ReplicationStatusLoader replicationStatusLoader,
+      ReplicationRemotes replicationRemotes,
+      ProjectCache projectCache,
+      GitRepositoryManager repoManager,
+      WorkQueue workQueue) {
+    this.config = config;
+    this.replicationStatusIndex = replicationStatusIndex;
+    this.replicationStatusLoader = replicationStatusLoader;
+    this.replicationRemotes = replicationRemotes;
+    this.projectCache = projectCache;
+    this.repoManager = repoManager;
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    if (config.warmUpThreads() <= 0) {
+      return;
+    }
+    if (replicationStatusLoader.isReadThrough()) {
+      logger.atInfo().log("Replication statuses read from the store, skipping the warm-up");
+      complete = true;
+      return;
+    }
+    Optional<List<ReplicationRemotes.Remote>> remotes = replicationRemotes.remotes();
+    if (!remotes.isPresent() || remotes.get().isEmpty()) {
+      logger.atInfo().log("No replication remote configured, skipping the warm-up");
+      complete = remotes.isPresent();
+      return;
+    }
+
+    Set<Project.NameKey> projects = projectCache.all();
+    if (projects.isEmpty()) {
+      complete = true;
+      return;
+    }
+    executor = workQueue.createQueue(config.warmUpThreads(), "ReplicationStatusWarmUp");
+    Stopwatch elapsed = Stopwatch.createStarted();
+    AtomicInteger done = new AtomicInteger();
+    ScheduledFuture<?> progress =
+        workQueue
+            .getDefaultQueue()
+            .scheduleAtFixedRate(
+                () ->
+                    logger.atInfo().log(
+                        "Loaded the replication statuses of %d/%d projects in %s",
+                        done.get(), projects.size(), elapsed),
+                PROGRESS_LOG_INTERVAL_SEC,
+                PROGRESS_LOG_INTERVAL_SEC,
+                SECONDS);
+    progressTask = progress;
+
+    logger.atInfo().log("Loading the replication statuses of %d projects", projects.size());
+    for (Project.NameKey projectName : projects) {
+      executor.execute(
+          () -> {
+            warmUp(projectName, remotes.get());
+            if (done.incrementAndGet() == projects.size()) {
+              complete = true;
+              progress.cancel(false);
+              logger.atInfo().log(
+                  "Loaded the replication statuses of %d projects in %s", projects.size(), elapsed);
+            }
+          });
+    }
+  }
+
+  /**
+   * Returns whether the persisted statuses of all the projects have been loaded for all the
+   * configured remotes. Always false when the warm-up is disabled.
+   */
+  boolean isComplete() {
+    return complete;
+  }
+
+  @Override
+  public void stop() {
+    if (progressTask != null) {
+      progressTask.cancel(false);
+      progressTask = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  private void warmUp(Project.NameKey projectName, List<ReplicationRemotes.Remote> configured) {
+    List<String> remotes =
+        configured.stream()
+            .flatMap(remote -> remote.urls(projectName).stream())
+            .distinct()
+            .filter(remote -> !replicationStatusIndex.isLoaded(projectName, remote))
+            .collect(Collectors.toList());
+    if (remotes.isEmpty()) {
+      return;
+    }
+
+    try (Repository git = repoManager.openRepository(projectName)) {
+      replicationStatusLoader.load(git, projectName, remotes);
+    } catch (RepositoryNotFoundException e) {
+      logger.atFine().log("Project %s deleted during the warm-up", projectName);
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log(
+          "Unable to load the replication statuses of project %s", projectName);
+    }
+  }
+}
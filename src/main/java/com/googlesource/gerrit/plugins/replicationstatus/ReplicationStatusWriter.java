@@ -0,0 +1,315 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.collect.Maps;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Timer0;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * Persists the replication statuses into the {@link ReplicationStatusStore}.
+ *
+ * <p>When asynchronous writes are enabled, the statuses are queued and written in batches by a
+ * dedicated thread, so that the event dispatch is not slowed down by the store. Updates
+ * of a key still waiting in the queue are coalesced, keeping the status of the newest event.
+ * Updates remain pending until the store has persisted them, see {@link #pending}, and batches
+ * the store fails to persist are queued again. Out of date statuses are persisted as succeeded,
+ * see {@link ReplicationStatus#persisted()}.
+ *
+ * <p>Stopping the writer waits for the updates being queued, and persists the queue. Updates
+ * received once stopped are written synchronously.
+ */
+@Singleton
+class ReplicationStatusWriter implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final int RETRY_DELAY_SEC = 1;
+
+  private final ReplicationStatusStore replicationStatusStore;
+  private final ReplicationStatusConfig config;
+  private final ReplicationStatusMetrics metrics;
+  private final ConcurrentMap<ReplicationStatus.Key, Optional<ReplicationStatus>> pending =
+      new ConcurrentHashMap<>();
+  private final BlockingQueue<ReplicationStatus.Key> queue = new LinkedBlockingQueue<>();
+  private final Semaphore capacity;
+  private final AtomicLong dropped = new AtomicLong();
+  // Held for reading while an update is queued, for writing while the writer stops.
+  private final ReadWriteLock lifecycle = new ReentrantReadWriteLock();
+
+  private volatile boolean running;
+  private Thread writerThread;
+
+  @Inject
+  ReplicationStatusWriter(
+      ReplicationStatusStore replicationStatusStore,
+      ReplicationStatusConfig config,
+      ReplicationStatusMetrics metrics) {
+    this.replicationStatusStore = replicationStatusStore;
+    this.config = config;
+    this.metrics = metrics;
+    this.capacity = new Semaphore(config.writeQueueSize());
+  }
+
+  @Override
+  public void start() {
+    if (config.asyncWrites()) {
+      running = true;
+      writerThread = new Thread(this::run, "ReplicationStatusWriter");
+      writerThread.setDaemon(true);
+      writerThread.start();
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (writerThread != null) {
+      // Updates being queued complete first, later ones are written synchronously once the queue
+      // has been persisted.
+      lifecycle.writeLock().lock();
+      try {
+        running = false;
+        try {
+          writerThread.join(SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        writerThread = null;
+        flush();
+      } finally {
+        lifecycle.writeLock().unlock();
+      }
+    }
+    replicationStatusStore.flush();
+    replicationStatusStore.close();
+  }
+
+  void put(ReplicationStatus.Key key, ReplicationStatus update) {
+    ReplicationStatus status = update.persisted();
+    if (enqueue(
+        key, queued -> Optional.of(ReplicationStatus.latest(queued.orElse(null), status)))) {
+      return;
+    }
+    try (Timer0.Context ctx = metrics.startCacheWrite()) {
+      replicationStatusStore.putAll(Collections.singletonMap(key, status));
+    }
+  }
+
+  void putAll(Map<ReplicationStatus.Key, ReplicationStatus> statuses) {
+    lifecycle.readLock().lock();
+    try {
+      if (running) {
+        statuses.forEach(
+            (key, status) ->
+                enqueueRunning(
+                    key,
+                    queued ->
+                        Optional.of(
+                            ReplicationStatus.latest(queued.orElse(null), status.persisted()))));
+        return;
+      }
+    } finally {
+      lifecycle.readLock().unlock();
+    }
+    try (Timer0.Context ctx = metrics.startCacheWrite()) {
+      replicationStatusStore.putAll(Maps.transformValues(statuses, ReplicationStatus::persisted));
+    }
+  }
+
+  void invalidate(ReplicationStatus.Key key) {
+    if (!enqueue(key, queued -> Optional.empty())) {
+      replicationStatusStore.invalidateAll(Collections.singletonList(key));
+    }
+  }
+
+  /**
+   * Queues the update of the key, unless the writer is not running. Returns whether the update has
+   * been queued or dropped because the queue is full.
+   */
+  private boolean enqueue(
+      ReplicationStatus.Key key, UnaryOperator<Optional<ReplicationStatus>> update) {
+    lifecycle.readLock().lock();
+    try {
+      if (!running) {
+        return false;
+      }
+      enqueueRunning(key, update);
+      return true;
+    } finally {
+      lifecycle.readLock().unlock();
+    }
+  }
+
+  private void enqueueRunning(
+      ReplicationStatus.Key key, UnaryOperator<Optional<ReplicationStatus>> update) {
+    if (pending.computeIfPresent(key, (k, queued) -> update.apply(queued)) != null) {
+      return;
+    }
+    if (!acquire()) {
+      long total = dropped.incrementAndGet();
+      logger.atWarning().atMostEvery(1, MINUTES).log(
+          "Replication status write queue is full, %d updates not persisted so far", total);
+      return;
+    }
+
+    boolean[] inserted = {false};
+    pending.compute(
+        key,
+        (k, queued) -> {
+          if (queued == null) {
+            inserted[0] = true;
+            return update.apply(Optional.empty());
+          }
+          return update.apply(queued);
+        });
+    if (inserted[0]) {
+      queue.add(key);
+    } else {
+      capacity.release();
+    }
+  }
+
+  /** Returns the number of updates waiting to be persisted. */
+  int pendingCount() {
+    return pending.size();
+  }
+
+  /**
+   * Returns the update of the key waiting to be persisted, empty if the status of the key is being
+   * removed, or null if the key has no update pending.
+   */
+  @Nullable
+  Optional<ReplicationStatus> pending(ReplicationStatus.Key key) {
+    return pending.get(key);
+  }
+
+  private boolean acquire() {
+    if (config.writeQueueFullPolicy() == ReplicationStatusConfig.WriteQueueFullPolicy.DROP) {
+      return capacity.tryAcquire();
+    }
+    capacity.acquireUninterruptibly();
+    return true;
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        ReplicationStatus.Key first = queue.poll(1, SECONDS);
+        if (first != null) {
+          List<ReplicationStatus.Key> batch = new ArrayList<>(config.writeBatchSize());
+          batch.add(first);
+          queue.drainTo(batch, config.writeBatchSize() - 1);
+          write(batch);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (RuntimeException e) {
+        logger.atSevere().withCause(e).atMostEvery(1, MINUTES).log(
+            "Unable to persist replication statuses, retrying");
+        if (!pause()) {
+          return;
+        }
+      }
+    }
+  }
+
+  private boolean pause() {
+    try {
+      SECONDS.sleep(RETRY_DELAY_SEC);
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private void flush() {
+    List<ReplicationStatus.Key> remaining = new ArrayList<>();
+    queue.drainTo(remaining);
+    try {
+      write(remaining);
+    } catch (RuntimeException e) {
+      logger.atSevere().withCause(e).log(
+          "Unable to persist %d replication statuses on stop", pending.size());
+    }
+  }
+
+  /**
+   * Persists the pending updates of the keys, and queues them again if the store fails. The updates
+   * remain pending until persisted, so that they are read from the writer in the meantime.
+   */
+  private void write(List<ReplicationStatus.Key> keys) {
+    Map<ReplicationStatus.Key, Optional<ReplicationStatus>> updates = new HashMap<>();
+    for (ReplicationStatus.Key key : keys) {
+      Optional<ReplicationStatus> update = pending.get(key);
+      if (update == null) {
+        capacity.release();
+      } else {
+        updates.put(key, update);
+      }
+    }
+
+    Map<ReplicationStatus.Key, ReplicationStatus> puts = new HashMap<>();
+    List<ReplicationStatus.Key> invalidations = new ArrayList<>();
+    updates.forEach(
+        (key, update) -> {
+          if (update.isPresent()) {
+            puts.put(key, update.get());
+          } else {
+            invalidations.add(key);
+          }
+        });
+    try (Timer0.Context ctx = metrics.startCacheWrite()) {
+      replicationStatusStore.putAll(puts);
+      replicationStatusStore.invalidateAll(invalidations);
+    } catch (RuntimeException e) {
+      // Still pending, possibly coalesced with newer updates, they keep their queue capacity.
+      queue.addAll(updates.keySet());
+      throw e;
+    }
+    updates.forEach(this::persisted);
+  }
+
+  /** Releases a persisted update, unless the key has been updated since, which is queued again. */
+  private void persisted(ReplicationStatus.Key key, Optional<ReplicationStatus> update) {
+    if (pending.remove(key, update)) {
+      capacity.release();
+    } else {
+      // The newer update keeps the queue capacity it was holding.
+      queue.add(key);
+    }
+  }
+}
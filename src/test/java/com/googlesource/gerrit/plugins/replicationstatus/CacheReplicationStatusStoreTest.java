@@ -0,0 +1,79 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Project;
+import org.junit.Test;
+
+public class CacheReplicationStatusStoreTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("some/project");
+  private static final String REMOTE = "ssh://some.remote/some/project.git";
+
+  private final Cache<ReplicationStatus.Key, ReplicationStatus> cache =
+      CacheBuilder.newBuilder().build();
+  private final CacheReplicationStatusStore store = new CacheReplicationStatusStore(cache);
+
+  @Test
+  public void shouldMoveChangeRefStatusPersistedByName() {
+    ReplicationStatus.Key key = key("refs/changes/34/1234/5");
+    cache.put(key.changeRefByNameKey(), status(1L));
+
+    assertThat(store.get(key)).isEqualTo(status(1L));
+    assertThat(cache.asMap()).containsExactly(key, status(1L));
+  }
+
+  @Test
+  public void shouldKeepNewerStatusThanPersistedByName() {
+    ReplicationStatus.Key key = key("refs/changes/34/1234/meta");
+    store.putAll(ImmutableMap.of(key, status(2L)));
+    cache.put(key.changeRefByNameKey(), status(1L));
+
+    assertThat(store.get(key)).isEqualTo(status(2L));
+  }
+
+  @Test
+  public void shouldInvalidateChangeRefStatusPersistedByName() {
+    ReplicationStatus.Key key = key("refs/changes/34/1234/5");
+    cache.put(key.changeRefByNameKey(), status(1L));
+
+    store.invalidateAll(ImmutableList.of(key));
+
+    assertThat(store.get(key)).isNull();
+    assertThat(cache.asMap()).isEmpty();
+  }
+
+  @Test
+  public void shouldNotLookUpOtherRefsByName() {
+    assertThat(key("refs/heads/master").changeRefByNameKey()).isNull();
+    assertThat(store.get(key("refs/heads/master"))).isNull();
+  }
+
+  private static ReplicationStatus.Key key(String ref) {
+    return ReplicationStatus.Key.create(PROJECT, REMOTE, ref);
+  }
+
+  private static ReplicationStatus status(long when) {
+    return ReplicationStatus.create(
+        ReplicationStatus.ReplicationType.PUSH,
+        ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+        when);
+  }
+}
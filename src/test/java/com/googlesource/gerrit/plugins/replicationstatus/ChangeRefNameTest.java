@@ -0,0 +1,74 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class ChangeRefNameTest {
+
+  @Test
+  public void shouldRoundTripChangeRefs() {
+    for (String ref :
+        new String[] {
+          "refs/changes/01/1/1",
+          "refs/changes/01/1/meta",
+          "refs/changes/00/100/42",
+          "refs/changes/34/1234/5",
+          "refs/changes/47/2147483647/2147483647",
+        }) {
+      long encoded = ChangeRefName.encode(ref);
+
+      assertThat(encoded).isNotEqualTo(ChangeRefName.NONE);
+      assertThat(ChangeRefName.decode(encoded)).isEqualTo(ref);
+    }
+  }
+
+  @Test
+  public void shouldExposeChangeAndPatchSet() {
+    long encoded = ChangeRefName.encode("refs/changes/34/1234/5");
+
+    assertThat(ChangeRefName.change(encoded)).isEqualTo(1234);
+    assertThat(ChangeRefName.patchSet(encoded)).isEqualTo(5);
+    assertThat(ChangeRefName.patchSet(ChangeRefName.encode("refs/changes/34/1234/meta")))
+        .isEqualTo(0);
+  }
+
+  @Test
+  public void shouldNotEncodeOtherRefs() {
+    for (String ref :
+        new String[] {
+          "refs/heads/master",
+          "refs/changes/",
+          "refs/changes/34",
+          "refs/changes/34/1234",
+          "refs/changes/34/1234/",
+          "refs/changes/35/1234/5",
+          "refs/changes/4/1234/5",
+          "refs/changes/34/01234/5",
+          "refs/changes/34/1234/05",
+          "refs/changes/34/1234/0",
+          "refs/changes/00/0/1",
+          "refs/changes/34/1234/5/6",
+          "refs/changes/34/1234/robot-comments",
+          "refs/changes/34/1234/metadata",
+          "refs/changes/48/2147483648/1",
+          "refs/changes/34/1234/2147483648",
+        }) {
+      assertThat(ChangeRefName.encode(ref)).isEqualTo(ChangeRefName.NONE);
+    }
+  }
+}
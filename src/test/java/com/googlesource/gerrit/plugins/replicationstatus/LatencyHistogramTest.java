@@ -0,0 +1,63 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Range;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldReportZeroWhenEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertThat(histogram.count()).isEqualTo(0);
+    assertThat(histogram.percentile(50)).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldReportSmallValuesExactly() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 4; i++) {
+      histogram.record(i);
+    }
+
+    assertThat(histogram.count()).isEqualTo(4);
+    assertThat(histogram.percentile(50)).isEqualTo(2);
+    assertThat(histogram.percentile(99)).isEqualTo(4);
+  }
+
+  @Test
+  public void shouldReportPercentilesWithinRelativeError() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long i = 1; i <= 10_000; i++) {
+      histogram.record(i);
+    }
+
+    assertThat(histogram.percentile(50)).isIn(Range.closed(5_000L, 5_625L));
+    assertThat(histogram.percentile(95)).isIn(Range.closed(9_500L, 10_688L));
+    assertThat(histogram.percentile(99)).isIn(Range.closed(9_900L, 11_138L));
+  }
+
+  @Test
+  public void shouldRecordNegativeValuesAsZero() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-10);
+
+    assertThat(histogram.percentile(50)).isEqualTo(0);
+  }
+}
@@ -0,0 +1,237 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Project;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedReplicationStatusStoreTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("some/project");
+  private static final String REMOTE = "ssh://some.remote/some/project.git";
+  private static final String OBJECT_ID = "2ba9a5549264758bdb9395e94a283e876de528d3";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void shouldStoreStatuses() throws Exception {
+    MappedReplicationStatusStore store = open(16);
+    ReplicationStatus.Key master = key("refs/heads/master");
+    ReplicationStatus.Key stable = key("refs/heads/stable");
+
+    store.putAll(ImmutableMap.of(master, status(1L), stable, status(2L)));
+    store.putAll(ImmutableMap.of(master, status(3L)));
+
+    assertThat(store.get(master)).isEqualTo(status(3L));
+    assertThat(store.get(stable)).isEqualTo(status(2L));
+    assertThat(store.get(key("refs/heads/unknown"))).isNull();
+    assertThat(
+            store.get(ReplicationStatus.Key.create(PROJECT, "ssh://other", "refs/heads/master")))
+        .isNull();
+    assertThat(store.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void shouldStoreChangeRefsAlongsideOtherRefs() throws Exception {
+    MappedReplicationStatusStore store = open(16);
+    ReplicationStatus.Key patchSet = key("refs/changes/34/1234/5");
+    ReplicationStatus.Key meta = key("refs/changes/34/1234/meta");
+    ReplicationStatus.Key nonCanonical = key("refs/changes/34/1234/05");
+    store.putAll(ImmutableMap.of(patchSet, status(1L), meta, status(2L), nonCanonical, status(3L)));
+
+    assertThat(store.get(patchSet)).isEqualTo(status(1L));
+    assertThat(store.get(meta)).isEqualTo(status(2L));
+    assertThat(store.get(nonCanonical)).isEqualTo(status(3L));
+    assertThat(store.get(key("refs/changes/34/1234/6"))).isNull();
+  }
+
+  @Test
+  public void shouldStoreReplicatedObjectIds() throws Exception {
+    MappedReplicationStatusStore store = open(16);
+    ReplicationStatus replicated =
+        ReplicationStatus.create(
+            ReplicationStatus.ReplicationType.PUSH,
+            ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+            1L,
+            OBJECT_ID);
+    store.putAll(ImmutableMap.of(key("refs/heads/master"), replicated));
+    store.putAll(ImmutableMap.of(key("refs/heads/master"), status(2L)));
+    store.putAll(ImmutableMap.of(key("refs/heads/stable"), replicated));
+
+    assertThat(store.get(key("refs/heads/master"))).isEqualTo(status(2L));
+    assertThat(store.get(key("refs/heads/stable"))).isEqualTo(replicated);
+  }
+
+  @Test
+  public void shouldInvalidateStatuses() throws Exception {
+    MappedReplicationStatusStore store = open(16);
+    ReplicationStatus.Key master = key("refs/heads/master");
+    ReplicationStatus.Key stable = key("refs/heads/stable");
+    store.putAll(ImmutableMap.of(master, status(1L), stable, status(2L)));
+
+    store.invalidateAll(ImmutableList.of(master));
+
+    assertThat(store.get(master)).isNull();
+    assertThat(store.get(stable)).isEqualTo(status(2L));
+    assertThat(store.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldInvalidateStatusesOfDeletedProject() throws Exception {
+    MappedReplicationStatusStore store = open(16);
+    ReplicationStatus.Key master = key("refs/heads/master");
+    ReplicationStatus.Key otherMaster =
+        ReplicationStatus.Key.create(Project.nameKey("other/project"), REMOTE, "refs/heads/master");
+    ReplicationStatus.Key patchSet = key("refs/changes/34/1234/5");
+    store.putAll(
+        ImmutableMap.of(master, status(1L), patchSet, status(2L), otherMaster, status(3L)));
+
+    store.invalidateProject(PROJECT);
+
+    assertThat(store.get(master)).isNull();
+    assertThat(store.get(patchSet)).isNull();
+    assertThat(store.get(otherMaster)).isEqualTo(status(3L));
+    assertThat(store.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void shouldCompactOnceInvalidatedStatusesPileUp() throws Exception {
+    MappedReplicationStatusStore store = open(16);
+    List<ReplicationStatus.Key> keys = new ArrayList<>();
+    Map<ReplicationStatus.Key, ReplicationStatus> statuses = new HashMap<>();
+    for (int i = 0; i < 12; i++) {
+      keys.add(key("refs/heads/branch-" + i));
+      statuses.put(keys.get(i), status(i));
+    }
+    store.putAll(statuses);
+    long refsSize = Files.size(directory().resolve("refs"));
+
+    store.invalidateAll(keys.subList(0, 8));
+
+    assertThat(Files.size(directory().resolve("refs"))).isLessThan(refsSize);
+    assertThat(store.size()).isEqualTo(4);
+    for (int i = 0; i < keys.size(); i++) {
+      assertThat(store.get(keys.get(i))).isEqualTo(i < 8 ? null : status(i));
+    }
+    store.flush();
+    MappedReplicationStatusStore reopened = open(16);
+    for (int i = 8; i < keys.size(); i++) {
+      assertThat(reopened.get(keys.get(i))).isEqualTo(status(i));
+    }
+  }
+
+  @Test
+  public void shouldReuseRoomOfInvalidatedStatusesOnceFull() throws Exception {
+    MappedReplicationStatusStore store = open(16);
+    for (int i = 0; i < 14; i++) {
+      store.putAll(ImmutableMap.of(key("refs/heads/branch-" + i), status(i)));
+    }
+    // Too few to be compacted right away, the tombstones are reclaimed by the next statuses.
+    store.invalidateAll(
+        ImmutableList.of(
+            key("refs/heads/branch-0"), key("refs/heads/branch-1"), key("refs/heads/branch-2")));
+    for (int i = 14; i < 17; i++) {
+      store.putAll(ImmutableMap.of(key("refs/heads/branch-" + i), status(i)));
+    }
+
+    assertThat(store.size()).isEqualTo(14);
+    for (int i = 3; i < 17; i++) {
+      assertThat(store.get(key("refs/heads/branch-" + i))).isEqualTo(status(i));
+    }
+  }
+
+  @Test
+  public void shouldNotUpdateStatusesOnceClosed() throws Exception {
+    ReplicationStatus.Key master = key("refs/heads/master");
+    MappedReplicationStatusStore store = open(16);
+    store.putAll(ImmutableMap.of(master, status(1L)));
+
+    store.close();
+    store.putAll(ImmutableMap.of(master, status(2L)));
+    store.invalidateAll(ImmutableList.of(master));
+
+    assertThat(store.get(master)).isNull();
+    assertThat(open(16).get(master)).isEqualTo(status(1L));
+  }
+
+  @Test
+  public void shouldKeepStatusesAcrossRestarts() throws Exception {
+    Map<ReplicationStatus.Key, ReplicationStatus> statuses = new HashMap<>();
+    for (int i = 0; i < 100; i++) {
+      statuses.put(key("refs/changes/" + i + "/1"), status(i));
+    }
+    MappedReplicationStatusStore store = open(128);
+    store.putAll(statuses);
+    store.flush();
+
+    MappedReplicationStatusStore reopened = open(128);
+
+    assertThat(reopened.size()).isEqualTo(100);
+    statuses.forEach((key, status) -> assertThat(reopened.get(key)).isEqualTo(status));
+  }
+
+  @Test
+  public void shouldDiscardStatusesWhenCapacityChanges() throws Exception {
+    ReplicationStatus.Key master = key("refs/heads/master");
+    open(16).putAll(ImmutableMap.of(master, status(1L)));
+
+    MappedReplicationStatusStore resized = open(32);
+
+    assertThat(resized.get(master)).isNull();
+    assertThat(resized.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldNotStoreMoreStatusesThanCapacityAllows() throws Exception {
+    MappedReplicationStatusStore store = open(10);
+    for (int i = 0; i < 20; i++) {
+      store.putAll(ImmutableMap.of(key("refs/changes/" + i + "/1"), status(i)));
+    }
+
+    assertThat(store.size()).isEqualTo(9);
+    assertThat(store.get(key("refs/changes/0/1"))).isEqualTo(status(0));
+    assertThat(store.get(key("refs/changes/19/1"))).isNull();
+  }
+
+  private MappedReplicationStatusStore open(long capacity) throws Exception {
+    return MappedReplicationStatusStore.open(directory(), capacity);
+  }
+
+  private Path directory() {
+    return temporaryFolder.getRoot().toPath().resolve("store");
+  }
+
+  private static ReplicationStatus.Key key(String ref) {
+    return ReplicationStatus.Key.create(PROJECT, REMOTE, ref);
+  }
+
+  private static ReplicationStatus status(long when) {
+    return ReplicationStatus.create(
+        ReplicationStatus.ReplicationType.PUSH,
+        ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+        when);
+  }
+}
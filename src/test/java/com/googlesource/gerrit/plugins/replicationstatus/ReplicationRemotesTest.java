@@ -0,0 +1,85 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gerrit.server.config.SitePaths;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplicationRemotesTest {
+  @Rule public TemporaryFolder site = new TemporaryFolder();
+
+  private Path etc;
+  private ReplicationRemotes replicationRemotes;
+
+  @Before
+  public void setUp() throws Exception {
+    SitePaths sitePaths = new SitePaths(site.getRoot().toPath());
+    etc = Files.createDirectories(sitePaths.etc_dir);
+    replicationRemotes = new ReplicationRemotes(sitePaths);
+  }
+
+  @Test
+  public void shouldNotParseUnchangedConfigurationAgain() throws Exception {
+    write(etc.resolve("replication.config"), "[remote \"a\"]\n  url = ssh://a/${name}.git\n", 10);
+
+    List<ReplicationRemotes.Remote> remotes = replicationRemotes.remotes().get();
+
+    assertThat(replicationRemotes.remotes().get()).isSameInstanceAs(remotes);
+  }
+
+  @Test
+  public void shouldParseChangedConfigurationAgain() throws Exception {
+    Path config = etc.resolve("replication.config");
+    write(config, "[remote \"a\"]\n  url = ssh://a/${name}.git\n", 10);
+    assertThat(replicationRemotes.urls().get()).containsExactly("ssh://a/${name}.git");
+
+    write(config, "[remote \"b\"]\n  url = ssh://b/${name}.git\n", 5);
+
+    assertThat(replicationRemotes.urls().get()).containsExactly("ssh://b/${name}.git");
+  }
+
+  @Test
+  public void shouldParseFanOutFilesAdded() throws Exception {
+    Path configDir = Files.createDirectories(etc.resolve("replication"));
+    Files.setLastModifiedTime(configDir, secondsAgo(10));
+    assertThat(replicationRemotes.urls().get()).isEmpty();
+
+    write(configDir.resolve("b.config"), "[remote]\n  url = ssh://b/${name}.git\n", 10);
+
+    assertThat(replicationRemotes.urls().get()).containsExactly("ssh://b/${name}.git");
+  }
+
+  /** Writes the file as modified some time ago, so that its changes are not racily missed. */
+  private static void write(Path file, String content, int secondsAgo) throws Exception {
+    Files.write(file, content.getBytes(UTF_8));
+    Files.setLastModifiedTime(file, secondsAgo(secondsAgo));
+  }
+
+  private static FileTime secondsAgo(int seconds) {
+    return FileTime.from(Instant.now().minus(Duration.ofSeconds(seconds)));
+  }
+}
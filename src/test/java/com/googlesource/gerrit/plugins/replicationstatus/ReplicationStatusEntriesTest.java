@@ -0,0 +1,83 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import com.googlesource.gerrit.plugins.replicationstatus.proto.Cache.ReplicationStatusEntryProto;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class ReplicationStatusEntriesTest {
+  private static final ReplicationStatus SUCCEEDED =
+      ReplicationStatus.create(
+          ReplicationStatus.ReplicationType.PUSH,
+          ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+          1626688830L);
+  private static final ReplicationStatus FAILED =
+      ReplicationStatus.create(
+          ReplicationStatus.ReplicationType.PULL,
+          ReplicationStatus.ReplicationStatusResult.FAILED,
+          1626688831L);
+
+  @Test
+  public void shouldWriteLengthDelimitedEntries() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ReplicationStatusEntries.write("refs/heads/master", SUCCEEDED, out);
+    ReplicationStatusEntries.write("refs/changes/34/1234/meta", FAILED, out);
+
+    InputStream in = new ByteArrayInputStream(out.toByteArray());
+    ReplicationStatusEntryProto master = ReplicationStatusEntryProto.parseDelimitedFrom(in);
+    ReplicationStatusEntryProto change = ReplicationStatusEntryProto.parseDelimitedFrom(in);
+
+    assertThat(ReplicationStatus.Key.Serializer.ref(master.getKey()))
+        .isEqualTo("refs/heads/master");
+    assertThat(ReplicationStatus.Serializer.fromProto(master.getStatus())).isEqualTo(SUCCEEDED);
+    assertThat(ReplicationStatus.Key.Serializer.ref(change.getKey()))
+        .isEqualTo("refs/changes/34/1234/meta");
+    assertThat(ReplicationStatus.Serializer.fromProto(change.getStatus())).isEqualTo(FAILED);
+    assertThat(master.getKey().getProject()).isEmpty();
+    assertThat(master.getKey().getRemote()).isEmpty();
+    assertThat(ReplicationStatusEntryProto.parseDelimitedFrom(in)).isNull();
+  }
+
+  @Test
+  public void shouldReadBackEntriesWrittenWithTheirKey() throws Exception {
+    Map<ReplicationStatus.Key, ReplicationStatus> statuses = new LinkedHashMap<>();
+    statuses.put(
+        ReplicationStatus.Key.create(Project.nameKey("foo"), "ssh://remote", "refs/heads/master"),
+        SUCCEEDED);
+    statuses.put(
+        ReplicationStatus.Key.create(
+            Project.nameKey("bar"), "ssh://remote", "refs/changes/34/1234/2"),
+        FAILED);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (Map.Entry<ReplicationStatus.Key, ReplicationStatus> e : statuses.entrySet()) {
+      ReplicationStatusEntries.write(e.getKey(), e.getValue(), out);
+    }
+
+    Map<ReplicationStatus.Key, ReplicationStatus> read = new LinkedHashMap<>();
+    long count =
+        ReplicationStatusEntries.readAll(new ByteArrayInputStream(out.toByteArray()), read::put);
+
+    assertThat(count).isEqualTo(2);
+    assertThat(read).containsExactlyEntriesIn(statuses).inOrder();
+  }
+}
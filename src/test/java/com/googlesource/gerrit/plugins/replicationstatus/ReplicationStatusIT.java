@@ -20,9 +20,14 @@ import static com.google.gerrit.extensions.restapi.Url.encode;
 import static com.googlesource.gerrit.plugins.replication.ReplicationState.RefPushResult;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationType.PULL;
 import static com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationType.PUSH;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HttpHeaders;
 import com.google.gerrit.acceptance.LightweightPluginDaemonTest;
+import com.google.gerrit.acceptance.PushOneCommit;
 import com.google.gerrit.acceptance.RestResponse;
 import com.google.gerrit.acceptance.TestAccount;
 import com.google.gerrit.acceptance.TestPlugin;
@@ -31,23 +36,44 @@ import com.google.gerrit.acceptance.testsuite.project.ProjectOperations;
 import com.google.gerrit.common.Nullable;
 import com.google.gerrit.entities.AccessSection;
 import com.google.gerrit.entities.AccountGroup;
+import com.google.gerrit.entities.Change;
 import com.google.gerrit.entities.Permission;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.entities.RefNames;
 import com.google.gerrit.extensions.api.groups.GroupInput;
+import com.google.gerrit.extensions.api.projects.BranchInput;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.httpd.restapi.RestApiServlet;
 import com.google.gerrit.server.config.SitePaths;
+import com.google.gerrit.server.events.Event;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 import com.google.inject.Inject;
 import com.googlesource.gerrit.plugins.replication.events.RefReplicatedEvent;
 import com.googlesource.gerrit.plugins.replication.events.RemoteRefReplicationEvent;
 import com.googlesource.gerrit.plugins.replication.events.ReplicationScheduledEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.http.message.BasicHeader;
+import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteRefUpdate;
 import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -57,6 +83,10 @@ import org.junit.Test;
 public class ReplicationStatusIT extends LightweightPluginDaemonTest {
   private static final String REF_MASTER = Constants.R_HEADS + Constants.MASTER;
   private static final String REMOTE = "ssh://some.remote.host";
+  private static final String HEALTH_ENDPOINT =
+      "/config/server/replication-status~replication-health";
+  private static final String BULK_ENDPOINT =
+      "/config/server/replication-status~replication-status";
 
   private static final Gson gson = newGson();
 
@@ -204,6 +234,747 @@ public class ReplicationStatusIT extends LightweightPluginDaemonTest {
         .isEqualTo(scheduledReplicationStatus(PULL, REMOTE, project, eventCreatedOn));
   }
 
+  @Test
+  public void shouldReturnStatusRecordedAfterPreviousQuery() throws Exception {
+    adminRestSession.get(endpoint(project, REMOTE)).assertOK();
+
+    long eventCreatedOn = System.currentTimeMillis();
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(successReplicationStatus(PUSH, REMOTE, project, eventCreatedOn));
+  }
+
+  @Test
+  public void shouldFilterReplicationStatusByPrefix() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, "refs/changes/01/1/1", REMOTE));
+    RestResponse result =
+        adminRestSession.get(endpoint(project, REMOTE) + "?prefix=" + encode(Constants.R_HEADS));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(successReplicationStatus(PUSH, REMOTE, project, eventCreatedOn));
+  }
+
+  @Test
+  public void shouldFilterReplicationStatusByStatus() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(failedReplicatedEvent(null, eventCreatedOn, REMOTE));
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, "refs/changes/01/1/1", REMOTE));
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE) + "?status=FAILED");
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(failedReplicationStatus(PUSH, REMOTE, project, eventCreatedOn));
+  }
+
+  @Test
+  public void shouldPaginateReplicationStatus() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, "refs/changes/01/1/1", REMOTE));
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE) + "?start=1&limit=1");
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(successReplicationStatus(PUSH, REMOTE, project, eventCreatedOn));
+  }
+
+  @Test
+  public void shouldStreamReplicationStatusAsJson() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(failedReplicatedEvent(null, eventCreatedOn, REMOTE));
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, "refs/changes/01/1/1", REMOTE));
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, "refs/changes/02/2/1", REMOTE));
+
+    for (String options : ImmutableList.of("", "&limit=1", "&start=1", "&start=1&limit=1")) {
+      RestResponse buffered = adminRestSession.get(endpoint(project, REMOTE) + "?" + options);
+      RestResponse streamed =
+          adminRestSession.get(endpoint(project, REMOTE) + "?format=JSON_STREAM" + options);
+
+      buffered.assertOK();
+      streamed.assertOK();
+      assertThat(JsonParser.parseString(streamed.getEntityContent()))
+          .isEqualTo(JsonParser.parseString(contentWithoutMagicJson(buffered)));
+    }
+  }
+
+  @Test
+  public void shouldSkipFirstRefsByNameWithoutLimit() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, "refs/changes/02/2/1", REMOTE));
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, "refs/changes/01/1/1", REMOTE));
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE) + "?start=1");
+
+    result.assertOK();
+    assertThat(
+            JsonParser.parseString(contentWithoutMagicJson(result))
+                .getAsJsonObject()
+                .getAsJsonObject("remotes")
+                .getAsJsonObject(REMOTE)
+                .getAsJsonObject("status")
+                .keySet())
+        .containsExactly("refs/changes/02/2/1", REF_MASTER);
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.replication-status.asyncWrites", value = "false")
+  public void shouldStreamPersistedReplicationStatusWithoutLoadingIt() throws Exception {
+    eventHandler.onEvent(successReplicatedEvent(null, System.currentTimeMillis(), REMOTE));
+    ReplicationStatusIndex index =
+        plugin.getSysInjector().getInstance(ReplicationStatusIndex.class);
+    index.removeProject(project);
+
+    RestResponse streamed =
+        adminRestSession.get(endpoint(project, REMOTE) + "?format=JSON_STREAM");
+    streamed.assertOK();
+    assertThat(index.isLoaded(project, REMOTE)).isFalse();
+
+    RestResponse buffered = adminRestSession.get(endpoint(project, REMOTE));
+    buffered.assertOK();
+    assertThat(JsonParser.parseString(streamed.getEntityContent()))
+        .isEqualTo(JsonParser.parseString(contentWithoutMagicJson(buffered)));
+  }
+
+  @Test
+  public void shouldStreamReplicationStatusAsProtobuf() throws Exception {
+    eventHandler.onEvent(successReplicatedEvent(null, System.currentTimeMillis(), REMOTE));
+
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE) + "?format=PROTO");
+
+    result.assertOK();
+    assertThat(result.getHeader(HttpHeaders.CONTENT_TYPE))
+        .startsWith(ReplicationStatusEntries.CONTENT_TYPE);
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.replication-status.asyncWrites", value = "false")
+  public void shouldRestoreExportedReplicationStatus() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    ReplicationStatusSnapshot snapshot =
+        plugin.getSysInjector().getInstance(ReplicationStatusSnapshot.class);
+    ByteArrayOutputStream exported = new ByteArrayOutputStream();
+    assertThat(snapshot.export(ImmutableList.of(project), exported)).isEqualTo(1);
+
+    ReplicationStatusWriter writer =
+        plugin.getSysInjector().getInstance(ReplicationStatusWriter.class);
+    plugin
+        .getSysInjector()
+        .getInstance(ReplicationStatusIndex.class)
+        .removeProject(project)
+        .forEach(writer::invalidate);
+    adminRestSession.get(endpoint(project, REMOTE)).assertOK();
+    long restored = snapshot.restore(new ByteArrayInputStream(exported.toByteArray()), 2);
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE));
+
+    assertThat(restored).isEqualTo(1);
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(successReplicationStatus(PUSH, REMOTE, project, eventCreatedOn));
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.replication-status.asyncWrites", value = "false")
+  public void shouldKeepNewerPersistedReplicationStatusOnRestore() throws Exception {
+    long exportedOn = System.currentTimeMillis();
+    eventHandler.onEvent(successReplicatedEvent(null, exportedOn, REMOTE));
+    ReplicationStatusSnapshot snapshot =
+        plugin.getSysInjector().getInstance(ReplicationStatusSnapshot.class);
+    ByteArrayOutputStream exported = new ByteArrayOutputStream();
+    snapshot.export(ImmutableList.of(project), exported);
+
+    long failedOn = exportedOn + 1000;
+    eventHandler.onEvent(failedReplicatedEvent(null, failedOn, REMOTE));
+    // Persisted but not indexed, as after a restart.
+    plugin.getSysInjector().getInstance(ReplicationStatusIndex.class).removeProject(project);
+    snapshot.restore(new ByteArrayInputStream(exported.toByteArray()), 1);
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(failedReplicationStatus(PUSH, REMOTE, project, failedOn));
+  }
+
+  @Test
+  // Enables the reconciliation, whose first scheduled run is not reached by the test.
+  @GerritConfig(name = "plugin.replication-status.reconcileInterval", value = "1 day")
+  public void shouldReconcileReplicationStatusWithRemoteRefs() throws Exception {
+    String urlTemplate = Files.createTempDirectory("remotes").toUri() + "${name}.git";
+    String remote = ReplicationRemotes.expand(urlTemplate, project);
+    FileBasedConfig replicationConfig = writeReplicationConfig(urlTemplate);
+    try {
+      Git.init().setBare(true).setDirectory(new File(new URIish(remote).getPath())).call().close();
+      try (Repository git = repoManager.openRepository(project)) {
+        Git.wrap(git)
+            .push()
+            .setRemote(remote)
+            .setRefSpecs(new RefSpec(REF_MASTER + ":" + REF_MASTER))
+            .call();
+      }
+      String branch = "refs/heads/not-replicated";
+      gApi.projects().name(project.get()).branch(branch).create(new BranchInput());
+      eventHandler.onEvent(scheduledEvent(null, 1, REF_MASTER, remote));
+      eventHandler.onEvent(
+          replicatedEvent(
+              null, 1, branch, remote, RefPushResult.SUCCEEDED, RemoteRefUpdate.Status.OK));
+
+      int corrected =
+          plugin
+              .getSysInjector()
+              .getInstance(ReplicationStatusReconciler.class)
+              .reconcile(ImmutableList.of(project))
+              .get();
+
+      ReplicationStatusLoader loader =
+          plugin.getSysInjector().getInstance(ReplicationStatusLoader.class);
+      assertThat(corrected).isEqualTo(2);
+      assertThat(loader.get(ReplicationStatus.Key.create(project, remote, REF_MASTER)).status())
+          .isEqualTo(ReplicationStatus.ReplicationStatusResult.SUCCEEDED);
+      assertThat(loader.get(ReplicationStatus.Key.create(project, remote, branch)).status())
+          .isEqualTo(ReplicationStatus.ReplicationStatusResult.FAILED);
+    } finally {
+      Files.delete(replicationConfig.getFile().toPath());
+    }
+  }
+
+  @Test
+  // Enables the reconciliation, whose first scheduled run is not reached by the test.
+  @GerritConfig(name = "plugin.replication-status.reconcileInterval", value = "1 day")
+  public void shouldReconcileOnlyReplicatedProjectsAndRefs() throws Exception {
+    String urlTemplate = Files.createTempDirectory("remotes").toUri() + "${name}.git";
+    String remote = ReplicationRemotes.expand(urlTemplate, project);
+    String mirrored = "refs/heads/mirrored";
+    FileBasedConfig replicationConfig = writeReplicationConfig(urlTemplate);
+    replicationConfig.setString("remote", "mirror", "push", REF_MASTER + ":" + mirrored);
+    replicationConfig.setString("remote", "other", "url", "ssh://other.remote.host/${name}.git");
+    replicationConfig.setString("remote", "other", "projects", "^other/.*");
+    replicationConfig.save();
+    try {
+      Git.init().setBare(true).setDirectory(new File(new URIish(remote).getPath())).call().close();
+      try (Repository git = repoManager.openRepository(project)) {
+        Git.wrap(git)
+            .push()
+            .setRemote(remote)
+            .setRefSpecs(new RefSpec(REF_MASTER + ":" + mirrored))
+            .call();
+      }
+      String branch = "refs/heads/not-pushed";
+      gApi.projects().name(project.get()).branch(branch).create(new BranchInput());
+      eventHandler.onEvent(scheduledEvent(null, 1, REF_MASTER, remote));
+      eventHandler.onEvent(
+          replicatedEvent(
+              null, 1, branch, remote, RefPushResult.SUCCEEDED, RemoteRefUpdate.Status.OK));
+
+      assertThat(plugin.getSysInjector().getInstance(ReplicationRemotes.class).urls(project))
+          .containsExactly(remote);
+      int corrected =
+          plugin
+              .getSysInjector()
+              .getInstance(ReplicationStatusReconciler.class)
+              .reconcile(ImmutableList.of(project))
+              .get();
+
+      ReplicationStatusLoader loader =
+          plugin.getSysInjector().getInstance(ReplicationStatusLoader.class);
+      assertThat(corrected).isEqualTo(1);
+      assertThat(loader.get(ReplicationStatus.Key.create(project, remote, REF_MASTER)).status())
+          .isEqualTo(ReplicationStatus.ReplicationStatusResult.SUCCEEDED);
+      assertThat(loader.get(ReplicationStatus.Key.create(project, remote, branch)).status())
+          .isEqualTo(ReplicationStatus.ReplicationStatusResult.SUCCEEDED);
+    } finally {
+      Files.delete(replicationConfig.getFile().toPath());
+    }
+  }
+
+  @Test
+  public void shouldRejectBothPrefixAndRegex() throws Exception {
+    adminRestSession
+        .get(endpoint(project, REMOTE) + "?prefix=refs%2Fheads%2F&regex=refs%2F.*")
+        .assertBadRequest();
+  }
+
+  @Test
+  public void shouldListRemoteReplicationStatus() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn + 1, "refs/changes/01/1/1", REMOTE));
+    RestResponse result = adminRestSession.get(String.format("/projects/%s/remotes/", project));
+
+    result.assertOK();
+    Map<ReplicationStatus.ReplicationStatusResult, Long> refs =
+        new EnumMap<>(ReplicationStatus.ReplicationStatusResult.class);
+    for (ReplicationStatus.ReplicationStatusResult status :
+        ReplicationStatus.ReplicationStatusResult.values()) {
+      refs.put(status, 0L);
+    }
+    refs.put(ReplicationStatus.ReplicationStatusResult.SUCCEEDED, 1L);
+    refs.put(ReplicationStatus.ReplicationStatusResult.SCHEDULED, 1L);
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(
+            gson.toJson(
+                ImmutableMap.of(
+                    REMOTE, RemoteReplicationSummary.create(refs, eventCreatedOn + 1))));
+  }
+
+  @Test
+  public void shouldBeForbiddenToListRemotesForNonProjectOwners() throws Exception {
+    userRestSession.get(String.format("/projects/%s/remotes/", project)).assertForbidden();
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.replication-status.asyncWrites", value = "false")
+  public void shouldListConfiguredRemotesWithPersistedStatuses() throws Exception {
+    eventHandler.onEvent(successReplicatedEvent(null, System.currentTimeMillis(), REMOTE));
+    // The statuses persisted by a previous run are not known to the index.
+    plugin.getSysInjector().getInstance(ReplicationStatusIndex.class).removeProject(project);
+    FileBasedConfig replicationConfig = writeReplicationConfig(REMOTE);
+    try {
+      RestResponse result = adminRestSession.get(String.format("/projects/%s/remotes/", project));
+
+      result.assertOK();
+      assertThat(JsonParser.parseString(contentWithoutMagicJson(result)).getAsJsonObject().keySet())
+          .containsExactly(REMOTE);
+    } finally {
+      Files.delete(replicationConfig.getFile().toPath());
+    }
+  }
+
+  @Test
+  @GerritConfig(name = "plugin.replication-status.asyncWrites", value = "false")
+  @GerritConfig(name = "plugin.replication-status.warmUpThreads", value = "1")
+  public void shouldWarmUpOnlyRemotesWithPersistedStatuses() throws Exception {
+    String otherRemote = "ssh://other.remote.host";
+    eventHandler.onEvent(successReplicatedEvent(null, System.currentTimeMillis(), REMOTE));
+    ReplicationStatusIndex index =
+        plugin.getSysInjector().getInstance(ReplicationStatusIndex.class);
+    // The statuses persisted by a previous run are not known to the index.
+    index.removeProject(project);
+    FileBasedConfig replicationConfig = writeReplicationConfig(REMOTE);
+    replicationConfig.setString("remote", "other", "url", otherRemote);
+    replicationConfig.save();
+    ReplicationStatusWarmUp warmUp =
+        plugin.getSysInjector().getInstance(ReplicationStatusWarmUp.class);
+    try {
+      warmUp.start();
+      for (int attempt = 0; attempt < 100 && !warmUp.isComplete(); attempt++) {
+        MILLISECONDS.sleep(50);
+      }
+
+      assertThat(warmUp.isComplete()).isTrue();
+      assertThat(index.isLoaded(project, REMOTE)).isTrue();
+      assertThat(index.isLoaded(project, otherRemote)).isTrue();
+      assertThat(index.remotes(project).keySet()).containsExactly(REMOTE);
+      assertThat(index.get(project, otherRemote).get()).isEmpty();
+    } finally {
+      warmUp.stop();
+      Files.delete(replicationConfig.getFile().toPath());
+    }
+  }
+
+  @Test
+  public void shouldReturnReplicationStatusOfSingleRef() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    RestResponse result = adminRestSession.get(refEndpoint(project, REMOTE, REF_MASTER));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(
+            gson.toJson(
+                ReplicationStatus.create(
+                        PUSH,
+                    ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+                    eventCreatedOn,
+                    masterObjectId(project))));
+  }
+
+  @Test
+  public void shouldReturnNotFoundForRefWithoutReplicationStatus() throws Exception {
+    adminRestSession.get(refEndpoint(project, REMOTE, REF_MASTER)).assertNotFound();
+  }
+
+  @Test
+  public void shouldReturnNotFoundForDeletedRefWhenCheckingExistence() throws Exception {
+    String ref = Constants.R_HEADS + "deleted";
+
+    eventHandler.onEvent(
+        replicatedEvent(
+            null,
+            System.currentTimeMillis(),
+            ref,
+            REMOTE,
+            RefPushResult.SUCCEEDED,
+            RemoteRefUpdate.Status.OK));
+    adminRestSession.get(refEndpoint(project, REMOTE, ref)).assertOK();
+    adminRestSession.get(refEndpoint(project, REMOTE, ref) + "?check-exists").assertNotFound();
+  }
+
+  @Test
+  public void shouldReportRefUpdatedAfterReplicationAsOutOfDate() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+    String replicated = masterObjectId(project);
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    adminRestSession.get(refEndpoint(project, REMOTE, REF_MASTER)).assertOK();
+
+    merge(createChange());
+    RestResponse result = adminRestSession.get(refEndpoint(project, REMOTE, REF_MASTER));
+    RestResponse remotes = adminRestSession.get(String.format("/projects/%s/remotes/", project));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(
+            gson.toJson(
+                ReplicationStatus.create(
+                    PUSH,
+                    ReplicationStatus.ReplicationStatusResult.OUT_OF_DATE,
+                    eventCreatedOn,
+                    replicated)));
+    remotes.assertOK();
+    assertThat(
+            JsonParser.parseString(contentWithoutMagicJson(remotes))
+                .getAsJsonObject()
+                .getAsJsonObject(REMOTE)
+                .get("pending")
+                .getAsLong())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void shouldListChangeReplicationStatus() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    eventHandler.onEvent(changeRefEvent(eventCreatedOn, "refs/changes/01/1/1", true));
+    eventHandler.onEvent(changeRefEvent(eventCreatedOn + 1, "refs/changes/01/1/meta", false));
+    eventHandler.onEvent(changeRefEvent(eventCreatedOn, "refs/changes/02/2/1", true));
+    RestResponse result = adminRestSession.get(changesEndpoint(project, REMOTE));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(
+            gson.toJson(
+                ImmutableMap.of(
+                    1,
+                    ChangeReplicationStatus.create(
+                        ReplicationStatus.ReplicationStatusResult.FAILED, eventCreatedOn + 1, 2),
+                    2,
+                    ChangeReplicationStatus.create(
+                        ReplicationStatus.ReplicationStatusResult.SUCCEEDED, eventCreatedOn, 1))));
+  }
+
+  @Test
+  public void shouldFilterChangeReplicationStatusByStatus() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(changeRefEvent(eventCreatedOn, "refs/changes/01/1/1", false));
+    eventHandler.onEvent(changeRefEvent(eventCreatedOn, "refs/changes/02/2/1", true));
+    RestResponse result =
+        adminRestSession.get(changesEndpoint(project, REMOTE) + "?status=SUCCEEDED");
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(
+            gson.toJson(
+                ImmutableMap.of(
+                    2,
+                    ChangeReplicationStatus.create(
+                        ReplicationStatus.ReplicationStatusResult.SUCCEEDED, eventCreatedOn, 1))));
+  }
+
+  @Test
+  public void shouldBeForbiddenToListChangesForNonProjectOwners() throws Exception {
+    userRestSession.get(changesEndpoint(project, REMOTE)).assertForbidden();
+  }
+
+  @Test
+  public void shouldReturnReplicationStatusOfSingleChange() throws Exception {
+    PushOneCommit.Result change = createChange();
+    Change.Id changeId = change.getChange().getId();
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(changeRefEvent(eventCreatedOn, change.getPatchSetId().toRefName(), true));
+    eventHandler.onEvent(
+        scheduledEvent(null, eventCreatedOn + 1, RefNames.changeMetaRef(changeId), REMOTE));
+    RestResponse result = adminRestSession.get(changeEndpoint(project, REMOTE, changeId));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(
+            gson.toJson(
+                ChangeReplicationStatus.create(
+                    ReplicationStatus.ReplicationStatusResult.SCHEDULED, eventCreatedOn + 1, 2)));
+  }
+
+  @Test
+  public void shouldReturnNotFoundForChangeWithoutReplicationStatus() throws Exception {
+    Change.Id changeId = createChange().getChange().getId();
+
+    adminRestSession.get(changeEndpoint(project, REMOTE, changeId)).assertNotFound();
+    adminRestSession
+        .get(changesEndpoint(project, REMOTE) + "not-a-change/replication-status")
+        .assertNotFound();
+  }
+
+  @Test
+  public void shouldConsumeBatchOfRefsFetchedByPullReplication() throws Exception {
+    String otherRef = Constants.R_HEADS + "stable";
+    long eventCreatedOn = System.currentTimeMillis();
+
+    PullReplicationBatchEvent fetchEvent =
+        new PullReplicationBatchEvent(project.get(), ImmutableList.of(REF_MASTER, otherRef));
+    fetchEvent.eventCreatedOn = eventCreatedOn;
+    eventHandler.onEvent(fetchEvent);
+
+    for (String ref : ImmutableList.of(REF_MASTER, otherRef)) {
+      RestResponse result = adminRestSession.get(refEndpoint(project, REMOTE, ref));
+      result.assertOK();
+      assertThat(contentWithoutMagicJson(result))
+          .isEqualTo(
+              gson.toJson(
+                  ReplicationStatus.create(
+                      PULL,
+                      ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+                      eventCreatedOn,
+                      ref.equals(REF_MASTER) ? masterObjectId(project) : null)));
+    }
+  }
+
+  @Test
+  @GerritConfig(name = "gerrit.instanceId", value = "testInstanceId-1")
+  @GerritConfig(name = "plugin.replication-status.clusterMode", value = "true")
+  @GerritConfig(name = "plugin.replication-status.clusterSyncInterval", value = "10 ms")
+  public void shouldMergeReplicationStatusOfOtherNodes() throws Exception {
+    String otherRef = Constants.R_HEADS + "stable";
+    long eventCreatedOn = System.currentTimeMillis();
+    eventHandler.onEvent(successReplicatedEvent("testInstanceId-1", eventCreatedOn, REMOTE));
+
+    Path brokerDirectory = sitePaths.data_dir.resolve("replication-status").resolve("cluster");
+    Files.createDirectories(brokerDirectory);
+    Files.write(
+        brokerDirectory.resolve("testInstanceId-2.json"),
+        String.format(
+                "{\"project\":\"%s\",\"remote\":\"%s\",\"ref\":\"%s\",\"type\":\"PUSH\","
+                    + "\"status\":\"FAILED\",\"when\":%d}%n",
+                project.get(), REMOTE, otherRef, eventCreatedOn)
+            .getBytes(UTF_8));
+
+    JsonElement expected =
+        gson.toJsonTree(
+            ProjectReplicationStatus.create(
+                ImmutableMap.of(
+                    REMOTE,
+                    RemoteReplicationStatus.create(
+                        ImmutableMap.of(
+                            REF_MASTER,
+                            ReplicationStatus.create(
+                                PUSH,
+                                ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+                                eventCreatedOn,
+                                masterObjectId(project)),
+                            otherRef,
+                            ReplicationStatus.create(
+                                PUSH,
+                                ReplicationStatus.ReplicationStatusResult.FAILED,
+                                eventCreatedOn)))),
+                ProjectReplicationStatus.ProjectReplicationStatusResult.FAILED,
+                project.get()));
+    String endpoint =
+        String.format(
+            "/projects/%s/remotes/%s/cluster-replication-status", project.get(), encode(REMOTE));
+    JsonElement merged = null;
+    for (int attempt = 0; attempt < 100 && !expected.equals(merged); attempt++) {
+      MILLISECONDS.sleep(50);
+      RestResponse result = adminRestSession.get(endpoint);
+      result.assertOK();
+      merged = JsonParser.parseString(contentWithoutMagicJson(result));
+    }
+
+    assertThat(merged).isEqualTo(expected);
+  }
+
+  @Test
+  public void shouldNotFindClusterReplicationStatusWhenClusterModeIsDisabled() throws Exception {
+    adminRestSession
+        .get(
+            String.format(
+                "/projects/%s/remotes/%s/cluster-replication-status",
+                project.get(), encode(REMOTE)))
+        .assertNotFound();
+  }
+
+  @Test
+  public void shouldReturnReplicationStatusOfSeveralProjects() throws Exception {
+    Project.NameKey otherProject = projectOperations.newProject().create();
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    RestResponse result =
+        adminRestSession.post(
+            BULK_ENDPOINT,
+            bulkInput(bulkProjectInput(project, REF_MASTER), bulkProjectInput(otherProject)));
+
+    result.assertOK();
+    assertThat(result.getEntityContent())
+        .isEqualTo(
+            String.format(
+                "[%s,%s]",
+                successReplicationStatus(PUSH, REMOTE, project, eventCreatedOn),
+                emptyReplicationStatus(otherProject, REMOTE)));
+  }
+
+  @Test
+  public void shouldReturnRepeatedRemotesAndRefsOnceInBulkReplicationStatus() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+    BulkReplicationStatusAction.ProjectInput projectInput =
+        bulkProjectInput(project, REF_MASTER, REF_MASTER);
+    projectInput.remotes = ImmutableList.of(REMOTE, REMOTE);
+
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn, REMOTE));
+    RestResponse result = adminRestSession.post(BULK_ENDPOINT, bulkInput(projectInput));
+
+    result.assertOK();
+    assertThat(result.getEntityContent())
+        .isEqualTo(
+            String.format("[%s]", successReplicationStatus(PUSH, REMOTE, project, eventCreatedOn)));
+  }
+
+  @Test
+  public void shouldBeForbiddenToQueryBulkReplicationStatusOfNonOwnedProjects() throws Exception {
+    makeProjectOwner(user, project);
+    Project.NameKey otherProject = projectOperations.newProject().create();
+
+    userRestSession
+        .post(BULK_ENDPOINT, bulkInput(bulkProjectInput(project), bulkProjectInput(otherProject)))
+        .assertForbidden();
+  }
+
+  @Test
+  public void shouldReportFailedRefsInReplicationHealth() throws Exception {
+    eventHandler.onEvent(failedReplicatedEvent(null, System.currentTimeMillis(), REMOTE));
+    RestResponse result = adminRestSession.get(HEALTH_ENDPOINT);
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(
+            gson.toJson(
+                ReplicationHealth.create(
+                    ImmutableList.of(ReplicationStatus.Key.create(project, REMOTE, REF_MASTER)),
+                    false)));
+  }
+
+  @Test
+  public void shouldNotReportRefsReplicatedAfterFailureInReplicationHealth() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(failedReplicatedEvent(null, eventCreatedOn, REMOTE));
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn + 1, REMOTE));
+    RestResponse result = adminRestSession.get(HEALTH_ENDPOINT);
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(gson.toJson(ReplicationHealth.create(ImmutableList.of(), false)));
+  }
+
+  @Test
+  public void shouldBeForbiddenToGetReplicationHealthForNonAdmins() throws Exception {
+    userRestSession.get(HEALTH_ENDPOINT).assertForbidden();
+  }
+
+  @Test
+  public void shouldReportReplicationLatencyOfSuccessfulReplications() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, REF_MASTER, REMOTE));
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn + 1, REMOTE));
+    RestResponse result =
+        adminRestSession.get("/config/server/replication-status~replication-latency");
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result)).contains("\"" + REMOTE + "\":{\"count\":1");
+  }
+
+  @Test
+  public void shouldPruneReplicationStatusOfDeletedRefs() throws Exception {
+    String branch = "refs/heads/to-delete";
+    gApi.projects().name(project.get()).branch(branch).create(new BranchInput());
+    adminRestSession.get(endpoint(project, REMOTE)).assertOK();
+
+    eventHandler.onEvent(scheduledEvent(null, System.currentTimeMillis(), branch, REMOTE));
+    gApi.projects().name(project.get()).branch(branch).delete();
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result)).isEqualTo(emptyReplicationStatus(project, REMOTE));
+  }
+
+  @Test
+  public void shouldReturnNotModifiedWhenReplicationStatusIsUnchanged() throws Exception {
+    eventHandler.onEvent(successReplicatedEvent(null, System.currentTimeMillis(), REMOTE));
+    adminRestSession.get(endpoint(project, REMOTE)).assertOK();
+    RestResponse result = adminRestSession.get(endpoint(project, REMOTE));
+    String etag = result.getHeader(HttpHeaders.ETAG);
+
+    assertThat(etag).isNotNull();
+    assertThat(
+            adminRestSession
+                .getWithHeaders(
+                    endpoint(project, REMOTE), new BasicHeader(HttpHeaders.IF_NONE_MATCH, etag))
+                .getStatusCode())
+        .isEqualTo(HttpServletResponse.SC_NOT_MODIFIED);
+  }
+
+  @Test
+  public void shouldChangeETagWhenReplicationStatusChanges() throws Exception {
+    long eventCreatedOn = System.currentTimeMillis();
+    eventHandler.onEvent(scheduledEvent(null, eventCreatedOn, REF_MASTER, REMOTE));
+    adminRestSession.get(endpoint(project, REMOTE)).assertOK();
+    String etag = adminRestSession.get(endpoint(project, REMOTE)).getHeader(HttpHeaders.ETAG);
+
+    eventHandler.onEvent(successReplicatedEvent(null, eventCreatedOn + 1, REMOTE));
+    RestResponse result =
+        adminRestSession.getWithHeaders(
+            endpoint(project, REMOTE), new BasicHeader(HttpHeaders.IF_NONE_MATCH, etag));
+
+    result.assertOK();
+    assertThat(contentWithoutMagicJson(result))
+        .isEqualTo(successReplicationStatus(PUSH, REMOTE, project, eventCreatedOn + 1));
+  }
+
+  @Test
+  public void shouldNotReturnNotModifiedForOtherOptions() throws Exception {
+    eventHandler.onEvent(successReplicatedEvent(null, System.currentTimeMillis(), REMOTE));
+    String etag = adminRestSession.get(endpoint(project, REMOTE)).getHeader(HttpHeaders.ETAG);
+
+    RestResponse result =
+        adminRestSession.getWithHeaders(
+            endpoint(project, REMOTE) + "?status=FAILED",
+            new BasicHeader(HttpHeaders.IF_NONE_MATCH, etag));
+
+    result.assertOK();
+    assertThat(result.getHeader(HttpHeaders.ETAG)).isNotEqualTo(etag);
+  }
+
+  private FileBasedConfig writeReplicationConfig(String url) throws IOException {
+    FileBasedConfig replicationConfig =
+        new FileBasedConfig(sitePaths.etc_dir.resolve("replication.config").toFile(), FS.DETECTED);
+    replicationConfig.setString("remote", "mirror", "url", url);
+    replicationConfig.save();
+    return replicationConfig;
+  }
+
   private String contentWithoutMagicJson(RestResponse response) throws IOException {
     return response.getEntityContent().substring(RestApiServlet.JSON_MAGIC.length);
   }
@@ -263,6 +1034,17 @@ public class ReplicationStatusIT extends LightweightPluginDaemonTest {
     return scheduledFetchEvent;
   }
 
+  private RefReplicatedEvent changeRefEvent(long when, String ref, boolean succeeded)
+      throws URISyntaxException {
+    return replicatedEvent(
+        null,
+        when,
+        ref,
+        REMOTE,
+        succeeded ? RefPushResult.SUCCEEDED : RefPushResult.FAILED,
+        succeeded ? RemoteRefUpdate.Status.OK : RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD);
+  }
+
   private RefReplicatedEvent successReplicatedEvent(
       @Nullable String instanceId, long when, String remoteUrl) throws URISyntaxException {
 
@@ -287,6 +1069,51 @@ public class ReplicationStatusIT extends LightweightPluginDaemonTest {
         RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD);
   }
 
+  /** Mimics the fetch events of the pull-replication plugin, whose classes are not available. */
+  private static class PullReplicationBatchEvent extends Event {
+    final String project;
+    final List<String> refs;
+    final String sourceUri = REMOTE;
+    final String status = "succeeded";
+
+    PullReplicationBatchEvent(String project, List<String> refs) {
+      super(PullReplicationEvent.FETCH_REPLICATED);
+      this.project = project;
+      this.refs = refs;
+    }
+  }
+
+  private static BulkReplicationStatusAction.Input bulkInput(
+      BulkReplicationStatusAction.ProjectInput... projects) {
+    BulkReplicationStatusAction.Input input = new BulkReplicationStatusAction.Input();
+    input.projects = ImmutableList.copyOf(projects);
+    return input;
+  }
+
+  private static BulkReplicationStatusAction.ProjectInput bulkProjectInput(
+      Project.NameKey project, String... refs) {
+    BulkReplicationStatusAction.ProjectInput input = new BulkReplicationStatusAction.ProjectInput();
+    input.project = project.get();
+    input.remotes = ImmutableList.of(REMOTE);
+    input.refs = refs.length > 0 ? ImmutableList.copyOf(refs) : null;
+    return input;
+  }
+
+  private static String refEndpoint(Project.NameKey project, String remote, String ref) {
+    return String.format(
+        "/projects/%s/remotes/%s/refs/%s/replication-status",
+        project.get(), encode(remote), encode(ref));
+  }
+
+  private static String changesEndpoint(Project.NameKey project, String remote) {
+    return String.format("/projects/%s/remotes/%s/changes/", project.get(), encode(remote));
+  }
+
+  private static String changeEndpoint(
+      Project.NameKey project, String remote, Change.Id changeId) {
+    return changesEndpoint(project, remote) + changeId.get() + "/replication-status";
+  }
+
   private static String endpoint(Project.NameKey project, String remote) {
     return String.format(
         "/projects/%s/remotes/%s/replication-status", project.get(), encode(remote));
@@ -303,14 +1130,14 @@ public class ReplicationStatusIT extends LightweightPluginDaemonTest {
 
   private String successReplicationStatus(
       ReplicationStatus.ReplicationType type, String remote, Project.NameKey project, long when)
-      throws URISyntaxException {
+      throws IOException, URISyntaxException {
     return successReplicationStatus(
         type, remote, project, when, ReplicationStatus.ReplicationStatusResult.SUCCEEDED);
   }
 
   private String scheduledReplicationStatus(
       ReplicationStatus.ReplicationType type, String remote, Project.NameKey project, long when)
-      throws URISyntaxException {
+      throws IOException, URISyntaxException {
     return successReplicationStatus(
         type, remote, project, when, ReplicationStatus.ReplicationStatusResult.SCHEDULED);
   }
@@ -321,7 +1148,7 @@ public class ReplicationStatusIT extends LightweightPluginDaemonTest {
       Project.NameKey project,
       long when,
       ReplicationStatus.ReplicationStatusResult replicationStatusResult)
-      throws URISyntaxException {
+      throws IOException, URISyntaxException {
     return projectReplicationStatus(
         type,
         remote,
@@ -333,7 +1160,7 @@ public class ReplicationStatusIT extends LightweightPluginDaemonTest {
 
   private String failedReplicationStatus(
       ReplicationStatus.ReplicationType type, String remote, Project.NameKey project, long when)
-      throws URISyntaxException {
+      throws IOException, URISyntaxException {
     return projectReplicationStatus(
         type,
         remote,
@@ -349,7 +1176,12 @@ public class ReplicationStatusIT extends LightweightPluginDaemonTest {
       Project.NameKey project,
       long when,
       ProjectReplicationStatus.ProjectReplicationStatusResult projectReplicationStatusResult,
-      ReplicationStatus.ReplicationStatusResult replicationStatusResult) {
+      ReplicationStatus.ReplicationStatusResult replicationStatusResult)
+      throws IOException {
+    String objectId =
+        replicationStatusResult == ReplicationStatus.ReplicationStatusResult.SUCCEEDED
+            ? masterObjectId(project)
+            : null;
     return gson.toJson(
         ProjectReplicationStatus.create(
             ImmutableMap.of(
@@ -357,8 +1189,14 @@ public class ReplicationStatusIT extends LightweightPluginDaemonTest {
                 RemoteReplicationStatus.create(
                     ImmutableMap.of(
                         REF_MASTER,
-                        ReplicationStatus.create(type, replicationStatusResult, when)))),
+                        ReplicationStatus.create(type, replicationStatusResult, when, objectId)))),
             projectReplicationStatusResult,
             project.get()));
   }
+
+  private String masterObjectId(Project.NameKey project) throws IOException {
+    try (Repository git = repoManager.openRepository(project)) {
+      return git.exactRef(REF_MASTER).getObjectId().name();
+    }
+  }
 }
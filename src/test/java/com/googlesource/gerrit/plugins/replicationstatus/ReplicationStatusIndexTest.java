@@ -0,0 +1,78 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class ReplicationStatusIndexTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("some/project");
+  private static final String OLD_REMOTE = "ssh://old.remote/some/project.git";
+  private static final String NEW_REMOTE = "ssh://new.remote/some/project.git";
+
+  @Test
+  public void shouldEvictLeastRecentlyUpdatedRemotesWithMappedStorage() {
+    ReplicationStatusIndex index = index("MAPPED", 1000);
+    long generation = index.generation(PROJECT, OLD_REMOTE);
+
+    for (int i = 0; i < 1000; i++) {
+      index.put(key(OLD_REMOTE, i), status(i));
+    }
+    for (int i = 0; i < 100; i++) {
+      index.put(key(NEW_REMOTE, i), status(2000 + i));
+    }
+
+    assertThat(index.get(key(OLD_REMOTE, 0))).isNull();
+    assertThat(index.remotes(PROJECT).keySet()).containsExactly(NEW_REMOTE);
+    assertThat(index.remotes(PROJECT).get(NEW_REMOTE).refs()).hasSize(100);
+    assertThat(index.generation(PROJECT, OLD_REMOTE)).isNotEqualTo(generation);
+  }
+
+  @Test
+  public void shouldNotEvictWithCacheStorage() {
+    ReplicationStatusIndex index = index("CACHE", 1000);
+
+    for (int i = 0; i < 1000; i++) {
+      index.put(key(OLD_REMOTE, i), status(i));
+    }
+    for (int i = 0; i < 100; i++) {
+      index.put(key(NEW_REMOTE, i), status(2000 + i));
+    }
+
+    assertThat(index.remotes(PROJECT).keySet()).containsExactly(OLD_REMOTE, NEW_REMOTE);
+    assertThat(index.get(key(OLD_REMOTE, 0))).isEqualTo(status(0));
+  }
+
+  private static ReplicationStatusIndex index(String storage, long indexSize) {
+    Config config = new Config();
+    config.setString("plugin", "replication-status", "storage", storage);
+    config.setLong("plugin", "replication-status", "mappedStorageIndexSize", indexSize);
+    return new ReplicationStatusIndex(new ReplicationStatusConfig(config, "replication-status"));
+  }
+
+  private static ReplicationStatus.Key key(String remote, int n) {
+    return ReplicationStatus.Key.create(PROJECT, remote, "refs/heads/branch-" + n);
+  }
+
+  private static ReplicationStatus status(long when) {
+    return ReplicationStatus.create(
+        ReplicationStatus.ReplicationType.PUSH,
+        ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+        when);
+  }
+}
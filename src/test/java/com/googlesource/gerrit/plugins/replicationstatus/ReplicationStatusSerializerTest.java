@@ -0,0 +1,164 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.proto.Protos;
+import com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationStatusResult;
+import com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationType;
+import com.googlesource.gerrit.plugins.replicationstatus.proto.Cache;
+import org.junit.Test;
+
+public class ReplicationStatusSerializerTest {
+  private static final long WHEN = 1626688830L;
+  private static final String OBJECT_ID = "2ba9a5549264758bdb9395e94a283e876de528d3";
+
+  @Test
+  public void shouldRoundTripReplicationStatus() {
+    for (ReplicationType type : ReplicationType.values()) {
+      for (ReplicationStatusResult result : ReplicationStatusResult.values()) {
+        ReplicationStatus status = ReplicationStatus.create(type, result, WHEN);
+
+        assertThat(roundTrip(status)).isEqualTo(status);
+      }
+    }
+  }
+
+  @Test
+  public void shouldRoundTripReplicatedObjectId() {
+    ReplicationStatus status =
+        ReplicationStatus.create(
+            ReplicationType.PUSH, ReplicationStatusResult.SUCCEEDED, WHEN, OBJECT_ID);
+
+    assertThat(roundTrip(status)).isEqualTo(status);
+    assertThat(ReplicationStatus.Serializer.INSTANCE.serialize(status)).hasLength(31);
+  }
+
+  @Test
+  public void shouldRoundTripStatusOlderThanSerializationEpoch() {
+    ReplicationStatus status =
+        ReplicationStatus.create(ReplicationType.PULL, ReplicationStatusResult.SUCCEEDED, 1L);
+
+    assertThat(roundTrip(status)).isEqualTo(status);
+  }
+
+  @Test
+  public void shouldDeserializeFormat1ReplicationStatus() {
+    byte[] format1 =
+        Protos.toByteArray(
+            Cache.ReplicationStatusProto.newBuilder()
+                .setWhen(WHEN)
+                .setStatus(ReplicationStatusResult.SUCCEEDED.name())
+                .setType(ReplicationType.PUSH.name())
+                .build());
+
+    assertThat(ReplicationStatus.Serializer.INSTANCE.deserialize(format1))
+        .isEqualTo(
+            ReplicationStatus.create(
+                ReplicationType.PUSH, ReplicationStatusResult.SUCCEEDED, WHEN));
+  }
+
+  @Test
+  public void shouldSerializeReplicationStatusInLessSpaceThanFormat1() {
+    byte[] format1 =
+        Protos.toByteArray(
+            Cache.ReplicationStatusProto.newBuilder()
+                .setWhen(WHEN)
+                .setStatus(ReplicationStatusResult.SUCCEEDED.name())
+                .setType(ReplicationType.PUSH.name())
+                .build());
+
+    byte[] format2 =
+        ReplicationStatus.Serializer.INSTANCE.serialize(
+            ReplicationStatus.create(
+                ReplicationType.PUSH, ReplicationStatusResult.SUCCEEDED, WHEN));
+
+    assertThat(format1).hasLength(23);
+    assertThat(format2).hasLength(9);
+  }
+
+  @Test
+  public void shouldRoundTripReplicationStatusKey() {
+    ReplicationStatus.Key key =
+        ReplicationStatus.Key.create(
+            Project.nameKey("some/project"), "ssh://some.remote.host", "refs/heads/master");
+
+    assertThat(
+            ReplicationStatus.Key.Serializer.INSTANCE.deserialize(
+                ReplicationStatus.Key.Serializer.INSTANCE.serialize(key)))
+        .isEqualTo(key);
+  }
+
+  @Test
+  public void shouldRoundTripChangeRefKeys() {
+    for (String ref : new String[] {"refs/changes/34/1234/5", "refs/changes/34/1234/meta"}) {
+      ReplicationStatus.Key key =
+          ReplicationStatus.Key.create(Project.nameKey("some/project"), "ssh://some.remote", ref);
+
+      assertThat(
+              ReplicationStatus.Key.Serializer.INSTANCE.deserialize(
+                  ReplicationStatus.Key.Serializer.INSTANCE.serialize(key)))
+          .isEqualTo(key);
+    }
+  }
+
+  @Test
+  public void shouldDeserializeChangeRefKeyPersistedByName() {
+    byte[] byName =
+        Protos.toByteArray(
+            Cache.ReplicationStatusKeyProto.newBuilder()
+                .setProject("some/project")
+                .setRemote("ssh://some.remote")
+                .setRef("refs/changes/34/1234/5")
+                .build());
+    ReplicationStatus.Key key =
+        ReplicationStatus.Key.create(
+            Project.nameKey("some/project"), "ssh://some.remote", "refs/changes/34/1234/5");
+
+    ReplicationStatus.Key deserialized =
+        ReplicationStatus.Key.Serializer.INSTANCE.deserialize(byName);
+
+    assertThat(deserialized).isEqualTo(key.changeRefByNameKey());
+    assertThat(deserialized.ref()).isEqualTo(key.ref());
+    assertThat(ReplicationStatus.Key.Serializer.INSTANCE.serialize(deserialized))
+        .isEqualTo(byName);
+  }
+
+  @Test
+  public void shouldSerializeChangeRefKeyInLessSpaceThanByName() {
+    byte[] byName =
+        Protos.toByteArray(
+            Cache.ReplicationStatusKeyProto.newBuilder()
+                .setProject("some/project")
+                .setRemote("ssh://some.remote")
+                .setRef("refs/changes/34/1234/5")
+                .build());
+
+    byte[] compact =
+        ReplicationStatus.Key.Serializer.INSTANCE.serialize(
+            ReplicationStatus.Key.create(
+                Project.nameKey("some/project"), "ssh://some.remote", "refs/changes/34/1234/5"));
+
+    assertThat(byName).hasLength(57);
+    assertThat(compact).hasLength(38);
+  }
+
+  private static ReplicationStatus roundTrip(ReplicationStatus status) {
+    return ReplicationStatus.Serializer.INSTANCE.deserialize(
+        ReplicationStatus.Serializer.INSTANCE.serialize(status));
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class ReplicationStatusStreamTest {
+  private static final String REMOTE = "ssh://some.remote/some/project.git";
+
+  @Test
+  public void shouldDeliverMatchingChanges() throws Exception {
+    ReplicationStatusStream stream = newStream(10);
+    try (ReplicationStatusStream.Subscription subscription =
+        stream.subscribe(c -> c.ref().equals("refs/heads/master"))) {
+      stream.publish(change("refs/heads/stable"));
+      stream.publish(change("refs/heads/master"));
+
+      assertThat(subscription.poll().ref()).isEqualTo("refs/heads/master");
+      assertThat(subscription.poll()).isNull();
+    }
+  }
+
+  @Test
+  public void shouldDropSlowSubscribers() throws Exception {
+    ReplicationStatusStream stream = newStream(1);
+    try (ReplicationStatusStream.Subscription slow = stream.subscribe(c -> true)) {
+      stream.publish(change("refs/heads/master"));
+      stream.publish(change("refs/heads/stable"));
+
+      assertThat(slow.isDropped()).isTrue();
+      assertThat(stream.hasSubscribers()).isFalse();
+      assertThat(slow.isEmpty()).isFalse();
+      assertThat(slow.poll().ref()).isEqualTo("refs/heads/master");
+      assertThat(slow.poll()).isNull();
+      assertThat(slow.isEmpty()).isTrue();
+    }
+  }
+
+  @Test
+  public void shouldNotifyListenerOfBufferedChangesAndDrop() {
+    ReplicationStatusStream stream = newStream(1);
+    AtomicInteger notified = new AtomicInteger();
+    try (ReplicationStatusStream.Subscription subscription =
+        stream.subscribe(c -> !c.ref().equals("refs/heads/ignored"), notified::incrementAndGet)) {
+      stream.publish(change("refs/heads/ignored"));
+      stream.publish(change("refs/heads/master"));
+      assertThat(notified.get()).isEqualTo(1);
+
+      stream.publish(change("refs/heads/stable"));
+      assertThat(notified.get()).isEqualTo(2);
+      assertThat(subscription.isDropped()).isTrue();
+    }
+  }
+
+  @Test
+  public void shouldStopDeliveringOnceClosed() {
+    ReplicationStatusStream stream = newStream(10);
+    stream.subscribe(c -> true).close();
+
+    assertThat(stream.hasSubscribers()).isFalse();
+  }
+
+  private static ReplicationStatusStream newStream(int bufferSize) {
+    Config config = new Config();
+    config.setInt("plugin", "replication-status", "streamBufferSize", bufferSize);
+    return new ReplicationStatusStream(new ReplicationStatusConfig(config, "replication-status"));
+  }
+
+  private static ReplicationStatusChange change(String ref) {
+    return ReplicationStatusChange.create(
+        ReplicationStatus.Key.create(Project.nameKey("some/project"), REMOTE, ref),
+        ReplicationStatus.create(
+            ReplicationStatus.ReplicationType.PUSH,
+            ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+            1615804809L));
+  }
+}
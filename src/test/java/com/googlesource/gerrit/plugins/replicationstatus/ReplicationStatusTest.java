@@ -0,0 +1,72 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.common.Nullable;
+import com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationStatusResult;
+import com.googlesource.gerrit.plugins.replicationstatus.ReplicationStatus.ReplicationType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class ReplicationStatusTest {
+  private static final ObjectId REPLICATED =
+      ObjectId.fromString("2ba9a5549264758bdb9395e94a283e876de528d3");
+  private static final ObjectId UPDATED =
+      ObjectId.fromString("5c9c991c5042b078c4c93d5e8a17361e6f8c8ebe");
+
+  @Test
+  public void shouldBeOutOfDateOnceRefUpdatedAfterSuccessfulReplication() {
+    ReplicationStatus status = succeeded(REPLICATED.name());
+
+    assertThat(status.current(REPLICATED)).isSameInstanceAs(status);
+    assertThat(status.current(UPDATED))
+        .isEqualTo(
+            ReplicationStatus.create(
+                ReplicationType.PUSH,
+                ReplicationStatusResult.OUT_OF_DATE,
+                status.when(),
+                REPLICATED.name()));
+  }
+
+  @Test
+  public void shouldNotBeOutOfDateWithoutReplicatedObject() {
+    assertThat(succeeded(null).isOutOfDate(UPDATED)).isFalse();
+  }
+
+  @Test
+  public void shouldOnlyBeOutOfDateAfterSuccessfulReplication() {
+    ReplicationStatus scheduled =
+        ReplicationStatus.create(
+            ReplicationType.PUSH, ReplicationStatusResult.SCHEDULED, 1L, REPLICATED.name());
+
+    assertThat(scheduled.isOutOfDate(UPDATED)).isFalse();
+    assertThat(succeeded(REPLICATED.name()).current(UPDATED).isOutOfDate(UPDATED)).isFalse();
+  }
+
+  @Test
+  public void shouldBePersistedAsSucceededWhenOutOfDate() {
+    ReplicationStatus status = succeeded(REPLICATED.name());
+
+    assertThat(status.persisted()).isSameInstanceAs(status);
+    assertThat(status.outOfDate().persisted()).isEqualTo(status);
+  }
+
+  private static ReplicationStatus succeeded(@Nullable String objectId) {
+    return ReplicationStatus.create(
+        ReplicationType.PUSH, ReplicationStatusResult.SUCCEEDED, 1L, objectId);
+  }
+}
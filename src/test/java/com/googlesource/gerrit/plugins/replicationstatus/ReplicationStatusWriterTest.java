@@ -0,0 +1,214 @@
+// Copyright (C) 2021 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replicationstatus;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class ReplicationStatusWriterTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("some/project");
+  private static final String REMOTE = "ssh://some.remote/some/project.git";
+
+  private final FakeStore store = new FakeStore();
+
+  @Test
+  public void shouldPersistQueuedStatusesOnStop() {
+    ReplicationStatusWriter writer = writer(1000, "BLOCK");
+    writer.start();
+
+    for (int i = 0; i < 100; i++) {
+      writer.put(key(i), status(i));
+    }
+    writer.stop();
+
+    assertThat(store.statuses).hasSize(100);
+    assertThat(writer.pendingCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void shouldWriteSynchronouslyOnceStopped() {
+    ReplicationStatusWriter writer = writer(1000, "BLOCK");
+    writer.start();
+    writer.stop();
+
+    writer.put(key(1), status(1));
+    writer.putAll(ImmutableMap.of(key(2), status(2)));
+    assertThat(store.statuses.keySet()).containsExactly(key(1), key(2));
+
+    writer.invalidate(key(1));
+    assertThat(store.statuses.keySet()).containsExactly(key(2));
+  }
+
+  @Test
+  public void shouldQueueAgainStatusesFailedToPersist() throws Exception {
+    store.failures.set(1);
+    ReplicationStatusWriter writer = writer(1000, "BLOCK");
+    writer.start();
+
+    writer.put(key(1), status(1));
+    for (int i = 0; i < 100 && !store.statuses.containsKey(key(1)); i++) {
+      TimeUnit.MILLISECONDS.sleep(50);
+    }
+    writer.stop();
+
+    assertThat(store.failures.get()).isEqualTo(0);
+    assertThat(store.statuses).containsExactly(key(1), status(1));
+  }
+
+  @Test
+  public void shouldNotLoseStatusesOfProducersRacingStop() throws Exception {
+    // A queue of one blocks the producers until the writer, or the stop, frees it.
+    ReplicationStatusWriter writer = writer(1, "BLOCK");
+    writer.start();
+    int producers = 4;
+    int statusesPerProducer = 500;
+    CountDownLatch started = new CountDownLatch(producers);
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      int producer = p;
+      Thread thread =
+          new Thread(
+              () -> {
+                started.countDown();
+                for (int i = 0; i < statusesPerProducer; i++) {
+                  int n = producer * statusesPerProducer + i;
+                  writer.put(key(n), status(n));
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+
+    started.await();
+    writer.stop();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(store.statuses).hasSize(producers * statusesPerProducer);
+  }
+
+  @Test
+  public void shouldKeepStatusesPendingUntilPersisted() throws Exception {
+    store.writing = new CountDownLatch(1);
+    store.written = new CountDownLatch(1);
+    ReplicationStatusWriter writer = writer(1000, "BLOCK");
+    writer.start();
+
+    writer.put(key(1), status(1));
+    assertThat(store.writing.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(writer.pending(key(1))).isEqualTo(Optional.of(status(1)));
+    writer.put(key(1), status(2));
+    store.written.countDown();
+    writer.stop();
+
+    assertThat(writer.pending(key(1))).isNull();
+    assertThat(store.statuses).containsExactly(key(1), status(2));
+  }
+
+  @Test
+  public void shouldPersistOutOfDateStatusesAsSucceeded() {
+    ReplicationStatusWriter writer = writer(1000, "BLOCK");
+    writer.start();
+    ReplicationStatus succeeded =
+        ReplicationStatus.create(
+            ReplicationStatus.ReplicationType.PUSH,
+            ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+            1L,
+            "2ba9a5549264758bdb9395e94a283e876de528d3");
+
+    writer.put(key(1), succeeded.outOfDate());
+    writer.putAll(ImmutableMap.of(key(2), succeeded.outOfDate()));
+    writer.stop();
+    writer.put(key(3), succeeded.outOfDate());
+
+    assertThat(store.statuses)
+        .containsExactly(key(1), succeeded, key(2), succeeded, key(3), succeeded);
+  }
+
+  private ReplicationStatusWriter writer(int queueSize, String fullPolicy) {
+    Config config = new Config();
+    config.setBoolean("plugin", "replication-status", "asyncWrites", true);
+    config.setInt("plugin", "replication-status", "writeQueueSize", queueSize);
+    config.setString("plugin", "replication-status", "writeQueueFullPolicy", fullPolicy);
+    ReplicationStatusIndex index = new ReplicationStatusIndex();
+    return new ReplicationStatusWriter(
+        store,
+        new ReplicationStatusConfig(config, "replication-status"),
+        new ReplicationStatusMetrics(new DisabledMetricMaker(), index));
+  }
+
+  private static ReplicationStatus.Key key(int n) {
+    return ReplicationStatus.Key.create(PROJECT, REMOTE, "refs/heads/branch-" + n);
+  }
+
+  private static ReplicationStatus status(long when) {
+    return ReplicationStatus.create(
+        ReplicationStatus.ReplicationType.PUSH,
+        ReplicationStatus.ReplicationStatusResult.SUCCEEDED,
+        when);
+  }
+
+  private static class FakeStore implements ReplicationStatusStore {
+    final Map<ReplicationStatus.Key, ReplicationStatus> statuses = new ConcurrentHashMap<>();
+    final AtomicInteger failures = new AtomicInteger();
+    // Counted down when a write starts, and awaited before completing it, if set.
+    volatile CountDownLatch writing;
+    volatile CountDownLatch written;
+
+    @Override
+    public ReplicationStatus get(ReplicationStatus.Key key) {
+      return statuses.get(key);
+    }
+
+    @Override
+    public void putAll(Map<ReplicationStatus.Key, ReplicationStatus> toPut) {
+      if (failures.getAndUpdate(f -> Math.max(0, f - 1)) > 0) {
+        throw new IllegalStateException("store unavailable");
+      }
+      if (writing != null) {
+        writing.countDown();
+        try {
+          written.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      statuses.putAll(toPut);
+    }
+
+    @Override
+    public void invalidateAll(Collection<ReplicationStatus.Key> keys) {
+      keys.forEach(statuses::remove);
+    }
+
+    @Override
+    public void flush() {}
+  }
+}